@@ -17,6 +17,7 @@ import com.orgzly.android.repos.RepoWithProps;
 import com.orgzly.android.repos.SyncRepo;
 import com.orgzly.android.repos.VersionedRook;
 import com.orgzly.android.sync.BookNamesake;
+import com.orgzly.android.sync.BlockingSyncUtils;
 import com.orgzly.android.sync.SyncUtils;
 import com.orgzly.android.util.MiscUtils;
 
@@ -148,7 +149,7 @@ public class TestUtils {
 
     public Map<String, BookNamesake> sync() {
         try {
-            Map<String, BookNamesake> nameGroups = SyncUtils.groupAllNotebooksByName(dataRepository);
+            Map<String, BookNamesake> nameGroups = BlockingSyncUtils.groupAllNotebooksByName(dataRepository);
 
             for (BookNamesake group : nameGroups.values()) {
                 BookAction action = SyncUtils.syncNamesake(dataRepository, group);
@@ -166,7 +167,7 @@ public class TestUtils {
     }
 
     public Map<String, BookNamesake> syncOrThrow() throws Exception {
-        Map<String, BookNamesake> nameGroups = SyncUtils.groupAllNotebooksByName(dataRepository);
+        Map<String, BookNamesake> nameGroups = BlockingSyncUtils.groupAllNotebooksByName(dataRepository);
 
         for (BookNamesake group : nameGroups.values()) {
             BookAction action = SyncUtils.syncNamesake(dataRepository, group);
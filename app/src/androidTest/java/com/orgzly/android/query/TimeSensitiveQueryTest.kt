@@ -18,8 +18,8 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
     fun testScheduledWithinHours1() {
         // Parse query
         val queryString = "s.le.2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
-            Calendar.HOUR_OF_DAY, 2+1) + "))"
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))"
+        val expectedSqlSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 2+1))
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -29,6 +29,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
 
         // Build query
         val actualSqlSelection = sqlQuery.selection
+        val actualSqlSelectionArgs = sqlQuery.selectionArgs.map { it.resolve() }
 
         expectedSqlSelection.let {
             ViewMatchers.assertThat(
@@ -37,14 +38,20 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            actualSqlSelectionArgs,
+            Matchers.`is`(expectedSqlSelectionArgs)
+        )
     }
 
     @Test
     fun testScheduledWithinHours2() {
         // Parse query
         val queryString = "s.le.+2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
-            Calendar.HOUR_OF_DAY, 2+1) + "))"
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))"
+        val expectedSqlSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 2+1))
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -54,6 +61,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
 
         // Build query
         val actualSqlSelection = sqlQuery.selection
+        val actualSqlSelectionArgs = sqlQuery.selectionArgs.map { it.resolve() }
 
         expectedSqlSelection.let {
             ViewMatchers.assertThat(
@@ -62,13 +70,20 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            actualSqlSelectionArgs,
+            Matchers.`is`(expectedSqlSelectionArgs)
+        )
     }
 
     @Test
     fun testClosedRecently() {
         // Parse query
         val queryString = "c.gt.-1h"
-        val expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0)} <= closed_time_timestamp))"
+        val expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp))"
+        val expectedSqlSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0))
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -78,6 +93,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
 
         // Build query
         val actualSqlSelection = sqlQuery.selection
+        val actualSqlSelectionArgs = sqlQuery.selectionArgs.map { it.resolve() }
 
         expectedSqlSelection.let {
             ViewMatchers.assertThat(
@@ -86,5 +102,11 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            actualSqlSelectionArgs,
+            Matchers.`is`(expectedSqlSelectionArgs)
+        )
     }
 }
\ No newline at end of file
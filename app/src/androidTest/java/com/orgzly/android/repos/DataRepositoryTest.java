@@ -15,7 +15,7 @@ import com.orgzly.android.db.entity.Repo;
 import com.orgzly.android.query.Query;
 import com.orgzly.android.query.user.InternalQueryParser;
 import com.orgzly.android.sync.BookNamesake;
-import com.orgzly.android.sync.SyncUtils;
+import com.orgzly.android.sync.BlockingSyncUtils;
 
 import org.joda.time.DateTime;
 import org.junit.Assert;
@@ -57,7 +57,7 @@ public class DataRepositoryTest extends OrgzlyTest {
         testUtils.setupBook("local-book-1", "");
 
         assertEquals("Local books", 1, dataRepository.getBooks().size());
-        assertEquals("Remote books", 3, SyncUtils.getBooksFromAllRepos(dataRepository, null).size());
+        assertEquals("Remote books", 3, BlockingSyncUtils.getBooksFromAllRepos(dataRepository).size());
     }
 
     @Test
@@ -67,7 +67,7 @@ public class DataRepositoryTest extends OrgzlyTest {
         testUtils.setupRook(repo, "mock://repo-a/remote-book-2.org", "", "1abcdef", 1300067156000L);
         testUtils.setupRook(repo, "mock://repo-a/remote-book-3.org", "", "2abcdef", 1200067156000L);
 
-        VersionedRook vrook = SyncUtils.getBooksFromAllRepos(dataRepository, null).get(0);
+        VersionedRook vrook = BlockingSyncUtils.getBooksFromAllRepos(dataRepository).get(0);
 
         dataRepository.loadBookFromRepo(vrook);
 
@@ -86,7 +86,7 @@ public class DataRepositoryTest extends OrgzlyTest {
     public void testCompareWithEmptyRepo() throws IOException {
         assertEquals("Starting with empty shelf", 0, dataRepository.getBooks().size());
 
-        Map<String, BookNamesake> nameGroups = SyncUtils.groupAllNotebooksByName(dataRepository);
+        Map<String, BookNamesake> nameGroups = BlockingSyncUtils.groupAllNotebooksByName(dataRepository);
 
         assertEquals(0, nameGroups.size());
     }
@@ -99,7 +99,7 @@ public class DataRepositoryTest extends OrgzlyTest {
         testUtils.setupRook(repo, "mock://repo-a/remote-book-2.org", "", "1abcdef", 1400412756);
         testUtils.setupRook(repo, "mock://repo-a/remote-book-3.org", "", "2abcdef", 1400671956);
 
-        Map<String, BookNamesake> groups = SyncUtils.groupAllNotebooksByName(dataRepository);
+        Map<String, BookNamesake> groups = BlockingSyncUtils.groupAllNotebooksByName(dataRepository);
 
         assertEquals(3, groups.size());
 
@@ -139,7 +139,7 @@ public class DataRepositoryTest extends OrgzlyTest {
         testUtils.setupRook(repo, "mock://repo-a/common-book-2.org", "", "3abcdef", 1400671956000L);
         testUtils.setupRook(repo, "mock://repo-a/remote-book-1.org", "", "0abcdef", 1400067156000L);
 
-        Map<String, BookNamesake> groups = SyncUtils.groupAllNotebooksByName(dataRepository);
+        Map<String, BookNamesake> groups = BlockingSyncUtils.groupAllNotebooksByName(dataRepository);
 
         assertEquals(5, groups.size());
 
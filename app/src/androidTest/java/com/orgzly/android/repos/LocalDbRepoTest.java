@@ -9,7 +9,7 @@ import com.orgzly.android.NotesOrgExporter;
 import com.orgzly.android.OrgzlyTest;
 import com.orgzly.android.db.entity.Book;
 import com.orgzly.android.db.entity.Repo;
-import com.orgzly.android.sync.SyncUtils;
+import com.orgzly.android.sync.BlockingSyncUtils;
 import com.orgzly.android.util.MiscUtils;
 
 import org.junit.Before;
@@ -32,7 +32,7 @@ public class LocalDbRepoTest extends OrgzlyTest {
         Repo repo = testUtils.setupRepo(RepoType.MOCK, "mock://repo-a");
         testUtils.setupRook(repo, "mock://repo-a/mock-book.org", "book content\n\n* First note\n** Second note", "rev1", 1234567890000L);
 
-        List<VersionedRook> books = SyncUtils.getBooksFromAllRepos(dataRepository, null);
+        List<VersionedRook> books = BlockingSyncUtils.getBooksFromAllRepos(dataRepository);
 
         assertEquals(1, books.size());
 
@@ -78,7 +78,7 @@ public class LocalDbRepoTest extends OrgzlyTest {
         testUtils.setupRook(repo, "mock://repo-a/mock-book.org", "book content\n\n* First note\n** Second note", "rev1", 1234567890000L);
 
         SyncRepo syncRepo = testUtils.repoInstance(RepoType.MOCK, "mock://repo-a");
-        VersionedRook vrook = SyncUtils.getBooksFromAllRepos(dataRepository, null).get(0);
+        VersionedRook vrook = BlockingSyncUtils.getBooksFromAllRepos(dataRepository).get(0);
 
         File tmpFile = dataRepository.getTempBookFile();
         try {
@@ -0,0 +1,20 @@
+package com.orgzly.android.sync
+
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.repos.VersionedRook
+import kotlinx.coroutines.runBlocking
+
+/**
+ * Suspending functions of [SyncUtils], for tests written in Java.
+ */
+object BlockingSyncUtils {
+    @JvmStatic
+    fun getBooksFromAllRepos(dataRepository: DataRepository): List<VersionedRook> {
+        return runBlocking { SyncUtils.getBooksFromAllRepos(dataRepository) }
+    }
+
+    @JvmStatic
+    fun groupAllNotebooksByName(dataRepository: DataRepository): Map<String, BookNamesake> {
+        return runBlocking { SyncUtils.groupAllNotebooksByName(dataRepository) }
+    }
+}
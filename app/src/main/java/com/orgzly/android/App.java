@@ -2,11 +2,15 @@ package com.orgzly.android;
 
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.os.StrictMode;
 
 import androidx.multidex.MultiDex;
 import androidx.preference.PreferenceManager;
 
+import com.orgzly.BuildConfig;
+import com.orgzly.android.data.logs.AppLogsRepository;
 import com.orgzly.android.di.AppComponent;
 import com.orgzly.android.di.DaggerAppComponent;
 import com.orgzly.android.di.module.ApplicationModule;
@@ -17,6 +21,8 @@ import com.orgzly.android.ui.settings.SettingsFragment;
 
 import org.jetbrains.annotations.Nullable;
 
+import javax.inject.Inject;
+
 public class App extends Application {
     private static Context context;
 
@@ -27,6 +33,9 @@ public class App extends Application {
 
     public static AppComponent appComponent;
 
+    @Inject
+    AppLogsRepository appLogs;
+
     @Override
     protected void attachBaseContext(Context base) {
         super.attachBaseContext(base);
@@ -44,10 +53,11 @@ public class App extends Application {
                 .databaseModule(new DatabaseModule(false))
                 .build();
 
-//        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
-//                .detectAll()
-//                .penaltyLog()
-//                .build());
+        appComponent.inject(this);
+
+        if (BuildConfig.DEBUG) {
+            enableStrictMode();
+        }
 
         // Register CommonActivity life cycle within the App
         // to be able to access the activity in classes like OrgFormatter
@@ -60,6 +70,37 @@ public class App extends Application {
         NotificationChannels.createAll(this);
     }
 
+    /**
+     * Process can be killed at any time once it's in the background, so store queued logs.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            EXECUTORS.diskIO().execute(() -> appLogs.flush());
+        }
+    }
+
+    /**
+     * Logs disk and network access from the main thread, as well as leaked resources.
+     * Database can't be accessed from the main thread at all, Room throws in that case.
+     */
+    private static void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+
     public static void setDefaultPreferences(Context context, boolean readAgain) {
         if (readAgain || !PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PreferenceManager.KEY_HAS_SET_DEFAULT_VALUES, false)) {
             for (int res: SettingsFragment.PREFS_RESOURCES.values()) {
@@ -5,6 +5,7 @@ import com.orgzly.R
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.data.mappers.OrgMapper
 import com.orgzly.android.db.entity.Book
+import com.orgzly.android.db.entity.NoteProperty
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.org.parser.OrgParserSettings
@@ -19,27 +20,69 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
 
     /**
      * Writes content of the book from database to a specified file.
+     * The file is written again if the book is modified while it's being written.
      */
     @Throws(IOException::class)
     fun exportBook(book: Book, file: File) {
         val encoding = book.usedEncoding ?: Charset.defaultCharset().name()
 
-        PrintWriter(file, encoding).use {
-            exportBook(book, it)
-        }
+        writeBook(book, file, encoding)
     }
 
+    /**
+     * Writes content of the book from database to [writer].
+     * The book is first written to a temporary file, so that nothing is passed to [writer]
+     * if the book keeps being modified while it's being written.
+     */
     @Throws(IOException::class)
     fun exportBook(book: Book, writer: Writer) {
-        val orgParserSettings = getOrgParserSettingsFromPreferences()
-        val orgWriter = OrgParserWriter(orgParserSettings)
+        val tmpFile = dataRepository.getTempBookFile()
+
+        try {
+            writeBook(book, tmpFile, Charsets.UTF_8.name())
+
+            tmpFile.reader(Charsets.UTF_8).use {
+                it.copyTo(writer)
+            }
+
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun writeBook(book: Book, file: File, encoding: String) {
+        for (attempt in 1..MAX_ATTEMPTS) {
+            try {
+                PrintWriter(file, encoding).use {
+                    writeNotes(book, it)
+                }
+                return
+
+            } catch (e: ConcurrentModificationException) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw IOException("Book ${book.name} kept changing while exporting it", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws ConcurrentModificationException if the book is modified while it's being written
+     */
+    @Throws(IOException::class)
+    private fun writeNotes(book: Book, writer: Writer) {
+        // Same settings and writer for all notes
+        val orgWriter = OrgParserWriter(getOrgParserSettingsFromPreferences())
+
+        val isIndented = book.isIndented == true
 
         // Write preface
         writer.write(orgWriter.whiteSpacedFilePreface(book.preface))
 
-        // Write each note using exportNote
-        dataRepository.getNotes(book.name).forEach { noteView ->
-            writer.write(exportNote(noteView, book.isIndented == true))
+        // Write notes as they are read, without loading the whole book
+        dataRepository.forEachNoteWithProperties(book.id) { noteView, properties ->
+            writer.write(exportNote(orgWriter, noteView, properties, isIndented))
         }
     }
 
@@ -50,26 +93,30 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
         val noteView = dataRepository.getNoteView(noteId)
             ?: throw IllegalArgumentException("Note with id $noteId not found")
 
-        return exportNote(noteView, false)
+        val orgWriter = OrgParserWriter(getOrgParserSettingsFromPreferences())
+
+        return exportNote(orgWriter, noteView, dataRepository.getNoteProperties(noteId), false)
     }
 
     /**
      * Exports a single note from NoteView to Org format string.
      */
-    private fun exportNote(noteView: NoteView, isIndented: Boolean): String {
-        val orgParserSettings = getOrgParserSettingsFromPreferences()
-        val orgWriter = OrgParserWriter(orgParserSettings)
-
-        val note = noteView.note
-
+    private fun exportNote(
+        orgWriter: OrgParserWriter,
+        noteView: NoteView,
+        properties: List<NoteProperty>,
+        isIndented: Boolean
+    ): String {
         val head = OrgMapper.toOrgHead(noteView).apply {
-            properties = OrgMapper.toOrgProperties(dataRepository.getNoteProperties(note.id))
+            this.properties = OrgMapper.toOrgProperties(properties)
         }
 
-        return orgWriter.whiteSpacedHead(head, note.position.level, isIndented)
+        return orgWriter.whiteSpacedHead(head, noteView.note.position.level, isIndented)
     }
 
     companion object {
+        private const val MAX_ATTEMPTS = 3
+
         private fun getOrgParserSettingsFromPreferences(): OrgParserSettings {
             val parserSettings = OrgParserSettings.getBasic()
 
@@ -1,19 +1,22 @@
 package com.orgzly.android.calendar
 
 import android.Manifest
+import android.content.ContentProviderOperation
 import android.content.ContentUris
 import android.content.ContentValues
 import android.content.Context
 import android.content.pm.PackageManager
 import android.provider.CalendarContract
+import android.util.Log
 import androidx.core.content.ContextCompat
 import androidx.core.graphics.toColorInt
 import com.orgzly.BuildConfig
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.sql.CompiledQueryCache
 import com.orgzly.android.util.LogUtils
+import com.orgzly.android.util.MiscUtils
 import com.orgzly.org.datetime.OrgRange
 import com.orgzly.org.datetime.OrgRepeater
 import com.orgzly.org.datetime.OrgInterval
@@ -46,6 +49,12 @@ class CalendarManager(
         // Constants for time calculations
         private const val HOUR_IN_MILLIS = 60 * 60 * 1000L
         private const val DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS
+
+        // Number of calendar provider operations applied at once
+        private const val BATCH_SIZE = 100
+
+        // Change to force updating all events, when the way they are built changes
+        private const val EVENT_HASH_VERSION = 1
     }
 
     fun updateCalendar() {
@@ -88,7 +97,7 @@ class CalendarManager(
             val search = dataRepository.getSavedSearch(searchId)
             if (search != null) {
                 LogUtils.d(TAG, "Using saved search: ${search.name} (${search.query})")
-                val query = InternalQueryParser().parse(search.query)
+                val query = CompiledQueryCache.compile(context, search.query).query
                 return dataRepository.selectNotesFromQuery(query)
             }
         }
@@ -202,10 +211,14 @@ class CalendarManager(
         return resultUri?.lastPathSegment?.toLongOrNull() ?: -1L
     }
 
+    /** Event previously exported for a note. */
+    private data class ExportedEvent(val id: Long, val hash: String?)
+
     private fun syncNotesToCalendar(calendarId: Long, notes: List<NoteView>) {
-        val existingEvents = HashMap<Long, MutableList<Long>>() // NoteID -> EventIDs
+        val existingEvents = HashMap<Long, MutableList<ExportedEvent>>() // NoteID -> Events
 
-        val projection = arrayOf(CalendarContract.Events._ID, CalendarContract.Events.SYNC_DATA1)
+        val projection = arrayOf(
+            CalendarContract.Events._ID, CalendarContract.Events.SYNC_DATA1, CalendarContract.Events.SYNC_DATA2)
         val selection = "${CalendarContract.Events.CALENDAR_ID} = ?"
         val selectionArgs = arrayOf(calendarId.toString())
 
@@ -218,79 +231,138 @@ class CalendarManager(
         )?.use { cursor ->
             val idIndex = cursor.getColumnIndex(CalendarContract.Events._ID)
             val syncData1Index = cursor.getColumnIndex(CalendarContract.Events.SYNC_DATA1)
-            
-            if (idIndex != -1 && syncData1Index != -1) {
+            val syncData2Index = cursor.getColumnIndex(CalendarContract.Events.SYNC_DATA2)
+
+            if (idIndex != -1 && syncData1Index != -1 && syncData2Index != -1) {
                 while (cursor.moveToNext()) {
                     val eventId = cursor.getLong(idIndex)
                     val noteIdStr = cursor.getString(syncData1Index)
+                    val hash = cursor.getString(syncData2Index)
                     noteIdStr?.toLongOrNull()?.let { noteId ->
-                        existingEvents.getOrPut(noteId) { mutableListOf<Long>() }.add(eventId)
+                        existingEvents.getOrPut(noteId) { mutableListOf() }.add(ExportedEvent(eventId, hash))
                     }
                 }
             }
         }
 
+        val operations = ArrayList<ContentProviderOperation>()
+        var unchanged = 0
+
         for (note in notes) {
-            // Determine start/end time and if it's an all-day event
-            val eventTime = when {
-                note.scheduledTimeTimestamp != null -> CalendarEventTime(
-                    note.scheduledTimeTimestamp,
-                    null, // End time not supported in this version
-                    note.scheduledTimeHour == null,
-                    OrgRange.parse(note.scheduledRangeString).getStartTime().getRepeater()
-                )
-                note.deadlineTimeTimestamp != null -> CalendarEventTime(
-                    note.deadlineTimeTimestamp,
-                    null, // End time not supported in this version
-                    note.deadlineTimeHour == null,
-                    OrgRange.parse(note.deadlineRangeString).getStartTime().getRepeater()
-                )
-                note.eventTimestamp != null -> CalendarEventTime(
-                    note.eventTimestamp,
-                    note.eventEndTimestamp,
-                    note.eventHour == null,
-                    OrgRange.parse(note.eventString).getStartTime().getRepeater(),
-                )
-                else -> null
-            }
+            val source = eventSource(note) ?: continue
 
-            if (eventTime != null) {
-                if (existingEvents.containsKey(note.note.id)) {
-                    val events = existingEvents[note.note.id]!!
-                    if (events.isNotEmpty()) {
-                        updateEvent(calendarId, events.removeLast(), note, eventTime)
-                    }
+            val hash = eventHash(calendarId, note, source)
 
+            val event = existingEvents[note.note.id]?.let { events ->
+                events.removeLast().also {
                     if (events.isEmpty()) {
                         existingEvents.remove(note.note.id)
                     }
-                } else {
-                    insertEvent(calendarId, note, eventTime)
                 }
             }
+
+            if (event != null && event.hash == hash) {
+                unchanged++
+                continue
+            }
+
+            // Timestamp is only parsed for events which are actually written
+            val values = buildEventContentValues(calendarId, note, eventTime(source)).apply {
+                put(CalendarContract.Events.SYNC_DATA2, hash)
+            }
+
+            if (event != null) {
+                LogUtils.d(TAG, "Updating event ${event.id} for note ${note.note.id}")
+                val uri = asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, event.id))
+                operations.add(ContentProviderOperation.newUpdate(uri).withValues(values).build())
+            } else {
+                LogUtils.d(TAG, "Inserting event for note ${note.note.id}: ${note.note.title}")
+                val uri = asSyncAdapter(CalendarContract.Events.CONTENT_URI)
+                operations.add(ContentProviderOperation.newInsert(uri).withValues(values).build())
+            }
         }
 
         for (events in existingEvents.values) {
-            for (eventId in events) {
-                deleteEvent(eventId)
+            for (event in events) {
+                LogUtils.d(TAG, "Deleting event ${event.id}")
+                val uri = asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, event.id))
+                operations.add(ContentProviderOperation.newDelete(uri).build())
             }
         }
+
+        LogUtils.d(TAG, "Events unchanged: $unchanged, operations: ${operations.size}")
+
+        applyInBatches(operations)
     }
 
-    private fun insertEvent(calendarId: Long, note: NoteView, eventTime: CalendarEventTime) {
-        LogUtils.d(TAG, "Inserting event for note ${note.note.id}: ${note.note.title} (AllDay: ${eventTime.isAllDay})")
-        val values = buildEventContentValues(calendarId, note, eventTime)
-        val uri = asSyncAdapter(CalendarContract.Events.CONTENT_URI)
-        val resultUri = context.contentResolver.insert(uri, values)
-        LogUtils.d(TAG, "Inserted event URI: $resultUri")
+    private fun applyInBatches(operations: List<ContentProviderOperation>) {
+        operations.chunked(BATCH_SIZE).forEach { batch ->
+            try {
+                context.contentResolver.applyBatch(CalendarContract.AUTHORITY, ArrayList(batch))
+            } catch (e: Exception) {
+                // Other batches are still applied, failed changes are retried on the next run
+                Log.e(TAG, "Failed to apply batch of ${batch.size} operations", e)
+            }
+        }
     }
 
-    private fun updateEvent(calendarId: Long, eventId: Long, note: NoteView, eventTime: CalendarEventTime) {
-        LogUtils.d(TAG, "Updating event $eventId for note ${note.note.id} (AllDay: ${eventTime.isAllDay})")
-        val values = buildEventContentValues(calendarId, note, eventTime)
-        val uri = asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, eventId))
-        val rows = context.contentResolver.update(uri, values, null, null)
-        LogUtils.d(TAG, "Updated rows: $rows")
+    /**
+     * Note's time the event is created from, as stored in the database.
+     */
+    private data class EventSource(
+        val timestamp: Long,
+        val endTimestamp: Long?,
+        val hour: Int?,
+        val rangeString: String?
+    )
+
+    private fun eventSource(note: NoteView): EventSource? {
+        return when {
+            note.scheduledTimeTimestamp != null -> EventSource(
+                note.scheduledTimeTimestamp,
+                null, // End time not supported in this version
+                note.scheduledTimeHour,
+                note.scheduledRangeString
+            )
+            note.deadlineTimeTimestamp != null -> EventSource(
+                note.deadlineTimeTimestamp,
+                null, // End time not supported in this version
+                note.deadlineTimeHour,
+                note.deadlineRangeString
+            )
+            note.eventTimestamp != null -> EventSource(
+                note.eventTimestamp,
+                note.eventEndTimestamp,
+                note.eventHour,
+                note.eventString
+            )
+            else -> null
+        }
+    }
+
+    private fun eventTime(source: EventSource): CalendarEventTime {
+        return CalendarEventTime(
+            source.timestamp,
+            source.endTimestamp,
+            source.hour == null,
+            OrgRange.parse(source.rangeString).getStartTime().getRepeater()
+        )
+    }
+
+    /**
+     * Hash of everything event's values are built from. Stored with the event, so that
+     * events of notes which have not changed since the last export are not written again.
+     */
+    private fun eventHash(calendarId: Long, note: NoteView, source: EventSource): String {
+        return MiscUtils.sha1(listOf(
+            EVENT_HASH_VERSION,
+            calendarId,
+            note.note.id,
+            note.note.title,
+            note.note.content,
+            source,
+            TimeZone.getDefault().id
+        ).joinToString("\u0000")).toString()
     }
 
     private fun buildEventContentValues(calendarId: Long, note: NoteView, eventTime: CalendarEventTime): ContentValues {
@@ -329,12 +401,6 @@ class CalendarManager(
         }
     }
 
-    private fun deleteEvent(eventId: Long) {
-        LogUtils.d(TAG, "Deleting event $eventId")
-        val uri = asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, eventId))
-        context.contentResolver.delete(uri, null, null)
-    }
-
     private fun adjustEventTimesForTimezone(eventStartTime: Long, eventEndTime: Long, isAllDay: Boolean): Triple<Long, Long, String> {
         return if (isAllDay) {
             val localTimeZone = TimeZone.getDefault()
@@ -1,6 +1,5 @@
 package com.orgzly.android.data
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.content.res.Resources
@@ -13,7 +12,8 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.map
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
-import androidx.sqlite.db.SupportSQLiteQuery
+import androidx.paging.PagingSource
+import androidx.sqlite.db.SimpleSQLiteQuery
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
 import com.google.gson.Gson
 import com.google.gson.JsonObject
@@ -32,8 +32,10 @@ import com.orgzly.android.db.entity.*
 import com.orgzly.android.db.mappers.OrgTimestampMapper
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.Query
+import com.orgzly.android.query.QueryDependencies
+import com.orgzly.android.query.sql.CompiledQueryCache
+import com.orgzly.android.query.sql.SqlQuery
 import com.orgzly.android.query.sql.SqliteQueryBuilder
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.repos.*
 import com.orgzly.android.repos.Rook
 import com.orgzly.android.repos.VersionedRook
@@ -60,9 +62,15 @@ import com.orgzly.org.utils.StateChangeLogic
 import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.WorkManager
 import com.orgzly.android.calendar.CalendarWorker
+import kotlinx.coroutines.flow.Flow
 import java.io.*
 import java.util.*
 import java.util.concurrent.Callable
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.withLock
+import kotlin.concurrent.write
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -75,6 +83,21 @@ class DataRepository @Inject constructor(
         private val resources: Resources,
         private val localStorage: LocalStorage) {
 
+    /* Set only while running a transaction, see runInTransactionWithOrgRangeIdCache. */
+    private val orgRangeIdCache = ThreadLocal<OrgRangeIdCache?>()
+
+    /*
+     * Held for reading while books are staged, as timestamps they use are not yet referenced
+     * by notes. Held for writing while unused timestamps are deleted.
+     */
+    private val stagedBooksLock = ReentrantReadWriteLock()
+
+    /*
+     * Held while books' sync state (book_syncs, versioned_rooks) is written, so that books
+     * synced in parallel don't interleave their updates. See inSyncStateSection.
+     */
+    private val syncStateLock = ReentrantLock()
+
     private fun triggerCalendarSync() {
         val calendarRequest = OneTimeWorkRequestBuilder<CalendarWorker>().build()
         WorkManager.getInstance(context).enqueue(calendarRequest)
@@ -154,16 +177,18 @@ class DataRepository @Inject constructor(
      * @return [Book]
      * @throws IOException
      */
+    @JvmOverloads
     @Throws(IOException::class)
     fun saveBookToRepo(
             repoEntity: Repo,
             repositoryPath: String,
             bookView: BookView,
-            @Suppress("UNUSED_PARAMETER") format: BookFormat) {
+            @Suppress("UNUSED_PARAMETER") format: BookFormat,
+            round: SyncRound? = null) {
 
         val uploadedBook: VersionedRook
 
-        val repo = getRepoInstance(repoEntity.id, repoEntity.type, repoEntity.url)
+        val repo = getRepoInstance(repoEntity.id, repoEntity.type, repoEntity.url, round)
 
         val tmpFile = getTempBookFile()
         try {
@@ -178,10 +203,24 @@ class DataRepository @Inject constructor(
             tmpFile.delete()
         }
 
-        updateBookLinkAndSync(bookView.book.id, uploadedBook)
+        inSyncStateSection {
+            updateBookLinkAndSync(bookView.book.id, uploadedBook)
 
-        updateBookIsModified(bookView.book.id, false)
+            updateBookIsModified(bookView.book.id, false)
+        }
+    }
 
+    /**
+     * Runs [block] holding [syncStateLock]. Within a transaction, the lock is not taken,
+     * as writes are already serialized by SQLite and waiting for the lock there could
+     * deadlock with a thread holding it and waiting for the transaction.
+     */
+    private fun <T> inSyncStateSection(block: () -> T): T {
+        return if (db.inTransaction()) {
+            block()
+        } else {
+            syncStateLock.withLock(block)
+        }
     }
 
     @Throws(IOException::class)
@@ -249,6 +288,10 @@ class DataRepository @Inject constructor(
         return db.bookView().get(id)
     }
 
+    suspend fun loadBookView(id: Long): BookView? {
+        return db.bookView().load(id)
+    }
+
     private fun doesBookExist(name: String): Boolean {
         return getBook(name) != null
     }
@@ -261,6 +304,14 @@ class DataRepository @Inject constructor(
         return db.book().get(id)
     }
 
+    suspend fun loadBook(id: Long): Book? {
+        return db.book().load(id)
+    }
+
+    suspend fun loadBook(name: String): Book? {
+        return db.book().load(name)
+    }
+
     fun getBookOrThrow(id: Long): Book {
         return db.book().get(id) ?: throw IllegalStateException("Book with ID $id not found")
     }
@@ -428,6 +479,11 @@ class DataRepository @Inject constructor(
         db.book().updatePreface(bookId, preface, settings.title, filetags)
         setBookPropertiesFromPreface(bookId, preface)
 
+        // Filetags are inherited by all notes in the book
+        db.note().getRootNodeId(bookId)?.let { rootId ->
+            updateTagsForSubtrees(setOf(rootId))
+        }
+
         updateBookIsModified(bookId, true)
     }
 
@@ -454,19 +510,41 @@ class DataRepository @Inject constructor(
         val rookRevision = uploadedBook.revision
         val rookMtime = uploadedBook.mtime
 
-        val rookUrlId = db.rookUrl().getOrInsert(rookUrl)
-        val rookId = db.rook().getOrInsert(repoId, rookUrlId)
+        // Rows are unused until the book is synced to them, see deleteUnusedRows
+        inSyncStateSection {
+            db.runInTransaction {
+                val rookUrlId = db.rookUrl().getOrInsert(rookUrl)
+                val rookId = db.rook().getOrInsert(repoId, rookUrlId)
 
-        val versionedRookId = db.versionedRook().replace(
-                com.orgzly.android.db.entity.VersionedRook(
-                        0, rookId, rookRevision, rookMtime))
+                val versionedRookId = db.versionedRook().replace(
+                        com.orgzly.android.db.entity.VersionedRook(
+                                0, rookId, rookRevision, rookMtime))
 
-        db.bookLink().upsert(bookId, repoId)
-        db.bookSync().upsert(bookId, versionedRookId)
+                db.bookLink().upsert(bookId, repoId)
+                db.bookSync().upsert(bookId, versionedRookId)
+            }
+        }
+    }
+
+    /**
+     * Update books synced to the same rooks with their latest versions.
+     */
+    fun updateBooksSyncedTo(rooks: List<VersionedRook>) {
+        inSyncStateSection {
+            db.runInTransaction {
+                for (rook in rooks) {
+                    for (bookId in db.bookSync().getBookIdsSyncedTo(rook.repoId, rook.uri.toString())) {
+                        updateBookLinkAndSync(bookId, rook)
+                    }
+                }
+            }
+        }
     }
 
     fun removeBookSyncedTo(bookId: Long) {
-        db.bookSync().delete(bookId)
+        inSyncStateSection {
+            db.bookSync().delete(bookId)
+        }
     }
 
     private fun updateBookIsModified(bookId: Long, isModified: Boolean, time: Long = System.currentTimeMillis()) {
@@ -656,7 +734,7 @@ class DataRepository @Inject constructor(
     }
 
     fun pasteNotes(clipboard: NotesClipboard, bookId: Long, noteId: Long, place: Place): Int {
-        return db.runInTransaction(Callable {
+        return runInTransactionWithOrgRangeIdCache(Callable {
             pasteNotesClipboard(clipboard, bookId, place, noteId)
         })
     }
@@ -695,7 +773,7 @@ class DataRepository @Inject constructor(
                 Clipboard entries: ${clipboard.entries}
                 """.trimIndent())
 
-        makeSpaceForNewNotes(clipboard.count, targetNote, place)
+        val space = makeSpaceForNewNotes(clipboard.count, targetNote, place)
 
         var lastNoteId = 0L
         val parentIds = ArrayDeque<Long>().apply {
@@ -706,8 +784,8 @@ class DataRepository @Inject constructor(
         for (entry in clipboard.entries) {
             val level = levelOffset + entry.note.position.level
 
-            val lft = targetPosition.lft + entry.note.position.lft - 1
-            val rgt = targetPosition.lft + entry.note.position.rgt - 1
+            val lft = space.position(entry.note.position.lft)
+            val rgt = space.position(entry.note.position.rgt)
 
             val foldedUnderId = idsMap[entry.note.position.foldedUnderId]
                     ?: if (targetPosition.foldedUnder != 0L) targetPosition.foldedUnder else 0
@@ -722,6 +800,10 @@ class DataRepository @Inject constructor(
 
             val note = entry.note.copy(
                     id = 0,
+                    scheduledRangeId = getPastedOrgRangeId(entry.ranges?.scheduled, entry.note.scheduledRangeId),
+                    deadlineRangeId = getPastedOrgRangeId(entry.ranges?.deadline, entry.note.deadlineRangeId),
+                    closedRangeId = getPastedOrgRangeId(entry.ranges?.closed, entry.note.closedRangeId),
+                    clockRangeId = getPastedOrgRangeId(entry.ranges?.clock, entry.note.clockRangeId),
                     position = entry.note.position.copy(
                             bookId = targetNote.position.bookId,
                             lft = lft,
@@ -752,6 +834,8 @@ class DataRepository @Inject constructor(
 
         db.noteAncestor().insertAncestorsForNotes(pastedNoteIds)
 
+        updateTagsForSubtrees(pastedNoteIds)
+
         // Update descendants count for the target note and its ancestors
         db.note().updateDescendantsCountForNoteAndAncestors(listOf(targetNote.id))
 
@@ -762,6 +846,19 @@ class DataRepository @Inject constructor(
         return pastedNoteIds.size
     }
 
+    /**
+     * Ranges of notes in the clipboard are deleted once they are no longer used,
+     * so they are stored again when pasting.
+     */
+    private fun getPastedOrgRangeId(rangeString: String?, rangeId: Long?): Long? {
+        return if (rangeString != null) {
+            getOrgRangeId(rangeString)
+        } else {
+            // Clipboard saved before range strings were stored with notes
+            rangeId?.takeIf { db.orgRange().get(it) != null }
+        }
+    }
+
     data class NoteWithPosition(val note: Note, val level: Int, val lft: Long, val rgt: Long)
 
     fun getSubtreesAligned(ids: Set<Long>): List<Note> {
@@ -875,8 +972,7 @@ class DataRepository @Inject constructor(
 
         db.noteAncestor().deleteForSubtrees(selectedIds)
 
-        makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
-
+        val space = makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
 
         val ids = mutableSetOf<Long>()
         val sourceBookIds = mutableSetOf<Long>()
@@ -887,8 +983,8 @@ class DataRepository @Inject constructor(
                     note.id,
                     targetNote.position.bookId,
                     targetPosition.level + note.position.level - 1,
-                    targetPosition.lft + note.position.lft - 1,
-                    targetPosition.lft + note.position.rgt - 1,
+                    space.position(note.position.lft),
+                    space.position(note.position.rgt),
                     // Set parent ID for top-level notes
                     if (note.position.level == 1) {
                         targetPosition.parentId
@@ -904,6 +1000,9 @@ class DataRepository @Inject constructor(
         // Update note ancestors table
         db.noteAncestor().insertAncestorsForNotes(ids)
 
+        // Inherited tags depend on the new ancestors
+        updateTagsForSubtrees(selectedIds)
+
         db.note().updateDescendantsCountForAncestors(selectedIds)
 
         db.note().unfoldNotesFoldedUnderOthers(ids)
@@ -932,14 +1031,12 @@ class DataRepository @Inject constructor(
     }
 
     data class TargetPosition(
-            val lft: Long = 0,
             val level: Int = 0,
             val parentId: Long = 0,
             val foldedUnder: Long = 0) {
 
         companion object {
             fun getInstance(db: OrgzlyDatabase, targetNote: Note, place: Place): TargetPosition {
-                val lft: Long
                 val level: Int
                 val parentId: Long
 
@@ -951,7 +1048,6 @@ class DataRepository @Inject constructor(
 
                 when (place) {
                     Place.ABOVE -> {
-                        lft = targetNote.position.lft
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -964,15 +1060,12 @@ class DataRepository @Inject constructor(
                             LogUtils.d(TAG, "lastDescendant: $lastDescendant")
 
 
-                        if (lastDescendant != null) {
+                        level = if (lastDescendant != null) {
                             // Insert after last descendant with highest level
-                            lft = lastDescendant.position.rgt + 1
-                            level = lastDescendant.position.level
-
+                            lastDescendant.position.level
                         } else {
                             // Insert just under the target note
-                            lft = targetNote.position.lft + 1
-                            level = targetNote.position.level + 1
+                            targetNote.position.level + 1
                         }
 
                         if (targetNote.position.isFolded) {
@@ -983,7 +1076,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.UNDER_AS_FIRST -> {
-                        lft = targetNote.position.lft + 1
                         level = targetNote.position.level + 1
 
                         if (targetNote.position.isFolded) {
@@ -994,7 +1086,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.BELOW -> {
-                        lft = targetNote.position.rgt + 1
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -1002,7 +1093,7 @@ class DataRepository @Inject constructor(
                     else -> throw IllegalArgumentException("Unsupported place: $place")
                 }
 
-                return TargetPosition(lft, level, parentId, foldedUnder)
+                return TargetPosition(level, parentId, foldedUnder)
             }
         }
     }
@@ -1112,7 +1203,7 @@ class DataRepository @Inject constructor(
     }
 
     fun setNotesState(noteIds: Set<Long>, state: String?): Int {
-        return db.runInTransaction(Callable {
+        return runInTransactionWithOrgRangeIdCache(Callable {
             /*
              * Notebooks must be updated before notes,
              * because this query checks for notes what will be affected.
@@ -1203,26 +1294,74 @@ class DataRepository @Inject constructor(
         }
     }
 
+    /**
+     * Notes matching the query, selected again only after changes which can affect them.
+     */
     fun selectNotesFromQueryLiveData(queryString: String): LiveData<List<NoteView>> {
-        val parser = InternalQueryParser()
+        val (query, sqlQuery) = CompiledQueryCache.compile(context, queryString)
 
-        val query = parser.parse(queryString)
+        val queryWithArgs = buildSqlQuery(query, sqlQuery)
 
-        val sqlQuery = buildSqlQuery(query)
+        // Arguments are resolved on each run, as relative times change
+        return NotesQueryLiveData(db, queryDependencies(query)) {
+            db.noteView().runQuery(queryWithArgs.toQuery())
+        }
+    }
 
-        return db.noteView().runQueryLiveData(sqlQuery)
+    /**
+     * Notes matching the query, loaded page by page.
+     */
+    fun selectNotesFromQueryPagingSource(queryString: String): PagingSource<Int, NoteView> {
+        val (query, sqlQuery) = CompiledQueryCache.compile(context, queryString)
+
+        return db.noteView().runQueryPagingSource(buildSqlQuery(query, sqlQuery).toQuery())
+    }
+
+    /* Folding is only displayed in results if notes can be folded outside of the book. */
+    private fun queryDependencies(query: Query): QueryDependencies {
+        return QueryDependencies.of(query, folding = AppPreferences.isSearchFoldable(context))
+    }
+
+    /**
+     * Those of [ids] which still match the query.
+     */
+    fun selectNoteIdsFromQuery(queryString: String, ids: Set<Long>): Set<Long> {
+        val (query, sqlQuery) = CompiledQueryCache.compile(context, queryString)
+
+        return ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).flatMapTo(hashSetOf()) { chunk ->
+            val queryWithArgs = buildSqlQuery(
+                    query, sqlQuery, columns = arrayOf("id"), restriction = "id IN (${chunk.joinToString(",")})")
+
+            db.noteView().runIdsQuery(queryWithArgs.toQuery())
+        }
     }
 
     fun selectNotesFromQuery(query: Query): List<NoteView> {
-        val sqlQuery = buildSqlQuery(query)
+        val queryWithArgs = buildSqlQuery(query, CompiledQueryCache.build(context, query))
 
-        return db.noteView().runQuery(sqlQuery)
+        return db.noteView().runQuery(queryWithArgs.toQuery())
+    }
+
+    /**
+     * Raw query with its arguments, so that it can be wrapped into another one.
+     * Arguments are resolved each time the query is created.
+     */
+    private class QueryWithArgs(val sql: String, val args: List<SqlQuery.Argument>) {
+        fun toQuery() = SimpleSQLiteQuery(sql, args.map { it.resolve() }.toTypedArray())
     }
 
-    private fun buildSqlQuery(query: Query): SupportSQLiteQuery {
-        val queryBuilder = SqliteQueryBuilder(context)
+    /**
+     * @param sqlQuery [query] built by [SqliteQueryBuilder]
+     * @param columns columns to select, all if null
+     * @param restriction additional selection, ANDed with the query's condition
+     */
+    private fun buildSqlQuery(
+            query: Query,
+            sqlQuery: SqlQuery,
+            columns: Array<String>? = null,
+            restriction: String? = null): QueryWithArgs {
 
-        val (selection, selectionArgs, having, orderBy) = queryBuilder.build(query)
+        val (selection, selectionArgs, having, orderBy) = sqlQuery
 
         val s = mutableListOf<String>()
 
@@ -1238,6 +1377,10 @@ class DataRepository @Inject constructor(
             s.add(NoteDao.WHERE_EXISTING_NOTES)
         }
 
+        if (restriction != null) {
+            s.add(restriction)
+        }
+
         val selection2 = if (s.isEmpty()) "0" else TextUtils.join(" AND ", s)
 
         // For agenda, group by event timestamp too
@@ -1247,36 +1390,91 @@ class DataRepository @Inject constructor(
             "id"
         }
 
-        val supportQuery = SupportSQLiteQueryBuilder
+        // Arguments are bound later, when the query is run
+        val sql = SupportSQLiteQueryBuilder
                 .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS})")
-                .selection(selection2, selectionArgs.toTypedArray())
+                .columns(columns)
+                .selection(selection2, null)
                 .groupBy(groupBy)
                 .having(having)
                 .orderBy(orderBy)
                 .create()
+                .sql
 
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, "Selecting notes using query $query "
-                    + "with selection args $selectionArgs\n${supportQuery.sql}")
+                    + "with selection args $selectionArgs\n$sql")
 
-        return supportQuery
+        return QueryWithArgs(sql, selectionArgs)
     }
 
     fun getNotes(bookName: String): List<NoteView> {
         return db.noteView().getBookNotes(bookName)
     }
 
+    /**
+     * Passes book's notes with their properties to [action] in order, reading them in chunks.
+     *
+     * No transaction is held, so that [action] can write to a file without blocking writes
+     * to the database. Instead, book's version is checked after reading each chunk.
+     *
+     * @throws ConcurrentModificationException if book's notes are changed while reading them
+     */
+    fun forEachNoteWithProperties(
+            bookId: Long,
+            chunkSize: Int = NOTES_CHUNK_SIZE,
+            action: (NoteView, List<NoteProperty>) -> Unit) {
+
+        val version = db.bookVersion().get(bookId)?.notesVersion
+
+        var lastLft = 0L
+
+        while (true) {
+            val notes = db.noteView().getBookNotesAfter(bookId, lastLft, chunkSize)
+
+            if (notes.isEmpty()) {
+                break
+            }
+
+            val properties = db.noteProperty()
+                    .getForBookNotes(bookId, notes.first().note.position.lft, notes.last().note.position.lft)
+                    .groupBy { it.noteId }
+
+            if (db.bookVersion().get(bookId)?.notesVersion != version) {
+                throw ConcurrentModificationException("Notes of book $bookId changed while reading them")
+            }
+
+            notes.forEach { noteView ->
+                action(noteView, properties[noteView.note.id].orEmpty())
+            }
+
+            lastLft = notes.last().note.position.lft
+        }
+    }
+
     fun getNotesWithScheduledOrDeadline(): List<NoteView> {
         return db.noteView().getAllWithScheduledOrDeadline()
     }
 
-    fun getVisibleNotesLiveData(bookId: Long, noteId: Long? = null): LiveData<List<NoteView>> {
+    /**
+     * IDs and levels of notes displayed in the book, optionally narrowed to [noteId]'s subtree.
+     * Notes themselves are loaded page by page, see [getVisibleNotesPagingSource].
+     */
+    fun getVisibleNotesLiveData(bookId: Long, noteId: Long? = null): LiveData<List<NoteDao.VisibleNote>> {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "bookId=$bookId, noteId=$noteId")
 
         return if (noteId != null) {
-            db.noteView().getVisibleLiveDataNarrowed(bookId, noteId)
+            db.note().getVisibleLiveDataNarrowed(bookId, noteId)
         } else {
-            db.noteView().getVisibleLiveData(bookId)
+            db.note().getVisibleLiveData(bookId)
+        }
+    }
+
+    fun getVisibleNotesPagingSource(bookId: Long, noteId: Long? = null): PagingSource<Int, NoteView> {
+        return if (noteId != null) {
+            db.noteView().getVisiblePagingSourceNarrowed(bookId, noteId)
+        } else {
+            db.noteView().getVisiblePagingSource(bookId)
         }
     }
 
@@ -1300,6 +1498,10 @@ class DataRepository @Inject constructor(
         return db.noteView().get(id)
     }
 
+    suspend fun loadNoteView(id: Long): NoteView? {
+        return db.noteView().load(id)
+    }
+
     fun getLastNoteView(title: String): NoteView? {
         return db.noteView().getLast(title)
     }
@@ -1446,80 +1648,45 @@ class DataRepository @Inject constructor(
             }
         }
 
-        val newNotePosition = when (target.place) {
-            Place.ABOVE -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
-
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = targetNote.position.lft,
-                        rgt = targetNote.position.lft + 1,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId)
-            }
+        /* If target note is not used, add note at the end with level 1, under the root note. */
+        val (place, placeNote) = if (target.place == Place.UNSPECIFIED) {
+            Pair(Place.UNDER, db.note().getRootNode(target.bookId) ?: throw IOException("Root note not found"))
+        } else {
+            Pair(target.place, targetNote ?: throw IOException("Target note not found"))
+        }
 
-            Place.BELOW -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
+        // Make space for new note
+        val space = makeSpaceForNewNotes(1, placeNote, place)
 
+        val newNotePosition = when (place) {
+            Place.ABOVE, Place.BELOW -> {
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt + 1,
-                        rgt = targetNote.position.rgt + 2,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId
-                )
+                        lft = space.position(1),
+                        rgt = space.position(2),
+                        level = placeNote.position.level,
+                        parentId = placeNote.position.parentId)
             }
 
-            Place.UNDER -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
-
+            Place.UNDER, Place.UNDER_AS_FIRST -> {
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt,
-                        rgt = targetNote.position.rgt + 1,
-                        level = targetNote.position.level + 1,
-                        parentId = targetNote.id,
-                        foldedUnderId = if (targetNote.position.isFolded) targetNote.id else 0
+                        lft = space.position(1),
+                        rgt = space.position(2),
+                        level = placeNote.position.level + 1,
+                        parentId = placeNote.id,
+                        foldedUnderId = if (placeNote.position.isFolded) placeNote.id else 0
                 )
             }
 
-            Place.UNDER_AS_FIRST -> {
-                TODO("Insert UNDER_AS_FIRST not implemented")
-            }
-
-            Place.UNSPECIFIED -> {
-                /* If target note is not used, add note at the end with level 1. */
-                val rootRgt = db.note().getMaxRgtForBook(target.bookId) ?: 0
-                val rootId = db.note().getRootNodeId(target.bookId) ?: 0
-
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = rootRgt,
-                        rgt = rootRgt + 1,
-                        level = 1,
-                        parentId = rootId
-                )
-            }
+            else -> throw IllegalArgumentException("Unsupported place for new note: $place")
         }
 
-        // Make space for new note
-        if (target.place != Place.UNSPECIFIED) {
-            makeSpaceForNewNotes(1, targetNote!!, target.place)
-
-            val count = db.note().incrementDescendantsCountForAncestors(
-                    target.bookId, newNotePosition.lft, newNotePosition.rgt)
-
-            if (BuildConfig.LOG_DEBUG)
-                LogUtils.d(TAG, "Updated descendants_count for $count notes (${target.bookId}, ${newNotePosition.lft}, ${newNotePosition.rgt})")
+        val count = db.note().incrementDescendantsCountForAncestors(
+                target.bookId, newNotePosition.lft, newNotePosition.rgt)
 
-        }
-        db.note().incrementRgtForRootNote(target.bookId)
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Updated descendants_count for $count notes (${target.bookId}, ${newNotePosition.lft}, ${newNotePosition.rgt})")
 
         val noteEntity = Note(
                 0,
@@ -1545,6 +1712,8 @@ class DataRepository @Inject constructor(
 
         db.noteAncestor().insertAncestorsForNote(noteId)
 
+        updateTagsForSubtrees(setOf(noteId))
+
         tryUpdateTitleCookiesOfParent(noteId)
 
         tryUpdateTitleCookies(noteEntity.copy(id = noteId))
@@ -1557,36 +1726,54 @@ class DataRepository @Inject constructor(
     }
 
     /**
-     * Increment notes' lft and rgt to make space for new notes.
+     * Find space for new notes, using the gap between existing lft and rgt values at [place].
+     * Notes following the place are shifted only if the gap is too small.
      */
-    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place) {
-        val spaceRequired = numberOfNotes * 2
-
+    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place): NotesSpace {
         val bookId = targetNote.position.bookId
 
+        // Neighbouring values between which the notes go
+        val before: Long
+        val after: Long
+
         when (place) {
             Place.ABOVE -> {
-                db.note().incrementLftForLftGe(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
+                after = targetNote.position.lft
+                before = db.note().getPositionValueBefore(bookId, after) ?: 0
             }
 
             Place.UNDER -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGeOrRoot(bookId, targetNote.position.rgt, spaceRequired)
+                after = targetNote.position.rgt
+                before = db.note().getPositionValueBefore(bookId, after) ?: targetNote.position.lft
             }
 
             Place.UNDER_AS_FIRST -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
+                before = targetNote.position.lft
+                after = db.note().getPositionValueAfter(bookId, before) ?: targetNote.position.rgt
             }
 
             Place.BELOW -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.rgt, spaceRequired)
+                before = targetNote.position.rgt
+                // Nothing to shift if there are no values after
+                after = db.note().getPositionValueAfter(bookId, before) ?: (before + 1)
             }
 
             else -> throw IllegalArgumentException("Unsupported paste relative position $place")
         }
+
+        // Leave the rest of the gap for notes inserted next to the new ones
+        val atEnd = place == Place.ABOVE || place == Place.UNDER_AS_FIRST
+
+        val space = NotesSpace.between(before, after, numberOfNotes, atEnd)
+
+        if (space.shift > 0) {
+            db.note().incrementLftForLftGe(bookId, after, space.shift)
+            db.note().incrementRgtForRgtGeOrRoot(bookId, after, space.shift)
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Shifted values from $after by ${space.shift} in book $bookId")
+        }
+
+        return space
     }
 
 
@@ -1620,6 +1807,10 @@ class DataRepository @Inject constructor(
 
             val count = db.note().update(newNote)
 
+            if (newNote.tags != note.tags) {
+                updateTagsForSubtrees(setOf(noteId))
+            }
+
             // first we try to update our title in case we have child tasks or checkboxes
             tryUpdateTitleCookies(newNote)
 
@@ -1712,25 +1903,35 @@ class DataRepository @Inject constructor(
      * Events may come from the note's title, content or properties
      */
     private fun insertNoteEvents(noteId: Long, title: String, content: String?, properties: OrgProperties?) {
+        getNoteEventRangeIds(title, content, properties).forEach { orgRangeId ->
+            db.noteEvent().replace(NoteEvent(noteId, orgRangeId))
+        }
+    }
+
+    private fun getNoteEventRangeIds(title: String, content: String?, properties: OrgProperties?): Set<Long> {
+        val ids = LinkedHashSet<Long>()
+
         if (title.isNotEmpty()) {
-            parseAndInsertEvents(noteId, title)
+            parseEventRangeIds(title, ids)
         }
 
         if (!content.isNullOrEmpty()) {
-            parseAndInsertEvents(noteId, content)
+            parseEventRangeIds(content, ids)
         }
 
         if (properties != null && !properties.isEmpty) {
             for (property: OrgProperty in properties.all) {
-                parseAndInsertEvents(noteId, property.value)
+                parseEventRangeIds(property.value, ids)
             }
         }
+
+        return ids
     }
 
-    private fun parseAndInsertEvents(noteId: Long, str: String) {
+    private fun parseEventRangeIds(str: String, ids: MutableSet<Long>) {
         OrgActiveTimestamps.parse(str).forEach { range ->
             getOrgRangeId(range)?.let { orgRangeId ->
-                db.noteEvent().replace(NoteEvent(noteId, orgRangeId))
+                ids.add(orgRangeId)
             }
         }
     }
@@ -1745,18 +1946,26 @@ class DataRepository @Inject constructor(
         }
     }
 
+    @JvmOverloads
     @Throws(IOException::class)
-    fun loadBookFromRepo(rook: Rook): BookView? {
+    fun loadBookFromRepo(rook: Rook, round: SyncRound? = null): BookView? {
         val repoRelativePath = BookName.getRepoRelativePath(rook.repoUri, rook.uri)
 
-        return loadBookFromRepo(rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath)
+        return loadBookFromRepo(rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath, round)
     }
 
+    @JvmOverloads
     @Throws(IOException::class)
-    fun loadBookFromRepo(repoId: Long, repoType: RepoType, repoUrl: String, repoRelativePath: String): BookView? {
+    fun loadBookFromRepo(
+            repoId: Long,
+            repoType: RepoType,
+            repoUrl: String,
+            repoRelativePath: String,
+            round: SyncRound? = null): BookView? {
+
         val book: BookView?
 
-        val repo = getRepoInstance(repoId, repoType, repoUrl)
+        val repo = getRepoInstance(repoId, repoType, repoUrl, round)
 
         val tmpFile = getTempBookFile()
         try {
@@ -1819,14 +2028,42 @@ class DataRepository @Inject constructor(
         try {
             val encoding = Encoding.detect(filePath, selectedEncoding)
 
-            return db.runInTransaction(Callable {
-                loadBookFromReader(
-                        bookName,
-                        vrook,
-                        InputStreamReader(FileInputStream(File(filePath)), encoding.used),
-                        encoding
-                )
-            })
+            val startedAt = System.currentTimeMillis()
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Loading book $bookName...")
+
+            fun stageAndPublish(): Long {
+                /*
+                 * Parse the book without holding the write lock, so that notes can still be
+                 * edited meanwhile. Book's notes are then replaced in one short transaction,
+                 * so that it is never seen partially loaded.
+                 */
+                val stagedBook = stageBookFromReader(
+                        InputStreamReader(FileInputStream(File(filePath)), encoding.used))
+
+                if (BuildConfig.LOG_DEBUG)
+                    LogUtils.d(TAG, bookName + ": Parsing done in " +
+                            (System.currentTimeMillis() - startedAt) + " ms")
+
+                return inSyncStateSection {
+                    runInTransactionWithOrgRangeIdCache(Callable {
+                        publishStagedBook(bookName, vrook, stagedBook, encoding)
+                    })
+                }
+            }
+
+            // Within a transaction, nothing staged is committed before the book is published
+            val bookId = if (db.inTransaction()) {
+                stageAndPublish()
+            } else {
+                stagedBooksLock.read { stageAndPublish() }
+            }
+
+            if (BuildConfig.LOG_DEBUG)
+                LogUtils.d(TAG, bookName + ": Loading done in " +
+                        (System.currentTimeMillis() - startedAt) + " ms")
+
+            return bookId
 
         } catch (e: IOException) {
             e.printStackTrace()
@@ -1838,37 +2075,28 @@ class DataRepository @Inject constructor(
         }
     }
 
-    @Throws(IOException::class)
-    private fun loadBookFromReader(
-            bookName: String,
-            vrook: VersionedRook?,
-            inReader: Reader,
-            encoding: Encoding): Long {
-
-        val startedAt = System.currentTimeMillis()
-
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Loading book $bookName...")
-
-        val bookId = db.book().getOrInsert(bookName)
-
-        // Delete all notes from this book
-        db.note().deleteByBookId(bookId)
-
-        /*
-         * Maps node's lft to database id.
-         * Used to update parent id and insert ancestors.
-         * Not using SparseArray as speed is preferred over memory here.
-         */
-        @SuppressLint("UseSparseArrays") val lft2id = HashMap<Long, Long>()
-
-        /* Set of ids for which parent is already set. */
-        val notesWithParentSet = HashSet<Long>()
+    /**
+     * Book parsed and ready to replace the one in the database.
+     */
+    private class StagedBook(val file: OrgFile, val notes: List<StagedNote>)
 
+    private class StagedNote(val note: Note, val properties: OrgProperties, val eventRangeIds: Set<Long>)
 
+    /**
+     * Parses the book and stores the timestamps its notes are using.
+     *
+     * Timestamps are stored in transactions of at most [NOTES_CHUNK_SIZE] notes.
+     * They are unused until the book is published and can be deleted if that never happens.
+     */
+    @Throws(IOException::class)
+    private fun stageBookFromReader(inReader: Reader): StagedBook {
         val useCreatedAtProperty = AppPreferences.createdAt(context)
         val createdAtProperty = AppPreferences.createdAtProperty(context)
         val startFolded = AppPreferences.notebooksStartFolded(context)
 
+        val nodes = mutableListOf<OrgNodeInSet>()
+        var orgFile: OrgFile? = null
+
         BufferedReader(inReader).use { reader ->
             /*
              * Create and run parser.
@@ -1879,116 +2107,155 @@ class DataRepository @Inject constructor(
                     .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
                     .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
                     .setListener(object : OrgNestedSetParserListener {
-                        @Throws(IOException::class)
                         override fun onNode(node: OrgNodeInSet) {
-
-                            val scheduledRangeId = getOrgRangeId(node.head.scheduled)
-                            val deadlineRangeId = getOrgRangeId(node.head.deadline)
-                            val closedRangeId = getOrgRangeId(node.head.closed)
-                            val clockRangeId = getOrgRangeId(node.head.clock)
-
-                            var content: String? = null
-                            var contentLineCount = 0
-
-                            if (node.head.hasContent()) {
-                                content = node.head.content
-                                contentLineCount = MiscUtils.lineCount(node.head.content)
-                            }
-
-                            val position = NotePosition(
-                                    bookId = bookId,
-                                    lft = node.lft,
-                                    rgt = node.rgt,
-                                    level = node.level,
-                                    parentId = 0,
-                                    foldedUnderId = 0,
-                                    isFolded = startFolded && node.level > 0,
-                                    descendantsCount = node.descendantsCount)
-
-                            val note = Note(
-                                    0,
-                                    title = node.head.title,
-                                    priority = node.head.priority,
-                                    state = node.head.state,
-                                    scheduledRangeId = scheduledRangeId,
-                                    deadlineRangeId = deadlineRangeId,
-                                    closedRangeId = closedRangeId,
-                                    clockRangeId = clockRangeId,
-                                    tags = if (node.head.hasTags()) Tags(node.head.tags) else null,
-                                    createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty),
-                                    content = content,
-                                    contentLineCount = contentLineCount,
-                                    position = position
-                            )
-
-                            val noteId = db.note().insert(note)
-
-                            insertNoteProperties(noteId, node.head.properties)
-                            insertNoteEvents(noteId, note.title, note.content, node.head.properties)
-
-                            /*
-                             * Update notes' parent IDs and insert ancestors.
-                             * Going through all descendants - nodes between lft and rgt.
-                             *
-                             *  lft:  1    2    3    4    5   6
-                             *            L2   l1   r2   R2
-                             */
-                            lft2id[node.lft] = noteId
-                            for (index in node.lft + 1 until node.rgt) {
-                                val descendantId = lft2id[index]
-                                if (descendantId != null) {
-                                    if (!notesWithParentSet.contains(descendantId)) {
-                                        db.note().updateParentForNote(descendantId, noteId)
-
-                                        if (startFolded && position.level > 0) {
-                                            db.note().setFoldedUnder(descendantId, noteId)
-                                        }
-
-                                        notesWithParentSet.add(descendantId)
-                                    }
-
-                                    db.noteAncestor().insert(NoteAncestor(
-                                            noteId = descendantId,
-                                            bookId = bookId,
-                                            ancestorNoteId = noteId))
-                                }
-                            }
+                            nodes.add(node)
                         }
 
-                        @Throws(IOException::class)
                         override fun onFile(file: OrgFile) {
-                            val settings = OrgFileSettings.fromPreface(file.preface)
-                            val filetags = Tags.fromList(settings?.filetags)
-
-                            val book = Book(
-                                    bookId,
-                                    bookName,
-                                    mtime = vrook?.mtime, // Set book's mtime to remote book's
-                                    preface = file.preface, // TODO: Move to and rename OrgFileSettings
-                                    filetags = filetags,
-                                    isIndented = file.settings.isIndented,
-                                    title = file.settings.title,
-                                    isDummy = false,
-                                    usedEncoding = encoding.used,
-                                    detectedEncoding = encoding.detected,
-                                    selectedEncoding = encoding.selected
-                            )
-
-                            db.book().update(book)
-
-                            // Parse and store any properties in the book's preface
-                            if (file.preface.isNotEmpty())
-                                setBookPropertiesFromPreface(bookId, file.preface)
+                            orgFile = file
                         }
-
                     })
                     .build()
                     .parse()
         }
 
-        if (BuildConfig.LOG_DEBUG)
-            LogUtils.d(TAG, bookName + ": Parsing done in " +
-                    (System.currentTimeMillis() - startedAt) + " ms")
+        val notes = nodes.chunked(NOTES_CHUNK_SIZE).flatMap { chunk ->
+            runInTransactionWithOrgRangeIdCache(Callable {
+                chunk.map { node ->
+                    stageNote(node, startFolded, useCreatedAtProperty, createdAtProperty)
+                }
+            })
+        }
+
+        return StagedBook(checkNotNull(orgFile), notes)
+    }
+
+    private fun stageNote(
+            node: OrgNodeInSet,
+            startFolded: Boolean,
+            useCreatedAtProperty: Boolean,
+            createdAtProperty: String): StagedNote {
+
+        val scheduledRangeId = getOrgRangeId(node.head.scheduled)
+        val deadlineRangeId = getOrgRangeId(node.head.deadline)
+        val closedRangeId = getOrgRangeId(node.head.closed)
+        val clockRangeId = getOrgRangeId(node.head.clock)
+
+        var content: String? = null
+        var contentLineCount = 0
+
+        if (node.head.hasContent()) {
+            content = node.head.content
+            contentLineCount = MiscUtils.lineCount(node.head.content)
+        }
+
+        // Book is set by the writer when the note is published
+        val position = NotePosition(
+                bookId = 0,
+                lft = node.lft,
+                rgt = node.rgt,
+                level = node.level,
+                parentId = 0,
+                foldedUnderId = 0,
+                isFolded = startFolded && node.level > 0,
+                descendantsCount = node.descendantsCount)
+
+        val note = Note(
+                0,
+                title = node.head.title,
+                priority = node.head.priority,
+                state = node.head.state,
+                scheduledRangeId = scheduledRangeId,
+                deadlineRangeId = deadlineRangeId,
+                closedRangeId = closedRangeId,
+                clockRangeId = clockRangeId,
+                tags = if (node.head.hasTags()) Tags(node.head.tags) else null,
+                createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty),
+                content = content,
+                contentLineCount = contentLineCount,
+                position = position
+        )
+
+        return StagedNote(
+                note,
+                node.head.properties,
+                getNoteEventRangeIds(note.title, note.content, node.head.properties))
+    }
+
+    /**
+     * Replaces book's notes with the staged ones. Must be called in a transaction.
+     *
+     * Only the notes which changed are written. A new book, or one whose notes have all
+     * changed, is still written whole in this transaction.
+     */
+    private fun publishStagedBook(
+            bookName: String,
+            vrook: VersionedRook?,
+            stagedBook: StagedBook,
+            encoding: Encoding): Long {
+
+        val bookId = db.book().getOrInsert(bookName)
+
+        val previousFiletags = db.book().get(bookId)?.filetags
+
+        val startFolded = AppPreferences.notebooksStartFolded(context)
+
+        val root = db.note().getRootNode(bookId)
+
+        val writer = if (root != null && db.note().getCount(bookId) > 0) {
+            // Book is loaded again, write only the notes which have changed
+            val existingNotes = mutableListOf(NoteTreeUpdater.ExistingNote(root, emptyList()))
+
+            forEachNoteWithProperties(bookId) { noteView, properties ->
+                existingNotes.add(NoteTreeUpdater.ExistingNote(noteView.note, properties))
+            }
+
+            NoteTreeUpdater(db, bookId, startFolded, existingNotes)
+
+        } else {
+            // Delete all notes from this book
+            db.note().deleteByBookId(bookId)
+
+            NoteBatchInserter(db, bookId, startFolded)
+        }
+
+        for (stagedNote in stagedBook.notes) {
+            writer.add(stagedNote.note, stagedNote.properties, stagedNote.eventRangeIds)
+        }
+
+        val file = stagedBook.file
+
+        val settings = OrgFileSettings.fromPreface(file.preface)
+        val filetags = Tags.fromList(settings?.filetags)
+
+        val book = Book(
+                bookId,
+                bookName,
+                mtime = vrook?.mtime, // Set book's mtime to remote book's
+                preface = file.preface, // TODO: Move to and rename OrgFileSettings
+                filetags = filetags,
+                isIndented = file.settings.isIndented,
+                title = file.settings.title,
+                isDummy = false,
+                usedEncoding = encoding.used,
+                detectedEncoding = encoding.detected,
+                selectedEncoding = encoding.selected
+        )
+
+        db.book().update(book)
+
+        // Parse and store any properties in the book's preface
+        if (file.preface.isNotEmpty())
+            setBookPropertiesFromPreface(bookId, file.preface)
+
+        writer.flush()
+
+        // Updater only updates tags of notes which have changed, all notes inherit filetags
+        if (writer is NoteBatchInserter || filetags != previousFiletags) {
+            db.note().getRootNodeId(bookId)?.let { rootId ->
+                updateTagsForSubtrees(setOf(rootId))
+            }
+        }
 
         if (vrook != null) {
             updateBookLinkAndSync(bookId, vrook)
@@ -1999,6 +2266,15 @@ class DataRepository @Inject constructor(
         return bookId
     }
 
+    /**
+     * Updates tag search index and inherited tags for notes in subtrees of [ids].
+     * Must be called after note_ancestors has been updated for them.
+     */
+    private fun updateTagsForSubtrees(ids: Set<Long>) {
+        db.noteTag().replaceForSubtrees(ids)
+        db.noteProjection().updateInheritedTagsForSubtrees(ids)
+    }
+
     private fun setBookPropertiesFromPreface(bookId: Long, preface: String) {
         for (property: OrgProperty in OrgProperties.fromString(preface).all) {
             db.bookProperty().upsert(bookId, property.name, property.value)
@@ -2009,6 +2285,24 @@ class DataRepository @Inject constructor(
         return getOrgRangeId(OrgRange.parseOrNull(range))
     }
 
+    /**
+     * Runs [body] in a transaction, remembering IDs of org_ranges and org_timestamps
+     * looked up or inserted in it. Reuses the cache of the enclosing transaction if nested.
+     */
+    private fun <V> runInTransactionWithOrgRangeIdCache(body: Callable<V>): V {
+        if (orgRangeIdCache.get() != null) {
+            return db.runInTransaction(body)
+        }
+
+        orgRangeIdCache.set(OrgRangeIdCache())
+        try {
+            return db.runInTransaction(body)
+        } finally {
+            // Discard on both commit and rollback
+            orgRangeIdCache.remove()
+        }
+    }
+
     private fun getOrgRangeId(range: OrgRange?): Long? {
         if (range == null) {
             return null
@@ -2016,9 +2310,16 @@ class DataRepository @Inject constructor(
 
         val str = range.toString()
 
+        val cache = orgRangeIdCache.get()
+
+        cache?.ranges?.get(str)?.let {
+            return it
+        }
+
         val entity = db.orgRange().getByString(str)
 
         if (entity != null) {
+            cache?.ranges?.put(str, entity.id)
             return entity.id
         }
 
@@ -2031,7 +2332,9 @@ class DataRepository @Inject constructor(
         }
         val endId = if (rangeEndTime != null) getOrgDateTimeId(rangeEndTime) else null
 
-        return db.orgRange().insert(OrgRange(0, str, startId, endId))
+        return db.orgRange().insert(OrgRange(0, str, startId, endId)).also { id ->
+            cache?.ranges?.put(str, id)
+        }
     }
 
     fun openBookForNote(noteId: Long, sparseTree: Boolean) {
@@ -2061,9 +2364,131 @@ class DataRepository @Inject constructor(
     }
 
     private fun getOrgDateTimeId(timestamp: OrgDateTime): Long {
-        return db.orgTimestamp().getByString(timestamp.toString()).let {
+        val str = timestamp.toString()
+
+        val cache = orgRangeIdCache.get()
+
+        cache?.timestamps?.get(str)?.let {
+            return it
+        }
+
+        return db.orgTimestamp().getByString(str).let {
             it?.id ?: db.orgTimestamp().insert(OrgTimestampMapper.fromOrgDateTime(timestamp))
+        }.also { id ->
+            cache?.timestamps?.put(str, id)
+        }
+    }
+
+    /**
+     * Deletes timestamps and versions of remote books which are no longer used,
+     * in transactions of at most [limit] rows.
+     *
+     * @return number of deleted rows per table
+     */
+    fun deleteUnusedRows(limit: Int = NOTES_CHUNK_SIZE): Map<String, Int> {
+        fun deleteAll(delete: (Int) -> Int): Int {
+            var total = 0
+
+            do {
+                val deleted = delete(limit)
+                total += deleted
+            } while (deleted == limit)
+
+            return total
         }
+
+        val deleted = linkedMapOf<String, Int>()
+
+        stagedBooksLock.write {
+            // Ranges first, as timestamps are used by them
+            deleted["org_ranges"] = deleteAll { db.orgRange().deleteUnused(it) }
+            deleted["org_timestamps"] = deleteAll { db.orgTimestamp().deleteUnused(it) }
+        }
+
+        deleted["versioned_rooks"] = deleteAll { db.versionedRook().deleteUnused(it) }
+        deleted["rooks"] = deleteAll { db.rook().deleteUnused(it) }
+        deleted["rook_urls"] = deleteAll { db.rookUrl().deleteUnused(it) }
+
+        return deleted
+    }
+
+    /**
+     * Spaces out positions of notes in books where too many of the gaps between them
+     * have been used up by inserted and moved notes.
+     *
+     * @return number of books whose notes have been renumbered
+     */
+    fun renumberCrowdedBooks(): Int {
+        return getBooks().count { renumberNotesIfCrowded(it.book.id) }
+    }
+
+    private fun renumberNotesIfCrowded(bookId: Long): Boolean {
+        return db.runInTransaction(Callable {
+            val notes = db.note().getPositionValues(bookId)
+
+            val values = LongArray(notes.size * 2)
+            notes.forEachIndexed { i, note ->
+                values[2 * i] = note.lft
+                values[2 * i + 1] = note.rgt
+            }
+            values.sort()
+
+            if (!NotesSpace.isCrowded(values)) {
+                return@Callable false
+            }
+
+            // Values are unique, so each one is replaced by its index
+            notes.forEach { note ->
+                db.note().updatePositionValues(
+                        note.id,
+                        NotesSpace.spacedOut(values.binarySearch(note.lft)),
+                        NotesSpace.spacedOut(values.binarySearch(note.rgt)))
+            }
+
+            true
+        })
+    }
+
+    /**
+     * Updates statistics used by the query planner and returns free pages to the file system.
+     *
+     * @param allowFullVacuum whether the whole database can be rewritten, which is required
+     * once to enable incremental vacuum. Free pages are not returned until then.
+     *
+     * @return number of bytes reclaimed
+     */
+    fun optimizeDatabase(allowFullVacuum: Boolean): Long {
+        val sqlite = db.openHelper.writableDatabase
+
+        fun pragma(name: String): Long {
+            return sqlite.query("PRAGMA $name").use { cursor ->
+                if (cursor.moveToFirst()) cursor.getLong(0) else 0
+            }
+        }
+
+        sqlite.execSQL("ANALYZE")
+
+        val sizeBefore = pragma("page_count") * pragma("page_size")
+
+        if (pragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Databases are created without it, changing the mode requires a full vacuum once
+            if (allowFullVacuum) {
+                sqlite.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                sqlite.execSQL("VACUUM")
+            }
+
+        } else {
+            // One page is freed per step, so the whole result has to be read
+            sqlite.query("PRAGMA incremental_vacuum").use { cursor ->
+                while (cursor.moveToNext()) {
+                    // Keep stepping
+                }
+            }
+        }
+
+        val sizeAfter = pragma("page_count") * pragma("page_size")
+
+        return sizeBefore - sizeAfter
     }
 
     private fun getCreatedAtFromProperty(node: OrgNodeInSet, use: Boolean, name: String): Long? {
@@ -2188,6 +2613,10 @@ class DataRepository @Inject constructor(
         return db.savedSearch().get(id)
     }
 
+    suspend fun loadSavedSearch(id: Long): SavedSearch? {
+        return db.savedSearch().load(id)
+    }
+
     fun getSavedSearches(): List<SavedSearch> {
         return db.savedSearch().getAll()
     }
@@ -2196,6 +2625,10 @@ class DataRepository @Inject constructor(
         return db.savedSearch().getLiveData()
     }
 
+    fun getSavedSearchesFlow(): Flow<List<SavedSearch>> {
+        return db.savedSearch().getFlow()
+    }
+
     /**
      * Get [SavedSearch] by name (case insensitive).
      */
@@ -2278,6 +2711,10 @@ class DataRepository @Inject constructor(
         return db.repo().get(id)
     }
 
+    suspend fun loadRepo(id: Long): Repo? {
+        return db.repo().load(id)
+    }
+
     fun createRepo(repoWithProps: RepoWithProps): Long {
         if (getRepo(repoWithProps.repo.url) != null) {
             throw RepoCreate.AlreadyExists()
@@ -2311,8 +2748,19 @@ class DataRepository @Inject constructor(
      * Times
      */
 
-    fun times(): List<ReminderTimeDao.NoteTime> {
-        return db.reminderTime().getAll()
+    fun times(from: Long, to: Long, timeTypes: Collection<Int>, doneStates: Collection<String>): List<ReminderTimeDao.NoteTime> {
+        return db.reminderTime().getInInterval(from, to, timeTypes, doneStates)
+    }
+
+    fun timesAfter(
+        from: Long, after: ReminderTimeDao.NoteTime?, limit: Int, timeTypes: Collection<Int>, doneStates: Collection<String>
+    ): List<ReminderTimeDao.NoteTime> {
+        return db.reminderTime().getAfter(
+            from, after?.earliest ?: Long.MIN_VALUE, after?.id ?: 0, limit, timeTypes, doneStates)
+    }
+
+    fun times(noteId: Long, timeType: Int): List<ReminderTimeDao.NoteTime> {
+        return db.reminderTime().getForNote(noteId, timeType)
     }
 
     /**
@@ -2559,13 +3007,21 @@ class DataRepository @Inject constructor(
         return list
     }
 
-    fun getRepoInstance(id: Long, type: RepoType, url: String): SyncRepo {
+    /**
+     * @param round sync the instance is used for, if any
+     */
+    @JvmOverloads
+    fun getRepoInstance(id: Long, type: RepoType, url: String, round: SyncRound? = null): SyncRepo {
         // Load additional repo parameters, if available
         val props = getRepoPropsMap(id)
 
         val repoWithProps = RepoWithProps(Repo(id, type, url), props)
 
-        return repoFactory.getInstance(repoWithProps)
+        return repoFactory.getInstance(repoWithProps).also { repo ->
+            if (round != null && repo is TwoWaySyncRepo) {
+                repo.beginSyncRound(round)
+            }
+        }
     }
 
     fun getRepoPropsMap(id: Long): Map<String, String> {
@@ -2585,5 +3041,9 @@ class DataRepository @Inject constructor(
         private val TAG = DataRepository::class.java.name
 
         const val GETTING_STARTED_NOTEBOOK_RESOURCE_ID = R.raw.orgzly_getting_started
+
+        const val NOTES_CHUNK_SIZE = 500
+
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
     }
 }
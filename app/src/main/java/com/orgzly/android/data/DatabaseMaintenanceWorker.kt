@@ -0,0 +1,115 @@
+package com.orgzly.android.data
+
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.BatteryManager
+import android.os.Build
+import android.os.PowerManager
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import com.orgzly.BuildConfig
+import com.orgzly.android.App
+import com.orgzly.android.data.logs.AppLogsRepository
+import com.orgzly.android.util.LogMajorEvents
+import com.orgzly.android.util.LogUtils
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+
+/**
+ * Deletes rows which are no longer used, spaces out crowded positions of notes
+ * and reclaims the space.
+ */
+class DatabaseMaintenanceWorker(context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    @Inject
+    lateinit var dataRepository: DataRepository
+
+    @Inject
+    lateinit var appLogs: AppLogsRepository
+
+    override fun doWork(): Result {
+        App.appComponent.inject(this)
+
+        val startedAt = System.currentTimeMillis()
+
+        val (result, message) = try {
+            val deleted = dataRepository.deleteUnusedRows()
+
+            val renumbered = dataRepository.renumberCrowdedBooks()
+
+            val reclaimed = dataRepository.optimizeDatabase(allowFullVacuum = isIdleAndCharging())
+
+            Result.success() to "Deleted unused rows (" +
+                    deleted.entries.joinToString { "${it.key}: ${it.value}" } +
+                    "), renumbered notes of $renumbered books, reclaimed ${reclaimed / 1024} KiB in ${System.currentTimeMillis() - startedAt} ms"
+
+        } catch (e: Exception) {
+            Log.e(TAG, "Database maintenance failed", e)
+
+            val result = if (runAttemptCount < MAX_ATTEMPTS - 1) Result.retry() else Result.failure()
+
+            result to "Database maintenance failed: ${e.message}"
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, message)
+
+        if (LogMajorEvents.isEnabled()) {
+            appLogs.log(LogMajorEvents.DATABASE, message)
+            appLogs.flush()
+        }
+
+        return result
+    }
+
+    /**
+     * Checked again when running, as idle can't be required by constraints before API 23
+     * and the device might be in use or unplugged by now. Screen being off is used as idle,
+     * as the device doesn't run work while it's in doze mode anyway.
+     */
+    private fun isIdleAndCharging(): Boolean {
+        val battery = applicationContext.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+
+        val isCharging = (battery?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) ?: 0) != 0
+
+        val powerManager = applicationContext.getSystemService(Context.POWER_SERVICE) as PowerManager
+
+        return isCharging && !powerManager.isInteractive
+    }
+
+    companion object {
+        private val TAG: String = DatabaseMaintenanceWorker::class.java.name
+
+        private const val WORK_NAME = "database-maintenance"
+
+        /* Failed runs are retried before giving up until the next period. */
+        private const val MAX_ATTEMPTS = 3
+
+        @JvmStatic
+        fun schedule(context: Context) {
+            val constraints = Constraints.Builder()
+                .setRequiresCharging(true)
+                .apply {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        setRequiresDeviceIdle(true)
+                    }
+                }
+                .build()
+
+            val workRequest = PeriodicWorkRequestBuilder<DatabaseMaintenanceWorker>(1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build()
+
+            WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                workRequest
+            )
+        }
+    }
+}
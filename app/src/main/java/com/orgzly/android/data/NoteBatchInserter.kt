@@ -0,0 +1,156 @@
+package com.orgzly.android.data
+
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NoteAncestor
+import com.orgzly.android.db.entity.NoteEvent
+import com.orgzly.android.db.entity.NoteProperty
+import com.orgzly.org.OrgProperties
+
+/**
+ * Buffers notes parsed while loading a book and writes them to the database in chunks.
+ *
+ * Notes, their properties, events and ancestors are inserted using one prepared
+ * statement per table for each chunk, instead of one statement per row.
+ *
+ * Nodes are received from the parser in post-order (descendants before their ancestors),
+ * but every lft value between the last completed node and the next one belongs to a node
+ * which has been started and not yet completed - an ancestor. Those ancestors are kept on
+ * a stack and given IDs as soon as they are discovered, so parent ID, folded-under ID and
+ * ancestors of each note are known before it is written and no updates are required later.
+ *
+ * Parsed lft and rgt values are multiplied by [NotesSpace.SPACING] when written, leaving gaps
+ * for notes inserted later.
+ *
+ * Must be used inside a transaction, as IDs are allocated in advance.
+ */
+class NoteBatchInserter(
+        private val db: OrgzlyDatabase,
+        private val bookId: Long,
+        private val startFolded: Boolean,
+        private val chunkSize: Int = CHUNK_SIZE) : ParsedNotesWriter {
+
+    private class PendingNote(
+            val note: Note,
+            val properties: OrgProperties,
+            val eventRangeIds: Set<Long>,
+            val ancestorIds: List<Long>)
+
+    private data class OpenNode(val lft: Long, val id: Long)
+
+    private val pending = ArrayList<PendingNote>(chunkSize)
+
+    /* Nodes which have been started but not completed yet, root first. */
+    private val ancestors = ArrayList<OpenNode>()
+
+    /* Highest lft or rgt value seen so far. */
+    private var lastValue = 0L
+
+    private var nextId = 0L
+
+    override fun add(note: Note, properties: OrgProperties, eventRangeIds: Set<Long>) {
+        if (nextId == 0L) {
+            nextId = firstAvailableId(db)
+
+            /*
+             * Notes are written in post-order, so ancestors referenced from note_ancestors
+             * are not in the table yet. Check foreign keys when the transaction is committed.
+             */
+            db.openHelper.writableDatabase.execSQL("PRAGMA defer_foreign_keys = ON")
+        }
+
+        val position = note.position
+
+        check(position.lft > lastValue || ancestors.lastOrNull()?.lft == position.lft) {
+            "Unexpected node order in book $bookId: lft ${position.lft} after $lastValue"
+        }
+
+        // Nodes started before this one and still open are its ancestors
+        for (lft in lastValue + 1 until position.lft) {
+            ancestors.add(OpenNode(lft, nextId++))
+        }
+
+        val noteId = if (ancestors.lastOrNull()?.lft == position.lft) {
+            ancestors.removeAt(ancestors.size - 1).id
+        } else {
+            nextId++
+        }
+
+        lastValue = position.rgt
+
+        val parent = ancestors.lastOrNull()
+
+        // Level of the parent is its depth, root note being at level 0
+        val foldedUnderId = if (startFolded && parent != null && ancestors.size > 1) parent.id else 0
+
+        val noteWithPosition = note.copy(
+                id = noteId,
+                position = position.copy(
+                        lft = position.lft * NotesSpace.SPACING,
+                        rgt = position.rgt * NotesSpace.SPACING,
+                        parentId = parent?.id ?: 0,
+                        foldedUnderId = foldedUnderId))
+
+        pending.add(PendingNote(noteWithPosition, properties, eventRangeIds, ancestors.map { it.id }))
+
+        if (pending.size >= chunkSize) {
+            flush()
+        }
+    }
+
+    override fun flush() {
+        if (pending.isEmpty()) {
+            return
+        }
+
+        val properties = ArrayList<NoteProperty>()
+        val events = ArrayList<NoteEvent>()
+        val noteAncestors = ArrayList<NoteAncestor>()
+
+        pending.forEach { p ->
+            val noteId = p.note.id
+
+            var position = 1
+            p.properties.all.forEach { property ->
+                properties.add(NoteProperty(noteId, position++, property.name, property.value))
+            }
+
+            p.eventRangeIds.forEach { rangeId ->
+                events.add(NoteEvent(noteId, rangeId))
+            }
+
+            p.ancestorIds.forEach { ancestorId ->
+                noteAncestors.add(NoteAncestor(
+                        noteId = noteId,
+                        bookId = bookId,
+                        ancestorNoteId = ancestorId))
+            }
+        }
+
+        db.note().insert(pending.map { it.note })
+        db.noteProperty().insert(properties)
+        db.noteEvent().insert(events)
+        db.noteAncestor().insert(noteAncestors)
+
+        pending.clear()
+    }
+
+    companion object {
+        const val CHUNK_SIZE = 500
+
+        /**
+         * Notes table uses AUTOINCREMENT, so IDs of previously deleted notes are not reused.
+         */
+        @JvmStatic
+        fun firstAvailableId(db: OrgzlyDatabase): Long {
+            db.query("""
+                SELECT MAX(
+                    COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'notes'), 0),
+                    COALESCE((SELECT MAX(id) FROM notes), 0)
+                )
+            """, null).use { cursor ->
+                return if (cursor.moveToFirst()) cursor.getLong(0) + 1 else 1
+            }
+        }
+    }
+}
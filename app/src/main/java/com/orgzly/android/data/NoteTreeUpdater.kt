@@ -0,0 +1,500 @@
+package com.orgzly.android.data
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NoteEvent
+import com.orgzly.android.db.entity.NotePosition
+import com.orgzly.android.db.entity.NoteProperty
+import com.orgzly.android.util.LogUtils
+import com.orgzly.org.OrgProperties
+
+/**
+ * Updates notes of a book which is being loaded again, writing only the notes which have changed.
+ *
+ * Parsed notes are matched to the existing ones top-down, so that unchanged notes keep their IDs
+ * and rows. Each parsed note is matched to the first unmatched existing note:
+ *
+ * - with the same content, under the same parent
+ * - with the same content anywhere in the book (moved note)
+ * - with the same title, under the same parent (modified note)
+ * - at the same place under the same parent (modified title)
+ *
+ * Existing notes left unmatched are deleted and parsed notes left unmatched are inserted.
+ *
+ * Existing lft and rgt values are kept for as many matched notes as possible. Values of other
+ * notes are taken from the gaps between them, so moving or inserting a note doesn't require
+ * updating the positions of all notes which follow it. If too many of the gaps have been used
+ * up, all values are spaced out again instead.
+ *
+ * Matched notes keep their folding, inserted notes are folded as by [NoteBatchInserter].
+ * Notes of the book which have been cut are deleted.
+ *
+ * Must be used inside a transaction, as IDs of inserted notes are allocated in advance.
+ */
+class NoteTreeUpdater(
+        private val db: OrgzlyDatabase,
+        private val bookId: Long,
+        private val startFolded: Boolean,
+        existingNotes: List<ExistingNote>) : ParsedNotesWriter {
+
+    class ExistingNote(val note: Note, val properties: List<NoteProperty>)
+
+    private class ParsedNote(val note: Note, val properties: OrgProperties, val eventRangeIds: Set<Long>)
+
+    /** Everything written to the file for the note. */
+    private data class Content(
+            val title: String,
+            val tags: List<String>,
+            val state: String?,
+            val priority: String?,
+            val content: String?,
+            val scheduledRangeId: Long?,
+            val deadlineRangeId: Long?,
+            val closedRangeId: Long?,
+            val clockRangeId: Long?,
+            val createdAt: Long?,
+            val properties: List<Pair<String, String>>)
+
+    private val existing = existingNotes.map { it.note }
+
+    private val existingContent = existingNotes.associate { it.note.id to content(it.note, it.properties.map { p -> p.name to p.value }) }
+
+    private val parsed = ArrayList<ParsedNote>()
+
+    override fun add(note: Note, properties: OrgProperties, eventRangeIds: Set<Long>) {
+        parsed.add(ParsedNote(note, properties, eventRangeIds))
+    }
+
+    override fun flush() {
+        if (parsed.isEmpty()) {
+            return
+        }
+
+        val startedAt = System.currentTimeMillis()
+
+        // Pre-order, parents before their descendants
+        val nodes = parsed.sortedBy { it.note.position.lft }
+        parsed.clear()
+
+        val parents = findParents(nodes)
+
+        val matches = match(nodes, parents)
+
+        val values = keepPositions(nodes, matches).let { kept ->
+            if (NotesSpace.isCrowded(kept)) LongArray(kept.size) { NotesSpace.spacedOut(it) } else kept
+        }
+
+        write(nodes, parents, matches, values)
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, "Updated book $bookId with ${nodes.size} notes in ${System.currentTimeMillis() - startedAt} ms")
+        }
+    }
+
+    /**
+     * Index of each node's parent, -1 for the root.
+     */
+    private fun findParents(nodes: List<ParsedNote>): IntArray {
+        val parents = IntArray(nodes.size)
+        val open = ArrayList<Int>()
+
+        nodes.forEachIndexed { i, node ->
+            while (open.isNotEmpty() && nodes[open.last()].note.position.rgt < node.note.position.lft) {
+                open.removeAt(open.size - 1)
+            }
+
+            parents[i] = open.lastOrNull() ?: -1
+
+            open.add(i)
+        }
+
+        return parents
+    }
+
+    /**
+     * Existing note matched to each node, if any.
+     */
+    private fun match(nodes: List<ParsedNote>, parents: IntArray): Array<Note?> {
+        val byParentAndContent = HashMap<Pair<Long, Content>, ArrayDeque<Note>>()
+        val byContent = HashMap<Content, ArrayDeque<Note>>()
+        val byParentAndTitle = HashMap<Pair<Long, String>, ArrayDeque<Note>>()
+        val byParent = HashMap<Long, MutableList<Note>>()
+
+        existing.filter { it.position.level > 0 }.forEach { note ->
+            val content = existingContent.getValue(note.id)
+            byParentAndContent.getOrPut(note.position.parentId to content) { ArrayDeque() }.add(note)
+            byContent.getOrPut(content) { ArrayDeque() }.add(note)
+            byParentAndTitle.getOrPut(note.position.parentId to note.title) { ArrayDeque() }.add(note)
+            byParent.getOrPut(note.position.parentId) { mutableListOf() }.add(note)
+        }
+
+        val matchedIds = HashSet<Long>()
+
+        fun ArrayDeque<Note>?.takeUnmatched(): Note? {
+            while (this != null && isNotEmpty()) {
+                val note = removeFirst()
+                if (note.id !in matchedIds) {
+                    return note
+                }
+            }
+            return null
+        }
+
+        val matches = arrayOfNulls<Note>(nodes.size)
+        val childCounts = IntArray(nodes.size)
+
+        nodes.forEachIndexed { i, node ->
+            val parent = parents[i]
+
+            val match = if (parent == -1) {
+                existing.firstOrNull { it.position.level == 0 }
+
+            } else {
+                val childIndex = childCounts[parent]++
+                val parentId = matches[parent]?.id
+                val content = content(node)
+
+                parentId?.let { byParentAndContent[it to content].takeUnmatched() }
+                        ?: byContent[content].takeUnmatched()
+                        ?: parentId?.let { byParentAndTitle[it to node.note.title].takeUnmatched() }
+                        ?: parentId?.let { byParent[it]?.getOrNull(childIndex)?.takeIf { note -> note.id !in matchedIds } }
+            }
+
+            if (match != null) {
+                matches[i] = match
+                matchedIds.add(match.id)
+            }
+        }
+
+        return matches
+    }
+
+    /**
+     * New lft and rgt values in parsed order, keeping existing values of matched notes
+     * where possible. If there is not enough space for new values before a kept value,
+     * that value is given up too, until there is.
+     */
+    private fun keepPositions(nodes: List<ParsedNote>, matches: Array<Note?>): LongArray {
+        val events = events(nodes)
+
+        val oldValues = LongArray(events.size)
+        val hasOldValue = BooleanArray(events.size)
+
+        events.forEachIndexed { i, event ->
+            matches[event.node]?.let { note ->
+                oldValues[i] = if (event.isLeft) note.position.lft else note.position.rgt
+                hasOldValue[i] = true
+            }
+        }
+
+        val kept = longestIncreasing(oldValues, hasOldValue)
+
+        val values = LongArray(events.size)
+
+        var previous = 0L
+        var segmentStart = 0
+
+        for (i in 0..events.size) {
+            val isLast = i == events.size
+
+            if (!isLast && !kept[i]) {
+                continue
+            }
+
+            val count = i - segmentStart
+
+            if (!isLast && oldValues[i] - previous - 1 < count) {
+                continue
+            }
+
+            val step = if (isLast) {
+                NotesSpace.SPACING
+            } else {
+                ((oldValues[i] - previous) / (count + 1)).coerceAtMost(NotesSpace.SPACING)
+            }
+
+            for (j in 0 until count) {
+                values[segmentStart + j] = previous + step * (j + 1)
+            }
+
+            if (!isLast) {
+                values[i] = oldValues[i]
+                previous = oldValues[i]
+            }
+
+            segmentStart = i + 1
+        }
+
+        return values
+    }
+
+    private class Event(val node: Int, val isLeft: Boolean, val value: Long)
+
+    /**
+     * Nodes' lft and rgt values, in order.
+     */
+    private fun events(nodes: List<ParsedNote>): List<Event> {
+        val events = ArrayList<Event>(nodes.size * 2)
+
+        nodes.forEachIndexed { i, node ->
+            events.add(Event(i, true, node.note.position.lft))
+            events.add(Event(i, false, node.note.position.rgt))
+        }
+
+        return events.sortedBy { it.value }
+    }
+
+    private fun write(nodes: List<ParsedNote>, parents: IntArray, matches: Array<Note?>, values: LongArray) {
+        val lft = LongArray(nodes.size)
+        val rgt = LongArray(nodes.size)
+
+        events(nodes).forEachIndexed { i, event ->
+            if (event.isLeft) {
+                lft[event.node] = values[i]
+            } else {
+                rgt[event.node] = values[i]
+            }
+        }
+
+        // Delete first, as deleted notes could be ancestors of notes written below
+        val cutCount = db.note().deleteCutByBookId(bookId)
+
+        val matchedIds = matches.mapNotNullTo(HashSet()) { it?.id }
+        val deletedIds = existing.filter { it.id !in matchedIds }.map { it.id }
+        db.note().deleteByIds(deletedIds)
+
+        val ids = LongArray(nodes.size)
+        val foldedUnderIds = LongArray(nodes.size)
+        val isFolded = BooleanArray(nodes.size)
+
+        // Notes whose ancestors have changed, with their subtrees
+        val movedOrInserted = mutableListOf<Int>()
+
+        // Notes whose tags or ancestors have changed, with their subtrees
+        val retagged = mutableListOf<Int>()
+
+        val insertedNotes = ArrayList<Note>()
+        val updatedNotes = ArrayList<Note>()
+
+        // Notes whose properties and events are replaced
+        val rewrittenIds = HashSet<Long>()
+        val properties = ArrayList<NoteProperty>()
+        val events = ArrayList<NoteEvent>()
+
+        var nextId = 0L
+
+        nodes.forEachIndexed { i, node ->
+            val existingNote = matches[i]
+            val parent = parents[i]
+            val parentId = if (parent != -1) ids[parent] else 0
+
+            isFolded[i] = existingNote?.position?.isFolded ?: (startFolded && node.note.position.level > 0)
+
+            foldedUnderIds[i] = foldedUnderId(i, parents, ids, foldedUnderIds, isFolded, nodes, existingNote)
+
+            val position = NotePosition(
+                    bookId = bookId,
+                    lft = lft[i],
+                    rgt = rgt[i],
+                    level = node.note.position.level,
+                    parentId = parentId,
+                    foldedUnderId = foldedUnderIds[i],
+                    isFolded = isFolded[i],
+                    descendantsCount = node.note.position.descendantsCount)
+
+            if (existingNote == null) {
+                if (nextId == 0L) {
+                    nextId = NoteBatchInserter.firstAvailableId(db)
+                }
+
+                ids[i] = nextId++
+
+                insertedNotes.add(node.note.copy(id = ids[i], position = position))
+
+                addPropertiesAndEvents(ids[i], node, properties, events)
+
+                movedOrInserted.add(i)
+
+            } else {
+                ids[i] = existingNote.id
+
+                val oldContent = existingContent.getValue(existingNote.id)
+                val newContent = content(node)
+
+                if (oldContent != newContent || existingNote.position != position) {
+                    updatedNotes.add(node.note.copy(id = existingNote.id, position = position))
+                }
+
+                if (oldContent != newContent) {
+                    rewrittenIds.add(existingNote.id)
+                    addPropertiesAndEvents(existingNote.id, node, properties, events)
+
+                    if (oldContent.tags != newContent.tags) {
+                        retagged.add(i)
+                    }
+                }
+
+                if (existingNote.position.parentId != parentId) {
+                    movedOrInserted.add(i)
+                }
+            }
+        }
+
+        // Parents are inserted before their descendants, as nodes are in pre-order
+        db.note().insert(insertedNotes)
+        db.note().update(updatedNotes)
+
+        db.noteProperty().deleteForNotes(rewrittenIds)
+        db.noteEvent().deleteForNotes(rewrittenIds)
+        db.noteProperty().insert(properties)
+        db.noteEvent().insert(events)
+
+        if (movedOrInserted.isNotEmpty()) {
+            val subtreeIds = HashSet<Long>()
+            movedOrInserted.forEach { i ->
+                for (j in i..i + nodes[i].note.position.descendantsCount) {
+                    subtreeIds.add(ids[j])
+                }
+            }
+
+            db.noteAncestor().deleteForNotes(subtreeIds)
+            db.noteAncestor().insertAncestorsForNotes(subtreeIds)
+        }
+
+        (movedOrInserted + retagged).mapTo(HashSet()) { ids[it] }.let { subtreeRootIds ->
+            if (subtreeRootIds.isNotEmpty()) {
+                db.noteTag().replaceForSubtrees(subtreeRootIds)
+                db.noteProjection().updateInheritedTagsForSubtrees(subtreeRootIds)
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, "Deleted ${deletedIds.size} and $cutCount cut, inserted ${insertedNotes.size}, updated ${updatedNotes.size}, moved ${movedOrInserted.size - insertedNotes.size} notes")
+        }
+    }
+
+    /**
+     * Keeps existing note's folded-under ID if it's still one of its folded ancestors.
+     * Otherwise the note is hidden under its parent if it's folded, as when the parent
+     * is folded in the app or the book is loaded folded, or under the same note as its parent.
+     */
+    private fun foldedUnderId(
+            i: Int,
+            parents: IntArray,
+            ids: LongArray,
+            foldedUnderIds: LongArray,
+            isFolded: BooleanArray,
+            nodes: List<ParsedNote>,
+            existingNote: Note?): Long {
+
+        val parent = parents[i]
+
+        // Root note is never folded
+        if (parent == -1 || nodes[parent].note.position.level == 0) {
+            return 0
+        }
+
+        if (foldedUnderIds[parent] == 0L && !isFolded[parent]) {
+            return 0
+        }
+
+        val current = existingNote?.position?.foldedUnderId ?: 0
+
+        if (current != 0L) {
+            var ancestor = parent
+            while (ancestor != -1) {
+                if (ids[ancestor] == current && isFolded[ancestor]) {
+                    return current
+                }
+                ancestor = parents[ancestor]
+            }
+        }
+
+        return if (isFolded[parent]) ids[parent] else foldedUnderIds[parent]
+    }
+
+    private fun addPropertiesAndEvents(
+            noteId: Long,
+            node: ParsedNote,
+            properties: MutableList<NoteProperty>,
+            events: MutableList<NoteEvent>) {
+
+        var position = 1
+        node.properties.all.forEach { property ->
+            properties.add(NoteProperty(noteId, position++, property.name, property.value))
+        }
+
+        node.eventRangeIds.forEach { rangeId ->
+            events.add(NoteEvent(noteId, rangeId))
+        }
+    }
+
+    private fun content(node: ParsedNote): Content {
+        return content(node.note, node.properties.all.map { it.name to it.value })
+    }
+
+    private fun content(note: Note, properties: List<Pair<String, String>>): Content {
+        return Content(
+                note.title,
+                note.tags?.tags.orEmpty(),
+                note.state,
+                note.priority,
+                note.content,
+                note.scheduledRangeId,
+                note.deadlineRangeId,
+                note.closedRangeId,
+                note.clockRangeId,
+                note.createdAt,
+                properties)
+    }
+
+    companion object {
+        private val TAG = NoteTreeUpdater::class.java.name
+
+        /**
+         * Marks the longest strictly increasing sequence of [values] which are [present].
+         */
+        @JvmStatic
+        fun longestIncreasing(values: LongArray, present: BooleanArray): BooleanArray {
+            // Index of the last element of the best sequence of each length
+            val tails = IntArray(values.size)
+            val previous = IntArray(values.size) { -1 }
+            var length = 0
+
+            for (i in values.indices) {
+                if (!present[i]) {
+                    continue
+                }
+
+                // First sequence whose last value is not less than this one
+                var lo = 0
+                var hi = length
+                while (lo < hi) {
+                    val mid = (lo + hi) / 2
+                    if (values[tails[mid]] < values[i]) lo = mid + 1 else hi = mid
+                }
+
+                if (lo > 0) {
+                    previous[i] = tails[lo - 1]
+                }
+
+                tails[lo] = i
+
+                if (lo == length) {
+                    length++
+                }
+            }
+
+            val result = BooleanArray(values.size)
+
+            var i = if (length > 0) tails[length - 1] else -1
+            while (i != -1) {
+                result[i] = true
+                i = previous[i]
+            }
+
+            return result
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.orgzly.android.data
+
+import androidx.lifecycle.LiveData
+import androidx.room.InvalidationTracker
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.BookVersion
+import com.orgzly.android.query.QueryDependencies
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Result of a notes query, computed again only after changes which can affect it.
+ *
+ * Changes are counted per book by triggers (see [BookVersion]). After each change,
+ * versions of books the query depends on are compared with the ones the current
+ * result was computed for. Folding a note in one book does not re-run a query
+ * restricted to another book, nor any query which doesn't display folding.
+ */
+class NotesQueryLiveData<T>(
+        private val db: OrgzlyDatabase,
+        private val dependencies: QueryDependencies,
+        private val compute: () -> T
+) : LiveData<T>() {
+
+    private val observer = object : InvalidationTracker.Observer(BookVersion.TABLE) {
+        override fun onInvalidated(tables: Set<String>) {
+            update()
+        }
+    }
+
+    /* Accessed under lock only. */
+    private var isUpdating = false
+    private var isUpdatePending = false
+
+    /* Accessed by the running update only. */
+    private var isObserving = false
+    private var computedFor: List<BookVersion>? = null
+
+    override fun onActive() {
+        update()
+    }
+
+    override fun onInactive() {
+        update()
+    }
+
+    /**
+     * Updates run on Room's query executor, one at a time. Requests made while an update is
+     * running are merged into a single following update, so no pool thread waits for a slow
+     * query to finish.
+     */
+    private fun update() {
+        synchronized(this) {
+            isUpdatePending = true
+
+            if (isUpdating) {
+                return
+            }
+
+            isUpdating = true
+        }
+
+        db.queryExecutor.execute {
+            while (true) {
+                synchronized(this) {
+                    if (!isUpdatePending) {
+                        isUpdating = false
+                        return@execute
+                    }
+
+                    isUpdatePending = false
+                }
+
+                refresh()
+            }
+        }
+    }
+
+    private fun refresh() {
+        if (hasActiveObservers()) {
+            if (!isObserving) {
+                db.invalidationTracker.addObserver(observer)
+                isObserving = true
+            }
+
+            computeIfChanged()
+
+        } else if (isObserving) {
+            db.invalidationTracker.removeObserver(observer)
+            isObserving = false
+        }
+    }
+
+    /**
+     * Runs the query without a transaction, so that it doesn't block writes.
+     * Versions are compared before and after, and the query is run again if they changed
+     * in the meantime. Versions from before are kept, so a change missed after the last
+     * attempt still causes the query to be run again on the next update.
+     */
+    private fun computeIfChanged() {
+        var versions = versions()
+
+        if (versions == computedFor) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Skipping unaffected query $dependencies")
+            return
+        }
+
+        for (attempt in 1..MAX_ATTEMPTS) {
+            val value = compute()
+
+            val versionsAfter = versions()
+
+            if (versionsAfter == versions || attempt == MAX_ATTEMPTS) {
+                postValue(value)
+                computedFor = versions
+                return
+            }
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Books changed while running query $dependencies")
+
+            versions = versionsAfter
+        }
+    }
+
+    private fun versions(): List<BookVersion> {
+        val bookNames = dependencies.bookNames
+
+        val versions = if (bookNames != null) {
+            db.bookVersion().getByBookNames(bookNames)
+        } else {
+            db.bookVersion().getAll()
+        }
+
+        return versions.map {
+            if (dependencies.folding) it else it.copy(foldingVersion = 0)
+        }
+    }
+
+    companion object {
+        private val TAG = NotesQueryLiveData::class.java.name
+
+        private const val MAX_ATTEMPTS = 3
+    }
+}
@@ -0,0 +1,96 @@
+package com.orgzly.android.data
+
+/**
+ * Values of the nested set given to notes inserted between two neighbouring values of a book.
+ *
+ * Books are loaded with [SPACING] values between each two neighbouring ones, so notes can
+ * usually be inserted or moved without updating positions of all notes which follow them.
+ * Only once the gap is used up, values following it are increased by [shift], leaving
+ * a larger gap behind for the following inserts at the same place.
+ *
+ * Inserted notes are spaced out too, leaving room for their own descendants.
+ *
+ * Once too many gaps have been used up, see [isCrowded], the book's values are spaced out again.
+ */
+data class NotesSpace(
+        /** Increment for all values greater than or equal to the value after the gap. */
+        val shift: Long,
+
+        /** First value used by inserted notes. */
+        val start: Long,
+
+        /** Distance between neighbouring values of inserted notes. */
+        val spacing: Long) {
+
+    /**
+     * Value in the book for [value] of inserted notes' own nested set, which starts with 1.
+     */
+    fun position(value: Long): Long {
+        return start + (value - 1) * spacing
+    }
+
+    companion object {
+        /** Distance between neighbouring values of a loaded book. */
+        const val SPACING = 64L
+
+        /** Gaps narrower than this are considered used up. */
+        private const val MIN_SPACING = SPACING / 8
+
+        /** Largest share of used up gaps before the book is spaced out again. */
+        private const val MAX_NARROW_GAPS_RATIO = 0.1
+
+        /**
+         * Space for [numberOfNotes] notes between neighbouring values [before] and [after].
+         *
+         * Notes are placed next to [after] if [atEnd] is set, next to [before] otherwise,
+         * so that the rest of the gap remains where the next note is most likely to be
+         * inserted - above the inserted notes, or below them.
+         */
+        @JvmStatic
+        fun between(before: Long, after: Long, numberOfNotes: Int, atEnd: Boolean): NotesSpace {
+            val valuesRequired = 2L * numberOfNotes
+
+            val gap = after - before - 1
+
+            val shift = if (gap >= valuesRequired) 0 else 4 * valuesRequired * SPACING - gap
+
+            val availableGap = gap + shift
+
+            // Use at most a quarter of the gap, keeping the rest for the following inserts
+            val spacing = (availableGap / (4 * valuesRequired)).coerceIn(1, SPACING)
+
+            val start = if (atEnd) {
+                after + shift - valuesRequired * spacing
+            } else {
+                before + spacing
+            }
+
+            return NotesSpace(shift, start, spacing)
+        }
+
+        /**
+         * Whether too many gaps between sorted [values] of a book have been used up,
+         * so that most inserts would require shifting the values which follow them.
+         */
+        @JvmStatic
+        fun isCrowded(values: LongArray): Boolean {
+            var narrowGaps = 0
+
+            for (i in 1 until values.size) {
+                if (values[i] - values[i - 1] < MIN_SPACING) {
+                    narrowGaps++
+                }
+            }
+
+            return narrowGaps > 0 && narrowGaps >= (values.size - 1) * MAX_NARROW_GAPS_RATIO
+        }
+
+        /**
+         * Value for the [index]-th of the sorted values of a book, when spaced out again.
+         */
+        @JvmStatic
+        fun spacedOut(index: Int): Long {
+            return (index + 1) * SPACING
+        }
+    }
+}
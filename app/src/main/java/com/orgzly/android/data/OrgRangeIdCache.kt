@@ -0,0 +1,26 @@
+package com.orgzly.android.data
+
+/**
+ * Maps org_ranges and org_timestamps strings to their IDs.
+ *
+ * Only valid for the duration of the transaction it was created for,
+ * as rows inserted in a transaction disappear if it is rolled back.
+ */
+class OrgRangeIdCache(private val maxSize: Int = MAX_SIZE) {
+
+    val ranges: MutableMap<String, Long> = lruMap()
+
+    val timestamps: MutableMap<String, Long> = lruMap()
+
+    private fun lruMap(): MutableMap<String, Long> {
+        return object : LinkedHashMap<String, Long>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Long>?): Boolean {
+                return size > maxSize
+            }
+        }
+    }
+
+    companion object {
+        const val MAX_SIZE = 2048
+    }
+}
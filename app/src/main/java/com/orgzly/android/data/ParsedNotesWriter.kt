@@ -0,0 +1,20 @@
+package com.orgzly.android.data
+
+import com.orgzly.android.db.entity.Note
+import com.orgzly.org.OrgProperties
+
+/**
+ * Writes notes of a book as they are received from the parser.
+ */
+interface ParsedNotesWriter {
+    /**
+     * Receives the next parsed note. Notes are received in post-order,
+     * with lft and rgt values as set by the parser.
+     */
+    fun add(note: Note, properties: OrgProperties, eventRangeIds: Set<Long>)
+
+    /**
+     * Writes all notes which have not been written yet.
+     */
+    fun flush()
+}
@@ -3,7 +3,19 @@ package com.orgzly.android.data.logs
 import kotlinx.coroutines.flow.Flow
 
 interface AppLogsRepository {
+    /**
+     * Adds the entry without waiting for it to be stored.
+     */
     fun log(type: String, str: String)
 
-    fun getFlow(): Flow<List<LogEntry>>
-}
\ No newline at end of file
+    /**
+     * Stores all added entries, blocking until they are written.
+     * Must not be called from the main thread.
+     */
+    fun flush()
+
+    /**
+     * Latest [limit] entries, newest first.
+     */
+    fun getFlow(limit: Int): Flow<List<LogEntry>>
+}
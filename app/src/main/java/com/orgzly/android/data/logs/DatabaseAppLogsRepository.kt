@@ -2,27 +2,108 @@ package com.orgzly.android.data.logs
 
 import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.AppLog
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Entries are queued and written in the background, in batches of whatever
+ * has been logged in the meantime. Old entries are deleted now and then.
+ *
+ * Queued entries are lost if the process is killed, so [flush] is called once the app
+ * is in the background and before background work ends. The queue is bounded,
+ * dropping the oldest entries if logging ever outpaces writing.
+ */
 @Singleton
-class DatabaseAppLogsRepository @Inject constructor(db: OrgzlyDatabase) : AppLogsRepository {
+class DatabaseAppLogsRepository @Inject constructor(private val db: OrgzlyDatabase) : AppLogsRepository {
     private val dbAppLog = db.appLog()
 
+    private val queue = Channel<AppLog>(MAX_QUEUED, BufferOverflow.DROP_OLDEST)
+
+    /* Signals the writer that there are queued entries. */
+    private val pending = Channel<Unit>(Channel.CONFLATED)
+
+    private var lastPruneTime = 0L
+
+    init {
+        CoroutineScope(SupervisorJob() + Dispatchers.IO).launch {
+            for (signal in pending) {
+                flush()
+            }
+        }
+    }
+
     override fun log(type: String, str: String) {
-        val entry = AppLog(0, System.currentTimeMillis(), type, str)
-        dbAppLog.insert(entry)
+        queue.trySend(AppLog(0, System.currentTimeMillis(), type, str))
+        pending.trySend(Unit)
+    }
+
+    /*
+     * Entries are taken from the queue only while holding the lock,
+     * so nothing logged before the call is still being written once it returns.
+     */
+    @Synchronized
+    override fun flush() {
+        while (true) {
+            val batch = mutableListOf<AppLog>()
+
+            while (batch.size < MAX_BATCH_SIZE) {
+                batch.add(queue.tryReceive().getOrNull() ?: break)
+            }
+
+            if (batch.isEmpty()) {
+                return
+            }
+
+            write(batch)
+        }
+    }
+
+    private fun write(batch: List<AppLog>) {
+        try {
+            db.runInTransaction {
+                dbAppLog.insert(batch)
+
+                val now = System.currentTimeMillis()
+
+                if (now - lastPruneTime > PRUNE_INTERVAL) {
+                    dbAppLog.deleteOlderThan(now - MAX_AGE)
+                    dbAppLog.deleteAllButLatest(MAX_ENTRIES)
+                    lastPruneTime = now
+                }
+            }
+        } catch (e: Exception) {
+            // Logs are not worth failing for
+            e.printStackTrace()
+        }
     }
 
-    override fun getFlow(): Flow<List<LogEntry>> {
-        return dbAppLog.getFlow().map { logEntries ->
+    override fun getFlow(limit: Int): Flow<List<LogEntry>> {
+        return dbAppLog.getFlow(limit).map { logEntries ->
             logEntries.map { entry ->
                 LogEntry(entry.timestamp, entry.name, entry.message)
             }
         }.flowOn(Dispatchers.IO)
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val MAX_BATCH_SIZE = 500
+
+        private const val MAX_QUEUED = 5_000
+
+        private const val MAX_ENTRIES = 10_000
+
+        private val MAX_AGE = TimeUnit.DAYS.toMillis(30)
+
+        private val PRUNE_INTERVAL = TimeUnit.HOURS.toMillis(1)
+    }
+}
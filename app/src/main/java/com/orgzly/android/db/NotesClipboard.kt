@@ -15,7 +15,17 @@ data class NotesClipboard(val entries: List<Entry> = emptyList()) {
 
     data class Entry(
             @SerializedName("note") val note: Note,
-            @SerializedName("properties") val properties: List<NoteProperty>
+            @SerializedName("properties") val properties: List<NoteProperty>,
+
+            /* Ranges are stored again on paste, IDs in note could have been deleted meanwhile. */
+            @SerializedName("ranges") val ranges: Ranges? = null
+    )
+
+    data class Ranges(
+            @SerializedName("scheduled") val scheduled: String?,
+            @SerializedName("deadline") val deadline: String?,
+            @SerializedName("closed") val closed: String?,
+            @SerializedName("clock") val clock: String?
     )
 
     val count: Int
@@ -44,7 +54,15 @@ data class NotesClipboard(val entries: List<Entry> = emptyList()) {
 
         fun create(dataRepository: DataRepository, ids: Set<Long>): NotesClipboard {
             val alignedNotes = dataRepository.getSubtreesAligned(ids).map { note ->
-                Entry(note, dataRepository.getNoteProperties(note.id))
+                val ranges = dataRepository.getNoteView(note.id)?.let { noteView ->
+                    Ranges(
+                            noteView.scheduledRangeString,
+                            noteView.deadlineRangeString,
+                            noteView.closedRangeString,
+                            noteView.clockRangeString)
+                }
+
+                Entry(note, dataRepository.getNoteProperties(note.id), ranges)
             }
 
             return NotesClipboard(alignedNotes)
@@ -16,12 +16,15 @@ import com.orgzly.android.db.dao.BookDao
 import com.orgzly.android.db.dao.BookLinkDao
 import com.orgzly.android.db.dao.BookPropertyDao
 import com.orgzly.android.db.dao.BookSyncDao
+import com.orgzly.android.db.dao.BookVersionDao
 import com.orgzly.android.db.dao.BookViewDao
 import com.orgzly.android.db.dao.DbRepoBookDao
 import com.orgzly.android.db.dao.NoteAncestorDao
 import com.orgzly.android.db.dao.NoteDao
 import com.orgzly.android.db.dao.NoteEventDao
+import com.orgzly.android.db.dao.NoteProjectionDao
 import com.orgzly.android.db.dao.NotePropertyDao
+import com.orgzly.android.db.dao.NoteTagDao
 import com.orgzly.android.db.dao.NoteViewDao
 import com.orgzly.android.db.dao.OrgRangeDao
 import com.orgzly.android.db.dao.OrgTimestampDao
@@ -36,13 +39,18 @@ import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.BookLink
 import com.orgzly.android.db.entity.BookProperty
 import com.orgzly.android.db.entity.BookSync
+import com.orgzly.android.db.entity.BookVersion
 import com.orgzly.android.db.entity.DbRepoBook
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteAncestor
 import com.orgzly.android.db.entity.NoteEvent
+import com.orgzly.android.db.entity.NoteFts
+import com.orgzly.android.db.entity.NoteProjection
 import com.orgzly.android.db.entity.NoteProperty
+import com.orgzly.android.db.entity.NoteTag
 import com.orgzly.android.db.entity.OrgRange
 import com.orgzly.android.db.entity.OrgTimestamp
+import com.orgzly.android.db.entity.ReminderTime
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.db.entity.Rook
 import com.orgzly.android.db.entity.RookUrl
@@ -60,13 +68,18 @@ import java.util.Calendar
             BookLink::class,
             BookProperty::class,
             BookSync::class,
+            BookVersion::class,
             DbRepoBook::class,
             Note::class,
             NoteAncestor::class,
             NoteProperty::class,
             NoteEvent::class,
+            NoteFts::class,
+            NoteProjection::class,
+            NoteTag::class,
             OrgRange::class,
             OrgTimestamp::class,
+            ReminderTime::class,
             Repo::class,
             Rook::class,
             RookUrl::class,
@@ -75,7 +88,7 @@ import java.util.Calendar
             AppLog::class
         ],
 
-        version = 158
+        version = 165
 )
 @TypeConverters(com.orgzly.android.db.TypeConverters::class)
 abstract class OrgzlyDatabase : RoomDatabase() {
@@ -85,11 +98,14 @@ abstract class OrgzlyDatabase : RoomDatabase() {
     abstract fun bookProperty(): BookPropertyDao
     abstract fun bookView(): BookViewDao
     abstract fun bookSync(): BookSyncDao
+    abstract fun bookVersion(): BookVersionDao
     abstract fun noteAncestor(): NoteAncestorDao
     abstract fun note(): NoteDao
     abstract fun noteView(): NoteViewDao
     abstract fun noteProperty(): NotePropertyDao
     abstract fun noteEvent(): NoteEventDao
+    abstract fun noteProjection(): NoteProjectionDao
+    abstract fun noteTag(): NoteTagDao
     abstract fun orgRange(): OrgRangeDao
     abstract fun reminderTime(): ReminderTimeDao
     abstract fun orgTimestamp(): OrgTimestampDao
@@ -115,6 +131,14 @@ abstract class OrgzlyDatabase : RoomDatabase() {
         fun forMemory(context: Context): OrgzlyDatabase {
             return Room.inMemoryDatabaseBuilder(context.applicationContext, OrgzlyDatabase::class.java)
                     .allowMainThreadQueries()
+                    .addCallback(object : Callback() {
+                        override fun onCreate(db: SupportSQLiteDatabase) {
+                            NoteFts.createSyncTriggers(db)
+                            NoteProjection.createSyncTriggers(db)
+                            ReminderTime.createSyncTriggers(db)
+                            BookVersion.createSyncTriggers(db)
+                        }
+                    })
                     .build()
         }
 
@@ -122,7 +146,6 @@ abstract class OrgzlyDatabase : RoomDatabase() {
         fun forFile(context: Context, fileName: String): OrgzlyDatabase {
             return Room.databaseBuilder(
                     context.applicationContext, OrgzlyDatabase::class.java, fileName)
-                    .allowMainThreadQueries() // TODO: Remove
                     .addMigrations(
                             PreRoomMigration.MIGRATION_130_131,
                             PreRoomMigration.MIGRATION_131_132,
@@ -152,12 +175,24 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                             MIGRATION_154_155,
                             MIGRATION_155_156,
                             MIGRATION_156_157,
-                            MIGRATION_157_158
+                            MIGRATION_157_158,
+                            MIGRATION_158_159,
+                            MIGRATION_159_160,
+                            MIGRATION_160_161,
+                            MIGRATION_161_162,
+                            MIGRATION_162_163,
+                            MIGRATION_163_164,
+                            MIGRATION_164_165
                     )
                     .addCallback(object : Callback() {
                         override fun onCreate(db: SupportSQLiteDatabase) {
                             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Database created")
 
+                            NoteFts.createSyncTriggers(db)
+                            NoteProjection.createSyncTriggers(db)
+                            ReminderTime.createSyncTriggers(db)
+                            BookVersion.createSyncTriggers(db)
+
                             insertDefaultSearches(db)
                         }
 
@@ -642,5 +677,102 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                 }
             }
         }
+
+        private val MIGRATION_158_159 = object : Migration(158, 159) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4(`title` TEXT NOT NULL, `content` TEXT, `tags` TEXT, tokenize=unicode61)")
+                db.execSQL("INSERT INTO notes_fts (docid, title, content, tags) SELECT id, title, content, tags FROM notes")
+
+                NoteFts.createSyncTriggers(db)
+            }
+        }
+
+        private val MIGRATION_159_160 = object : Migration(159, 160) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER NOT NULL, `tag` TEXT NOT NULL COLLATE NOCASE, `is_own` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `tag`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_note_id` ON `note_tags` (`note_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag_is_own` ON `note_tags` (`tag`, `is_own`)")
+
+                db.execSQL("""
+                    INSERT INTO note_tags (note_id, tag, is_own)
+                    WITH RECURSIVE split(note_id, is_own, tag, rest) AS (
+                        SELECT id, 1, '', tags || ' '
+                        FROM notes
+                        WHERE level > 0 AND tags IS NOT NULL
+
+                        UNION ALL
+
+                        SELECT na.note_id, 0, '', a.tags || ' '
+                        FROM note_ancestors na JOIN notes a ON (a.id = na.ancestor_note_id)
+                        WHERE a.tags IS NOT NULL
+
+                        UNION ALL
+
+                        SELECT n.id, 0, '', b.filetags || ' '
+                        FROM notes n JOIN books b ON (b.id = n.book_id)
+                        WHERE n.level > 0 AND b.filetags IS NOT NULL
+
+                        UNION ALL
+
+                        SELECT note_id, is_own, substr(rest, 1, instr(rest, ' ') - 1), substr(rest, instr(rest, ' ') + 1)
+                        FROM split
+                        WHERE rest != ''
+                    )
+                    SELECT note_id, tag, MAX(is_own)
+                    FROM split
+                    WHERE tag != ''
+                    GROUP BY note_id, tag COLLATE NOCASE
+                """)
+            }
+        }
+
+        private val MIGRATION_160_161 = object : Migration(160, 161) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_projections` (`note_id` INTEGER NOT NULL, `book_name` TEXT NOT NULL, `inherited_tags` TEXT, `scheduled_range_string` TEXT, `scheduled_is_active` INTEGER, `scheduled_time_string` TEXT, `scheduled_time_end_string` TEXT, `scheduled_time_timestamp` INTEGER, `scheduled_time_hour` INTEGER, `deadline_range_string` TEXT, `deadline_is_active` INTEGER, `deadline_time_string` TEXT, `deadline_time_end_string` TEXT, `deadline_time_timestamp` INTEGER, `deadline_time_hour` INTEGER, `closed_range_string` TEXT, `closed_is_active` INTEGER, `closed_time_string` TEXT, `closed_time_end_string` TEXT, `closed_time_timestamp` INTEGER, `closed_time_hour` INTEGER, `clock_range_string` TEXT, `clock_time_string` TEXT, `clock_time_end_string` TEXT, PRIMARY KEY(`note_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_projections_book_name` ON `note_projections` (`book_name`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_projections_scheduled_time_timestamp` ON `note_projections` (`scheduled_time_timestamp`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_projections_deadline_time_timestamp` ON `note_projections` (`deadline_time_timestamp`)")
+
+                NoteProjection.populate(db)
+
+                NoteProjection.createSyncTriggers(db)
+            }
+        }
+
+        private val MIGRATION_161_162 = object : Migration(161, 162) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_times` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `note_id` INTEGER NOT NULL, `time_type` INTEGER NOT NULL, `org_range_id` INTEGER NOT NULL, `org_timestamp_string` TEXT NOT NULL, `earliest` INTEGER NOT NULL, `latest` INTEGER NOT NULL, FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_reminder_times_note_id_time_type_org_range_id` ON `reminder_times` (`note_id`, `time_type`, `org_range_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_times_earliest` ON `reminder_times` (`earliest`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_times_latest` ON `reminder_times` (`latest`)")
+
+                ReminderTime.populate(db)
+
+                ReminderTime.createSyncTriggers(db)
+            }
+        }
+
+        private val MIGRATION_162_163 = object : Migration(162, 163) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `book_versions` (`book_id` INTEGER NOT NULL, `notes_version` INTEGER NOT NULL, `folding_version` INTEGER NOT NULL, PRIMARY KEY(`book_id`), FOREIGN KEY(`book_id`) REFERENCES `books`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+
+                BookVersion.populate(db)
+
+                BookVersion.createSyncTriggers(db)
+            }
+        }
+
+        private val MIGRATION_163_164 = object : Migration(163, 164) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_is_cut_lft_rgt_level` ON `notes` (`book_id`, `is_cut`, `lft`, `rgt`, `level`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_is_cut_folded_under_id_lft_level` ON `notes` (`book_id`, `is_cut`, `folded_under_id`, `lft`, `level`)")
+            }
+        }
+
+        private val MIGRATION_164_165 = object : Migration(164, 165) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                BookVersion.createSyncTriggers(db)
+            }
+        }
     }
 }
@@ -7,6 +7,22 @@ import kotlinx.coroutines.flow.Flow
 
 @Dao
 abstract class AppLogDao : BaseDao<AppLog> {
-    @Query("SELECT * FROM app_logs ORDER BY timestamp")
-    abstract fun getFlow(): Flow<List<AppLog>>
+    /**
+     * Latest [limit] entries, newest first.
+     */
+    @Query("SELECT * FROM app_logs ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    abstract fun getFlow(limit: Int): Flow<List<AppLog>>
+
+    @Query("DELETE FROM app_logs WHERE timestamp < :timestamp")
+    abstract fun deleteOlderThan(timestamp: Long): Int
+
+    /**
+     * Deletes all but the latest [count] entries.
+     */
+    @Query("""
+        DELETE FROM app_logs WHERE id IN (
+            SELECT id FROM app_logs ORDER BY timestamp DESC, id DESC LIMIT -1 OFFSET :count
+        )
+    """)
+    abstract fun deleteAllButLatest(count: Int): Int
 }
@@ -47,6 +47,14 @@ interface BaseDao<T> {
     @Update
     fun update(entity: T): Int
 
+    /**
+     * Update an array of objects from the database.
+     *
+     * @param entities entities to be updated
+     */
+    @Update
+    fun update(entities: Collection<T>): Int
+
     /**
      * Delete an object from the database
      *
@@ -18,6 +18,12 @@ abstract class BookDao : BaseDao<Book> {
     @Query("SELECT * FROM books WHERE name = :name")
     abstract fun get(name: String): Book?
 
+    @Query("SELECT * FROM books WHERE id = :id")
+    abstract suspend fun load(id: Long): Book?
+
+    @Query("SELECT * FROM books WHERE name = :name")
+    abstract suspend fun load(name: String): Book?
+
     @Query("SELECT * FROM books WHERE id = :id")
     abstract fun getLiveData(id: Long): LiveData<Book> // null not allowed, use List
 
@@ -8,6 +8,16 @@ interface BookSyncDao : BaseDao<BookSync> {
     @Query("SELECT * FROM book_syncs WHERE book_id = :bookId")
     fun get(bookId: Long): BookSync?
 
+    @Query("""
+        SELECT bs.book_id
+        FROM book_syncs bs
+        JOIN versioned_rooks vr ON (vr.id = bs.versioned_rook_id)
+        JOIN rooks r ON (r.id = vr.rook_id)
+        JOIN rook_urls ru ON (ru.id = r.rook_url_id)
+        WHERE r.repo_id = :repoId AND ru.url = :url
+    """)
+    fun getBookIdsSyncedTo(repoId: Long, url: String): List<Long>
+
     @Query("DELETE FROM book_syncs WHERE book_id = :bookId")
     fun delete(bookId: Long)
 
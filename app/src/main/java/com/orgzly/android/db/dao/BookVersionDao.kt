@@ -0,0 +1,22 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import com.orgzly.android.db.entity.BookVersion
+
+@Dao
+abstract class BookVersionDao {
+    @Query("SELECT * FROM book_versions ORDER BY book_id")
+    abstract fun getAll(): List<BookVersion>
+
+    @Query("""
+        SELECT v.* FROM book_versions v
+        JOIN books b ON (b.id = v.book_id)
+        WHERE b.name IN (:names)
+        ORDER BY v.book_id
+    """)
+    abstract fun getByBookNames(names: Set<String>): List<BookVersion>
+
+    @Query("SELECT * FROM book_versions WHERE book_id = :bookId")
+    abstract fun get(bookId: Long): BookVersion?
+}
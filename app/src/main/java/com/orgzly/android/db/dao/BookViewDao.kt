@@ -14,6 +14,9 @@ abstract class BookViewDao {
     @Query("$QUERY WHERE books.name = :name GROUP BY books.id")
     abstract fun get(name: String): BookView?
 
+    @Query("$QUERY WHERE books.id = :id GROUP BY books.id")
+    abstract suspend fun load(id: Long): BookView?
+
     @Query("$QUERY GROUP BY books.id ORDER BY $ORDER_BY_NAME")
     abstract fun getAllFOrderByNameLiveData(): LiveData<List<BookView>>
 
@@ -21,6 +21,26 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("SELECT * FROM notes WHERE id = :id")
     abstract fun get(id: Long): Note?
 
+    /**
+     * IDs and levels of all notes displayed in the book, in order.
+     * Much cheaper to load than notes themselves, which are paged.
+     */
+    @Query("""
+        SELECT id, level FROM notes
+        WHERE book_id = :bookId AND level > 0 AND is_cut = 0 AND folded_under_id = 0
+        ORDER BY lft
+    """)
+    abstract fun getVisibleLiveData(bookId: Long): LiveData<List<VisibleNote>>
+
+    @Query("""
+        SELECT id, level FROM notes
+        WHERE book_id = :bookId AND level > 0 AND is_cut = 0 AND folded_under_id = 0
+        AND (SELECT lft FROM notes WHERE id = :narrowedNoteId) <= lft
+        AND rgt <= (SELECT rgt FROM notes WHERE id = :narrowedNoteId)
+        ORDER BY lft
+    """)
+    abstract fun getVisibleLiveDataNarrowed(bookId: Long, narrowedNoteId: Long): LiveData<List<VisibleNote>>
+
     @Query("SELECT * FROM notes WHERE title = :title ORDER BY lft DESC LIMIT 1")
     abstract fun getLast(title: String): Note?
 
@@ -54,6 +74,20 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("DELETE FROM notes WHERE book_id = :bookId")
     abstract fun deleteByBookId(bookId: Long)
 
+    @Query("DELETE FROM notes WHERE book_id = :bookId AND is_cut != 0")
+    abstract fun deleteCutByBookId(bookId: Long): Int
+
+    /** Deletes only the notes themselves, unlike [deleteById] which deletes their subtrees. */
+    @Transaction
+    open fun deleteByIds(ids: Collection<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            deleteByIdsChunk(chunk)
+        }
+    }
+
+    @Query("DELETE FROM notes WHERE id IN (:ids)")
+    abstract fun deleteByIdsChunk(ids: List<Long>)
+
     @Query(SELECT_NOTE_AND_ANCESTORS_IDS_FOR_IDS)
     abstract fun getNoteAndAncestorsIds(ids: List<Long>): List<Long>
 
@@ -152,9 +186,6 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun incrementDescendantsCountForAncestors(bookId: Long, lft: Long, rgt: Long): Int
 
-    @Query("UPDATE notes SET rgt = rgt + 2 WHERE book_id = :bookId AND level = 0")
-    abstract fun incrementRgtForRootNote(bookId: Long)
-
     @Query("SELECT id FROM notes WHERE book_id = :bookId AND level = 0")
     abstract fun getRootNodeId(bookId: Long): Long?
 
@@ -275,16 +306,36 @@ abstract class NoteDao : BaseDao<Note> {
     abstract fun unfoldDescendantsUnderId(bookId: Long, noteId: Long, lft: Long, rgt: Long)
 
     @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft >= :value")
-    abstract fun incrementLftForLftGe(bookId: Long, value: Long, inc: Int)
+    abstract fun incrementLftForLftGe(bookId: Long, value: Long, inc: Long)
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft > :value")
-    abstract fun incrementLftForLftGt(bookId: Long, value: Long, inc: Int)
+    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt >= :value")
+    abstract fun incrementRgtForRgtGeOrRoot(bookId: Long, value: Long, inc: Long)
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value")
-    abstract fun incrementRgtForRgtGtOrRoot(bookId: Long, value: Long, inc: Int)
+    /** Largest lft or rgt value of book's notes (including the root) which is less than [value]. */
+    @Query("""
+        SELECT MAX(value) FROM (
+            SELECT MAX(lft) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft < :value
+            UNION ALL
+            SELECT MAX(rgt) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt < :value
+        )
+    """)
+    abstract fun getPositionValueBefore(bookId: Long, value: Long): Long?
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt >= :value")
-    abstract fun incrementRgtForRgtGeOrRoot(bookId: Long, value: Long, inc: Int)
+    /** Smallest lft or rgt value of book's notes (including the root) which is greater than [value]. */
+    @Query("""
+        SELECT MIN(value) FROM (
+            SELECT MIN(lft) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft > :value
+            UNION ALL
+            SELECT MIN(rgt) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value
+        )
+    """)
+    abstract fun getPositionValueAfter(bookId: Long, value: Long): Long?
+
+    @Query("SELECT id, lft, rgt FROM notes WHERE book_id = :bookId AND is_cut = 0 ORDER BY lft")
+    abstract fun getPositionValues(bookId: Long): List<PositionValues>
+
+    @Query("UPDATE notes SET lft = :lft, rgt = :rgt WHERE id = :id")
+    abstract fun updatePositionValues(id: Long, lft: Long, rgt: Long)
 
     @Transaction
     open fun unfoldNotesFoldedUnderOthers(ids: Set<Long>) {
@@ -304,12 +355,6 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("UPDATE notes SET folded_under_id = :foldedUnder WHERE id IN (:ids) AND folded_under_id = 0")
     abstract fun foldUnfolded(ids: Set<Long>, foldedUnder: Long)
 
-    @Query("UPDATE notes SET folded_under_id = :parentId WHERE id = :noteId")
-    abstract fun setFoldedUnder(noteId: Long, parentId: Long)
-
-    @Query("UPDATE notes SET parent_id = :parentId WHERE id = :noteId")
-    abstract fun updateParentForNote(noteId: Long, parentId: Long)
-
     @Query("""
         UPDATE notes
         SET book_id = :bookId, level = :level, lft = :lft, rgt = :rgt, parent_id = :parentId
@@ -351,9 +396,6 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("""SELECT DISTINCT book_id FROM notes WHERE id IN (:ids) AND COALESCE(state, "") != COALESCE(:state, "")""")
     abstract fun getBookIdsForNotesNotMatchingState(ids: Set<Long>, state: String?): List<Long>
 
-    @Query("SELECT MAX(rgt) FROM notes WHERE book_id = :bookId AND is_cut = 0")
-    abstract fun getMaxRgtForBook(bookId: Long): Long?
-
     @Query("SELECT * FROM notes WHERE book_id = :bookId AND level > 0 ORDER BY lft LIMIT 1")
     abstract fun getFirstNoteInBook(bookId: Long): Note?
 
@@ -432,6 +474,10 @@ abstract class NoteDao : BaseDao<Note> {
 
     data class NoteIdBookId(val noteId: Long, val bookId: Long)
 
+    data class VisibleNote(val id: Long, val level: Int)
+
+    data class PositionValues(val id: Long, val lft: Long, val rgt: Long)
+
     data class NoteForStateUpdate(
             val noteId: Long,
             val state: String?,
@@ -2,6 +2,8 @@ package com.orgzly.android.db.dao
 
 import androidx.room.Dao
 import androidx.room.Query
+import androidx.room.Transaction
+import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.NoteEvent
 
 @Dao
@@ -11,4 +13,14 @@ abstract class NoteEventDao : BaseDao<NoteEvent> {
 
     @Query("DELETE FROM note_events WHERE note_id = :noteId")
     abstract fun deleteForNote(noteId: Long)
+
+    @Transaction
+    open fun deleteForNotes(ids: Set<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            deleteForNotesChunk(chunk)
+        }
+    }
+
+    @Query("DELETE FROM note_events WHERE note_id IN (:ids)")
+    abstract fun deleteForNotesChunk(ids: List<Long>)
 }
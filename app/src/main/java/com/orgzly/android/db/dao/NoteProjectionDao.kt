@@ -0,0 +1,32 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.NoteProjection
+
+@Dao
+abstract class NoteProjectionDao {
+    /**
+     * Recomputes inherited tags of all notes in subtrees of [ids].
+     * Must be called after note_ancestors has been updated for them.
+     */
+    @Transaction
+    open fun updateInheritedTagsForSubtrees(ids: Set<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            updateInheritedTagsForSubtreesChunk(chunk)
+        }
+    }
+
+    @Query("""
+        UPDATE note_projections
+        SET inherited_tags = ${NoteProjection.INHERITED_TAGS}
+        WHERE note_id IN (
+            SELECT DISTINCT d.id
+            FROM notes n, notes d
+            WHERE d.book_id = n.book_id AND n.id IN (:ids) AND n.lft <= d.lft AND d.rgt <= n.rgt
+        )
+    """)
+    abstract fun updateInheritedTagsForSubtreesChunk(ids: List<Long>)
+}
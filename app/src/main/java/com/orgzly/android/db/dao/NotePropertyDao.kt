@@ -3,6 +3,7 @@ package com.orgzly.android.db.dao
 import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.Transaction
+import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.NoteProperty
 
 @Dao
@@ -14,6 +15,18 @@ abstract class NotePropertyDao : BaseDao<NoteProperty> {
     @Query("SELECT * FROM note_properties WHERE note_id = :noteId AND name = :name ORDER BY position")
     abstract fun get(noteId: Long, name: String): List<NoteProperty>
 
+    /**
+     * Properties of book's notes with lft between [fromLft] and [toLft], in notes' order.
+     */
+    @Query("""
+        SELECT note_properties.*
+        FROM note_properties
+        JOIN notes ON (notes.id = note_properties.note_id)
+        WHERE notes.book_id = :bookId AND :fromLft <= notes.lft AND notes.lft <= :toLft
+        ORDER BY notes.lft, note_properties.position
+    """)
+    abstract fun getForBookNotes(bookId: Long, fromLft: Long, toLft: Long): List<NoteProperty>
+
     @Query("SELECT name FROM note_properties GROUP BY LOWER(name)")
     abstract fun allDistinctNames(): List<String>
 
@@ -51,4 +64,14 @@ abstract class NotePropertyDao : BaseDao<NoteProperty> {
 
     @Query("DELETE FROM note_properties WHERE note_id = :noteId")
     abstract fun delete(noteId: Long)
+
+    @Transaction
+    open fun deleteForNotes(ids: Set<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            deleteForNotesChunk(chunk)
+        }
+    }
+
+    @Query("DELETE FROM note_properties WHERE note_id IN (:ids)")
+    abstract fun deleteForNotesChunk(ids: List<Long>)
 }
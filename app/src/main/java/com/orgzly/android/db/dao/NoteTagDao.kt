@@ -0,0 +1,70 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.NoteTag
+
+@Dao
+abstract class NoteTagDao : BaseDao<NoteTag> {
+    /**
+     * Rebuilds tags of all notes in subtrees of [ids].
+     * Must be called after note_ancestors has been updated for them.
+     */
+    @Transaction
+    open fun replaceForSubtrees(ids: Set<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            deleteForSubtreesChunk(chunk)
+            insertForSubtreesChunk(chunk)
+        }
+    }
+
+    @Query("""
+        DELETE FROM note_tags
+        WHERE note_id IN (
+            SELECT DISTINCT d.id
+            FROM notes n, notes d
+            WHERE d.book_id = n.book_id AND n.id IN (:ids) AND n.lft <= d.lft AND d.rgt <= n.rgt
+        )
+    """)
+    abstract fun deleteForSubtreesChunk(ids: List<Long>)
+
+    @Query("""
+        INSERT INTO note_tags (note_id, tag, is_own)
+        WITH RECURSIVE
+        subtree(id) AS (
+            SELECT DISTINCT d.id
+            FROM notes n, notes d
+            WHERE d.book_id = n.book_id AND n.id IN (:ids) AND n.lft <= d.lft AND d.rgt <= n.rgt AND d.level > 0
+        ),
+        split(note_id, is_own, tag, rest) AS (
+            SELECT n.id, 1, '', n.tags || ' '
+            FROM subtree s JOIN notes n ON (n.id = s.id)
+            WHERE n.tags IS NOT NULL
+
+            UNION ALL
+
+            SELECT na.note_id, 0, '', a.tags || ' '
+            FROM subtree s JOIN note_ancestors na ON (na.note_id = s.id) JOIN notes a ON (a.id = na.ancestor_note_id)
+            WHERE a.tags IS NOT NULL
+
+            UNION ALL
+
+            SELECT n.id, 0, '', b.filetags || ' '
+            FROM subtree s JOIN notes n ON (n.id = s.id) JOIN books b ON (b.id = n.book_id)
+            WHERE b.filetags IS NOT NULL
+
+            UNION ALL
+
+            SELECT note_id, is_own, substr(rest, 1, instr(rest, ' ') - 1), substr(rest, instr(rest, ' ') + 1)
+            FROM split
+            WHERE rest != ''
+        )
+        SELECT note_id, tag, MAX(is_own)
+        FROM split
+        WHERE tag != ''
+        GROUP BY note_id, tag COLLATE NOCASE
+    """)
+    abstract fun insertForSubtreesChunk(ids: List<Long>)
+}
@@ -1,18 +1,18 @@
 package com.orgzly.android.db.dao
 
 import androidx.lifecycle.LiveData
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.RawQuery
 import androidx.sqlite.db.SupportSQLiteQuery
-import com.orgzly.android.db.entity.Book
-import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.BookVersion
 import com.orgzly.android.db.entity.NoteView
 import org.intellij.lang.annotations.Language
 
 @Dao
 abstract class NoteViewDao {
-    @Query("$QUERY WHERE notes.level > 0 GROUP BY notes.id")
+    @Query("$QUERY WHERE notes.level > 0")
     abstract fun getAll(): List<NoteView>
 
     @Query("""
@@ -21,10 +21,9 @@ abstract class NoteViewDao {
         AND notes.level > 0
         AND notes.is_cut = 0
         AND notes.folded_under_id = 0
-        GROUP BY notes.id
         ORDER BY notes.lft
     """)
-    abstract fun getVisibleLiveData(bookId: Long): LiveData<List<NoteView>>
+    abstract fun getVisiblePagingSource(bookId: Long): PagingSource<Int, NoteView>
 
     @Query("""
         $QUERY
@@ -34,7 +33,6 @@ abstract class NoteViewDao {
         AND notes.folded_under_id = 0
         AND :lft <= notes.lft
         AND notes.rgt <= :rgt
-        GROUP BY notes.id
         ORDER BY notes.lft
     """)
     abstract fun getVisibleLiveData(bookId: Long, lft: Long, rgt: Long): LiveData<List<NoteView>>
@@ -51,66 +49,90 @@ abstract class NoteViewDao {
         AND notes.folded_under_id = 0
         AND (SELECT lft FROM notes WHERE id = :narrowedNoteId) <= notes.lft
         AND notes.rgt <= (SELECT rgt FROM notes WHERE id = :narrowedNoteId)
-        GROUP BY notes.id
         ORDER BY notes.lft
     """)
-    abstract fun getVisibleLiveDataNarrowed(bookId: Long, narrowedNoteId: Long): LiveData<List<NoteView>>
+    abstract fun getVisiblePagingSourceNarrowed(bookId: Long, narrowedNoteId: Long): PagingSource<Int, NoteView>
 
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
-    abstract fun runQueryLiveData(query: SupportSQLiteQuery): LiveData<List<NoteView>>
-
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
+    @RawQuery
     abstract fun runQuery(query: SupportSQLiteQuery): List<NoteView>
 
-    @Query("$QUERY WHERE notes.id = :id GROUP BY notes.id")
+    /*
+     * book_versions is changed by triggers on every change of notes which can affect
+     * query results (see BookVersion). See NotesQueryLiveData for observing them.
+     */
+    @RawQuery(observedEntities = [ BookVersion::class ])
+    abstract fun runQueryPagingSource(query: SupportSQLiteQuery): PagingSource<Int, NoteView>
+
+    @RawQuery
+    abstract fun runIdsQuery(query: SupportSQLiteQuery): List<Long>
+
+    @Query("$QUERY WHERE notes.id = :id")
     abstract fun get(id: Long): NoteView?
 
-    @Query("$QUERY WHERE (notes.scheduled_range_id IS NOT NULL OR notes.deadline_range_id IS NOT NULL) AND notes.level > 0 GROUP BY notes.id")
+    @Query("$QUERY WHERE notes.id = :id")
+    abstract suspend fun load(id: Long): NoteView?
+
+    @Query("$QUERY WHERE (notes.scheduled_range_id IS NOT NULL OR notes.deadline_range_id IS NOT NULL) AND notes.level > 0")
     abstract fun getAllWithScheduledOrDeadline(): List<NoteView>
 
-    @Query("$QUERY WHERE notes.title = :title GROUP BY notes.id ORDER BY lft DESC LIMIT 1")
+    @Query("$QUERY WHERE notes.title = :title ORDER BY lft DESC LIMIT 1")
     abstract fun getLast(title: String): NoteView?
 
-    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 GROUP BY notes.id ORDER BY notes.lft")
+    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 ORDER BY notes.lft")
     abstract fun getBookNotes(bookName: String): List<NoteView>
 
+    /**
+     * Book's notes following the one at [afterLft], for reading large books in chunks.
+     */
+    @Query("""
+        $QUERY
+        WHERE notes.book_id = :bookId
+        AND notes.level > 0
+        AND notes.is_cut = 0
+        AND notes.lft > :afterLft
+        ORDER BY notes.lft
+        LIMIT :limit
+    """)
+    abstract fun getBookNotesAfter(bookId: Long, afterLft: Long, limit: Int): List<NoteView>
+
 
     companion object {
+        /*
+         * Values which require joins (timestamps, book name, inherited tags) are read from
+         * note_projections. Start of day is computed here, as it depends on the time zone.
+         */
         @Language("RoomSql")
         const val QUERY = """
             SELECT
 
             notes.*,
 
-            -- MAX() is required by SQLite's GROUP BY syntax. Since each note belongs
-            -- to exactly one book, all grouped rows have identical filetags values,
-            -- so MAX() effectively just returns that single value.
-            TRIM(COALESCE(MAX(t_books.filetags) || ' ', '') || COALESCE(group_concat(t_notes_with_inherited_tags.tags, ' '), '')) AS inherited_tags,
-
-            t_scheduled_range.string AS scheduled_range_string,
-            t_scheduled_timestamps_start.string AS scheduled_time_string,
-            t_scheduled_timestamps_end.string AS scheduled_time_end_string,
-            t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
-            t_scheduled_timestamps_start.hour AS scheduled_time_hour,
-
-            t_deadline_range.string AS deadline_range_string,
-            t_deadline_timestamps_start.string AS deadline_time_string,
-            t_deadline_timestamps_end.string AS deadline_time_end_string,
-            t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
-            t_deadline_timestamps_start.hour AS deadline_time_hour,
-
-            t_closed_range.string AS closed_range_string,
-            t_closed_timestamps_start.string AS closed_time_string,
-            t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.string AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
-            t_closed_timestamps_start.hour AS closed_time_hour,
-
-            t_clock_range.string AS clock_range_string,
-            t_clock_timestamps_start.string AS clock_time_string,
-            t_clock_timestamps_end.string AS clock_time_end_string,
+            t_projection.inherited_tags,
+
+            t_projection.scheduled_range_string,
+            t_projection.scheduled_time_string,
+            t_projection.scheduled_time_end_string,
+            t_projection.scheduled_time_timestamp,
+            datetime(t_projection.scheduled_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
+            t_projection.scheduled_time_hour,
+
+            t_projection.deadline_range_string,
+            t_projection.deadline_time_string,
+            t_projection.deadline_time_end_string,
+            t_projection.deadline_time_timestamp,
+            datetime(t_projection.deadline_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
+            t_projection.deadline_time_hour,
+
+            t_projection.closed_range_string,
+            t_projection.closed_time_string,
+            t_projection.closed_time_end_string,
+            t_projection.closed_time_timestamp,
+            datetime(t_projection.closed_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
+            t_projection.closed_time_hour,
+
+            t_projection.clock_range_string,
+            t_projection.clock_time_string,
+            t_projection.clock_time_end_string,
 
             NULL AS event_string,
             NULL AS event_timestamp,
@@ -118,64 +140,52 @@ abstract class NoteViewDao {
             NULL AS event_start_of_day,
             NULL AS event_hour,
 
-            t_books.name AS book_name
+            t_projection.book_name
 
             FROM notes
 
-            LEFT JOIN org_ranges t_scheduled_range ON t_scheduled_range.id = notes.scheduled_range_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_start ON t_scheduled_timestamps_start.id = t_scheduled_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_end ON t_scheduled_timestamps_end.id = t_scheduled_range.end_timestamp_id
-            LEFT JOIN org_ranges t_deadline_range ON t_deadline_range.id = notes.deadline_range_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_start ON t_deadline_timestamps_start.id = t_deadline_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_end ON t_deadline_timestamps_end.id = t_deadline_range.end_timestamp_id
-            LEFT JOIN org_ranges t_closed_range ON t_closed_range.id = notes.closed_range_id
-            LEFT JOIN org_timestamps t_closed_timestamps_start ON t_closed_timestamps_start.id = t_closed_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_closed_timestamps_end ON t_closed_timestamps_end.id = t_closed_range.end_timestamp_id
-            LEFT JOIN org_ranges t_clock_range ON t_clock_range.id = notes.clock_range_id
-            LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
-            LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+            JOIN note_projections t_projection ON t_projection.note_id = notes.id
         """
 
+        /*
+         * One row for each note's event. Not grouped, so that the query can be flattened
+         * into the outer one; callers group by note ID (and event timestamp) themselves.
+         */
         @Language("RoomSql")
         const val QUERY_WITH_NOTE_EVENTS = """
             SELECT
 
             notes.*,
 
-            -- MAX() is required by SQLite's GROUP BY syntax. Since each note belongs
-            -- to exactly one book, all grouped rows have identical filetags values,
-            -- so MAX() effectively just returns that single value.
-            TRIM(COALESCE(MAX(t_books.filetags) || ' ', '') || COALESCE(group_concat(t_notes_with_inherited_tags.tags, ' '), '')) AS inherited_tags,
-
-            t_scheduled_range.string AS scheduled_range_string,
-            t_scheduled_timestamps_start.is_active AS scheduled_is_active,
-            t_scheduled_timestamps_start.string AS scheduled_time_string,
-            t_scheduled_timestamps_end.string AS scheduled_time_end_string,
-            t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
-            t_scheduled_timestamps_start.hour AS scheduled_time_hour,
-
-            t_deadline_range.string AS deadline_range_string,
-            t_deadline_timestamps_start.is_active AS deadline_is_active,
-            t_deadline_timestamps_start.string AS deadline_time_string,
-            t_deadline_timestamps_end.string AS deadline_time_end_string,
-            t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
-            t_deadline_timestamps_start.hour AS deadline_time_hour,
-
-            t_closed_range.string AS closed_range_string,
-            t_closed_timestamps_start.string AS closed_time_string,
-            t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.timestamp AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
-            t_closed_timestamps_start.hour AS closed_time_hour,
-
-            t_clock_range.string AS clock_range_string,
-            t_clock_timestamps_start.string AS clock_time_string,
-            t_clock_timestamps_end.string AS clock_time_end_string,
+            t_projection.inherited_tags,
+
+            t_projection.scheduled_range_string,
+            t_projection.scheduled_is_active,
+            t_projection.scheduled_time_string,
+            t_projection.scheduled_time_end_string,
+            t_projection.scheduled_time_timestamp,
+            datetime(t_projection.scheduled_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
+            t_projection.scheduled_time_hour,
+
+            t_projection.deadline_range_string,
+            t_projection.deadline_is_active,
+            t_projection.deadline_time_string,
+            t_projection.deadline_time_end_string,
+            t_projection.deadline_time_timestamp,
+            datetime(t_projection.deadline_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
+            t_projection.deadline_time_hour,
+
+            t_projection.closed_range_string,
+            t_projection.closed_is_active,
+            t_projection.closed_time_string,
+            t_projection.closed_time_end_string,
+            t_projection.closed_time_timestamp,
+            datetime(t_projection.closed_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
+            t_projection.closed_time_hour,
+
+            t_projection.clock_range_string,
+            t_projection.clock_time_string,
+            t_projection.clock_time_end_string,
 
             t_note_events_range.string AS event_string,
             t_note_events_start.timestamp AS event_timestamp,
@@ -183,32 +193,16 @@ abstract class NoteViewDao {
             datetime(t_note_events_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS event_start_of_day,
             t_note_events_start.hour AS event_hour,
 
-            t_books.name AS book_name
+            t_projection.book_name
 
             FROM notes
 
-            LEFT JOIN org_ranges t_scheduled_range ON t_scheduled_range.id = notes.scheduled_range_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_start ON t_scheduled_timestamps_start.id = t_scheduled_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_end ON t_scheduled_timestamps_end.id = t_scheduled_range.end_timestamp_id
-            LEFT JOIN org_ranges t_deadline_range ON t_deadline_range.id = notes.deadline_range_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_start ON t_deadline_timestamps_start.id = t_deadline_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_end ON t_deadline_timestamps_end.id = t_deadline_range.end_timestamp_id
-            LEFT JOIN org_ranges t_closed_range ON t_closed_range.id = notes.closed_range_id
-            LEFT JOIN org_timestamps t_closed_timestamps_start ON t_closed_timestamps_start.id = t_closed_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_closed_timestamps_end ON t_closed_timestamps_end.id = t_closed_range.end_timestamp_id
-            LEFT JOIN org_ranges t_clock_range ON t_clock_range.id = notes.clock_range_id
-            LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
-            LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+            JOIN note_projections t_projection ON t_projection.note_id = notes.id
 
             LEFT JOIN note_events t_note_events ON t_note_events.note_id = notes.id
             LEFT JOIN org_ranges t_note_events_range ON t_note_events_range.id = t_note_events.org_range_id
             LEFT JOIN org_timestamps t_note_events_start ON t_note_events_start.id = t_note_events_range.start_timestamp_id
             LEFT JOIN org_timestamps t_note_events_end ON t_note_events_end.id = t_note_events_range.end_timestamp_id
-
-            GROUP BY notes.id, event_timestamp
         """
     }
 }
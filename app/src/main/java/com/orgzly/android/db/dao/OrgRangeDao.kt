@@ -6,6 +6,26 @@ import com.orgzly.android.db.entity.OrgRange
 
 @Dao
 interface OrgRangeDao : BaseDao<OrgRange> {
+    @Query("SELECT * FROM org_ranges WHERE id = :id")
+    fun get(id: Long): OrgRange?
+
     @Query("SELECT * FROM org_ranges WHERE string = :str")
     fun getByString(str: String): OrgRange?
+
+    /**
+     * Deletes up to [limit] ranges not used by any note.
+     */
+    @Query("""
+        DELETE FROM org_ranges WHERE id IN (
+            SELECT id FROM org_ranges
+            WHERE id NOT IN (SELECT scheduled_range_id FROM notes WHERE scheduled_range_id IS NOT NULL)
+            AND id NOT IN (SELECT deadline_range_id FROM notes WHERE deadline_range_id IS NOT NULL)
+            AND id NOT IN (SELECT closed_range_id FROM notes WHERE closed_range_id IS NOT NULL)
+            AND id NOT IN (SELECT clock_range_id FROM notes WHERE clock_range_id IS NOT NULL)
+            AND id NOT IN (SELECT org_range_id FROM note_events)
+            AND id NOT IN (SELECT org_range_id FROM reminder_times)
+            LIMIT :limit
+        )
+    """)
+    fun deleteUnused(limit: Int): Int
 }
@@ -11,4 +11,17 @@ interface OrgTimestampDao : BaseDao<OrgTimestamp> {
 
     @Query("SELECT * FROM org_timestamps WHERE string = :str")
     fun getByString(str: String): OrgTimestamp?
+
+    /**
+     * Deletes up to [limit] timestamps not used by any range.
+     */
+    @Query("""
+        DELETE FROM org_timestamps WHERE id IN (
+            SELECT id FROM org_timestamps
+            WHERE id NOT IN (SELECT start_timestamp_id FROM org_ranges)
+            AND id NOT IN (SELECT end_timestamp_id FROM org_ranges WHERE end_timestamp_id IS NOT NULL)
+            LIMIT :limit
+        )
+    """)
+    fun deleteUnused(limit: Int): Int
 }
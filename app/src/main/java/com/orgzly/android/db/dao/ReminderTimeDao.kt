@@ -6,6 +6,7 @@ import androidx.room.Query
 @Dao
 interface ReminderTimeDao {
     data class NoteTime(
+            var id: Long,
             var noteId: Long,
             var bookId: Long,
             var bookName: String,
@@ -13,64 +14,56 @@ interface ReminderTimeDao {
             var title: String,
             var tags: String?,
             var timeType: Int,
-            var orgTimestampString: String)
+            var orgTimestampString: String,
+            var earliest: Long)
 
+    /**
+     * Times which could result in a reminder between [from] and [to].
+     */
     @Query("""
-        SELECT
-        n.id as noteId,
-        n.book_id as bookId,
-        coalesce(b.title, b.name) as bookName,
-        n.state as state,
-        n.title as title,
-        n.tags as tags,
-        $SCHEDULED_TIME as timeType,
-        t.string as orgTimestampString
-        FROM org_ranges r
-        JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
-        JOIN notes n ON (r.id = n.scheduled_range_id)
-        JOIN books b ON (b.id = n.book_id)
-        WHERE t.is_active = 1
-
-        UNION
-
-        SELECT
-        n.id as noteId,
-        n.book_id as bookId,
-        coalesce(b.title, b.name) as bookName,
-        n.state as state,
-        n.title as title,
-        n.tags as tags,
-        $DEADLINE_TIME as timeType,
-        t.string as orgTimestampString
-        FROM org_ranges r
-        JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
-        JOIN notes n ON (r.id = n.deadline_range_id)
-        JOIN books b ON (b.id = n.book_id)
-        WHERE t.is_active = 1
-
-        UNION
-
-        SELECT
-        n.id as noteId,
-        n.book_id as bookId,
-        coalesce(b.title, b.name) as bookName,
-        n.state as state,
-        n.title as title,
-        n.tags as tags,
-        $EVENT_TIME as timeType,
-        t.string as orgTimestampString
-        FROM note_events e
-        JOIN org_ranges r ON (r.id = e.org_range_id)
-        JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
-        JOIN notes n ON (n.id = e.note_id)
-        JOIN books b ON (b.id = n.book_id)
+        $SELECT
+        WHERE :from <= rt.latest AND rt.earliest <= :to
+        AND rt.time_type IN (:timeTypes) AND (n.state IS NULL OR n.state NOT IN (:doneStates))
+        ORDER BY rt.earliest, rt.id
+    """)
+    fun getInInterval(from: Long, to: Long, timeTypes: Collection<Int>, doneStates: Collection<String>): List<NoteTime>
 
+    /**
+     * Times which could result in a reminder after [from], ordered by the earliest such time.
+     * Page following the row [afterId] with [afterEarliest] time.
+     */
+    @Query("""
+        $SELECT
+        WHERE :from <= rt.latest AND (rt.earliest > :afterEarliest OR (rt.earliest = :afterEarliest AND rt.id > :afterId))
+        AND rt.time_type IN (:timeTypes) AND (n.state IS NULL OR n.state NOT IN (:doneStates))
+        ORDER BY rt.earliest, rt.id
+        LIMIT :limit
     """)
-    fun getAll(): List<NoteTime>
+    fun getAfter(from: Long, afterEarliest: Long, afterId: Long, limit: Int, timeTypes: Collection<Int>, doneStates: Collection<String>): List<NoteTime>
+
+    @Query("$SELECT WHERE rt.note_id = :noteId AND rt.time_type = :timeType")
+    fun getForNote(noteId: Long, timeType: Int): List<NoteTime>
 
     companion object {
         const val SCHEDULED_TIME = 1
         const val DEADLINE_TIME = 2
         const val EVENT_TIME = 3
+
+        const val SELECT = """
+            SELECT
+            rt.id as id,
+            n.id as noteId,
+            n.book_id as bookId,
+            coalesce(b.title, b.name) as bookName,
+            n.state as state,
+            n.title as title,
+            n.tags as tags,
+            rt.time_type as timeType,
+            rt.org_timestamp_string as orgTimestampString,
+            rt.earliest as earliest
+            FROM reminder_times rt
+            JOIN notes n ON (n.id = rt.note_id)
+            JOIN books b ON (b.id = n.book_id)
+        """
     }
 }
@@ -14,6 +14,9 @@ abstract class RepoDao : BaseDao<Repo> {
     @Query("SELECT * FROM repos WHERE id = :id")
     abstract fun get(id: Long): Repo?
 
+    @Query("SELECT * FROM repos WHERE id = :id")
+    abstract suspend fun load(id: Long): Repo?
+
     @Query("SELECT * FROM repos WHERE id = :id")
     abstract fun getLiveData(id: Long): LiveData<Repo>
 
@@ -13,4 +13,16 @@ abstract class RookDao : BaseDao<Rook> {
             get(repoId, rookUrlId).let {
                 it?.id ?: insert(Rook(0, repoId, rookUrlId))
             }
+
+    /**
+     * Deletes up to [limit] rooks without any versions.
+     */
+    @Query("""
+        DELETE FROM rooks WHERE id IN (
+            SELECT id FROM rooks
+            WHERE id NOT IN (SELECT rook_id FROM versioned_rooks)
+            LIMIT :limit
+        )
+    """)
+    abstract fun deleteUnused(limit: Int): Int
 }
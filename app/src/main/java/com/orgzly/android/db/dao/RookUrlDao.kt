@@ -13,4 +13,16 @@ abstract class RookUrlDao : BaseDao<RookUrl> {
             get(rookUrl).let {
                 it?.id ?: insert(RookUrl(0, rookUrl))
             }
+
+    /**
+     * Deletes up to [limit] URLs not used by any rook.
+     */
+    @Query("""
+        DELETE FROM rook_urls WHERE id IN (
+            SELECT id FROM rook_urls
+            WHERE id NOT IN (SELECT rook_url_id FROM rooks)
+            LIMIT :limit
+        )
+    """)
+    abstract fun deleteUnused(limit: Int): Int
 }
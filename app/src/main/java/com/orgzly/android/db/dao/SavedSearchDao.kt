@@ -4,15 +4,22 @@ import androidx.room.Dao
 import androidx.room.Query
 import com.orgzly.android.db.entity.SavedSearch
 import androidx.lifecycle.LiveData
+import kotlinx.coroutines.flow.Flow
 
 @Dao
 interface SavedSearchDao : BaseDao<SavedSearch> {
     @Query("SELECT * FROM searches WHERE id = :id")
     fun get(id: Long): SavedSearch?
 
+    @Query("SELECT * FROM searches WHERE id = :id")
+    suspend fun load(id: Long): SavedSearch?
+
     @Query("SELECT * FROM searches ORDER BY position, id")
     fun getLiveData(): LiveData<List<SavedSearch>>
 
+    @Query("SELECT * FROM searches ORDER BY position, id")
+    fun getFlow(): Flow<List<SavedSearch>>
+
     @Query("SELECT * FROM searches ORDER BY position, id")
     fun getAll(): List<SavedSearch>
 
@@ -3,10 +3,23 @@ package com.orgzly.android.db.dao
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
+import androidx.room.Query
 import com.orgzly.android.db.entity.VersionedRook
 
 @Dao
 abstract class VersionedRookDao : BaseDao<VersionedRook> {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     abstract fun replace(rook: VersionedRook): Long
+
+    /**
+     * Deletes up to [limit] versions no book is synced to.
+     */
+    @Query("""
+        DELETE FROM versioned_rooks WHERE id IN (
+            SELECT id FROM versioned_rooks
+            WHERE id NOT IN (SELECT versioned_rook_id FROM book_syncs)
+            LIMIT :limit
+        )
+    """)
+    abstract fun deleteUnused(limit: Int): Int
 }
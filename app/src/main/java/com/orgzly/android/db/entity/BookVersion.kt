@@ -0,0 +1,144 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Counters of changes made to book's notes, one row per book.
+ *
+ * Kept up to date by triggers below. Changes to folding are counted separately,
+ * as most queries don't depend on them. Observing this table instead of notes
+ * allows skipping re-running queries after changes which can't affect their results.
+ */
+@Entity(
+        tableName = "book_versions",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Book::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("book_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ]
+)
+data class BookVersion(
+        @PrimaryKey
+        @ColumnInfo(name = "book_id")
+        val bookId: Long,
+
+        @ColumnInfo(name = "notes_version")
+        val notesVersion: Long,
+
+        @ColumnInfo(name = "folding_version")
+        val foldingVersion: Long
+) {
+    companion object {
+        const val TABLE = "book_versions"
+
+        /** Columns of notes which are displayed or queried, all but folding. */
+        private val NOTES_COLUMNS = listOf(
+                "is_cut", "created_at", "title", "tags", "state", "priority", "content", "content_line_count",
+                "scheduled_range_id", "deadline_range_id", "closed_range_id", "clock_range_id",
+                "book_id", "lft", "rgt", "level", "parent_id", "descendants_count")
+
+        private val FOLDING_COLUMNS = listOf("is_folded", "folded_under_id")
+
+        private fun bump(column: String, bookId: String) =
+                "UPDATE book_versions SET $column = $column + 1 WHERE book_id = $bookId"
+
+        private fun noteBookId(noteId: String) =
+                "(SELECT book_id FROM notes WHERE id = $noteId)"
+
+        private fun syncTriggers(): List<String> {
+            return listOf(
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_insert_book AFTER INSERT ON books BEGIN
+                        INSERT OR IGNORE INTO book_versions (book_id, notes_version, folding_version) VALUES (NEW.id, 0, 0);
+                    END
+                    """,
+
+                    // Book name and filetags are part of notes' results
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_update_book AFTER UPDATE OF name, filetags ON books BEGIN
+                        ${bump("notes_version", "NEW.id")};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_insert_note AFTER INSERT ON notes BEGIN
+                        ${bump("notes_version", "NEW.book_id")};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_delete_note AFTER DELETE ON notes BEGIN
+                        ${bump("notes_version", "OLD.book_id")};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_update_note AFTER UPDATE OF ${NOTES_COLUMNS.joinToString()} ON notes BEGIN
+                        UPDATE book_versions SET notes_version = notes_version + 1 WHERE book_id IN (OLD.book_id, NEW.book_id);
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_update_folding AFTER UPDATE OF ${FOLDING_COLUMNS.joinToString()} ON notes BEGIN
+                        ${bump("folding_version", "NEW.book_id")};
+                    END
+                    """,
+
+                    // Updated separately from notes, after their ancestors change
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_update_inherited_tags AFTER UPDATE OF inherited_tags ON note_projections BEGIN
+                        ${bump("notes_version", noteBookId("NEW.note_id"))};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_insert_event AFTER INSERT ON note_events BEGIN
+                        ${bump("notes_version", noteBookId("NEW.note_id"))};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_delete_event AFTER DELETE ON note_events BEGIN
+                        ${bump("notes_version", noteBookId("OLD.note_id"))};
+                    END
+                    """,
+
+                    // Properties can be searched for and are exported with notes
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_insert_property AFTER INSERT ON note_properties BEGIN
+                        ${bump("notes_version", noteBookId("NEW.note_id"))};
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_update_property AFTER UPDATE ON note_properties BEGIN
+                        UPDATE book_versions SET notes_version = notes_version + 1 WHERE book_id IN (${noteBookId("OLD.note_id")}, ${noteBookId("NEW.note_id")});
+                    END
+                    """,
+
+                    """
+                    CREATE TRIGGER IF NOT EXISTS book_versions_after_delete_property AFTER DELETE ON note_properties BEGIN
+                        ${bump("notes_version", noteBookId("OLD.note_id"))};
+                    END
+                    """
+            )
+        }
+
+        @JvmStatic
+        fun createSyncTriggers(db: SupportSQLiteDatabase) {
+            syncTriggers().forEach { db.execSQL(it) }
+        }
+
+        /**
+         * Adds a row for each existing book.
+         */
+        @JvmStatic
+        fun populate(db: SupportSQLiteDatabase) {
+            db.execSQL("INSERT OR IGNORE INTO book_versions (book_id, notes_version, folding_version) SELECT id, 0, 0 FROM books")
+        }
+    }
+}
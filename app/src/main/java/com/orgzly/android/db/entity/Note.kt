@@ -49,7 +49,13 @@ import com.google.gson.Gson
             Index("descendants_count"),
             Index("scheduled_range_id"),
             Index("deadline_range_id"),
-            Index("closed_range_id")
+            Index("closed_range_id"),
+
+            // Nested set of book's notes: ancestors, subtrees, positions
+            Index("book_id", "is_cut", "lft", "rgt", "level"),
+
+            // Book's visible notes, in order
+            Index("book_id", "is_cut", "folded_under_id", "lft", "level")
         ]
 )
 data class Note(
@@ -0,0 +1,54 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Full-text index of notes' title, content and tags. Row ID is the note ID.
+ *
+ * Not using [Fts4.contentEntity], as Room's sync triggers for it fire on every update
+ * of the notes table (including lft, rgt and folding changes). Triggers below only
+ * fire when indexed columns change.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "notes_fts")
+data class NoteFts(
+        @PrimaryKey
+        @ColumnInfo(name = "rowid")
+        val noteId: Long,
+
+        val title: String,
+
+        val content: String?,
+
+        val tags: String?
+) {
+    companion object {
+        private val SYNC_TRIGGERS = listOf(
+                """
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_insert AFTER INSERT ON notes BEGIN
+                    INSERT INTO notes_fts (docid, title, content, tags) VALUES (NEW.id, NEW.title, NEW.content, NEW.tags);
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_update AFTER UPDATE OF title, content, tags ON notes BEGIN
+                    UPDATE notes_fts SET title = NEW.title, content = NEW.content, tags = NEW.tags WHERE docid = NEW.id;
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_delete AFTER DELETE ON notes BEGIN
+                    DELETE FROM notes_fts WHERE docid = OLD.id;
+                END
+                """
+        )
+
+        @JvmStatic
+        fun createSyncTriggers(db: SupportSQLiteDatabase) {
+            SYNC_TRIGGERS.forEach { db.execSQL(it) }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+import androidx.sqlite.db.SupportSQLiteDatabase
+import org.intellij.lang.annotations.Language
+
+/**
+ * Columns of [NoteView] which would otherwise require joining org_ranges, org_timestamps,
+ * books and ancestors for every query. One row per note.
+ *
+ * Timestamps and book name are kept up to date by triggers below. Inherited tags depend on
+ * note_ancestors, which is maintained by the application, so they are updated together
+ * with it (see NoteProjectionDao).
+ */
+@Entity(
+        tableName = "note_projections",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("book_name"),
+            Index("scheduled_time_timestamp"),
+            Index("deadline_time_timestamp")
+        ]
+)
+data class NoteProjection(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "book_name")
+        val bookName: String,
+
+        @ColumnInfo(name = "inherited_tags")
+        val inheritedTags: String? = null,
+
+        @ColumnInfo(name = "scheduled_range_string")
+        val scheduledRangeString: String? = null,
+        @ColumnInfo(name = "scheduled_is_active")
+        val scheduledIsActive: Boolean? = null,
+        @ColumnInfo(name = "scheduled_time_string")
+        val scheduledTimeString: String? = null,
+        @ColumnInfo(name = "scheduled_time_end_string")
+        val scheduledTimeEndString: String? = null,
+        @ColumnInfo(name = "scheduled_time_timestamp")
+        val scheduledTimeTimestamp: Long? = null,
+        @ColumnInfo(name = "scheduled_time_hour")
+        val scheduledTimeHour: Int? = null,
+
+        @ColumnInfo(name = "deadline_range_string")
+        val deadlineRangeString: String? = null,
+        @ColumnInfo(name = "deadline_is_active")
+        val deadlineIsActive: Boolean? = null,
+        @ColumnInfo(name = "deadline_time_string")
+        val deadlineTimeString: String? = null,
+        @ColumnInfo(name = "deadline_time_end_string")
+        val deadlineTimeEndString: String? = null,
+        @ColumnInfo(name = "deadline_time_timestamp")
+        val deadlineTimeTimestamp: Long? = null,
+        @ColumnInfo(name = "deadline_time_hour")
+        val deadlineTimeHour: Int? = null,
+
+        @ColumnInfo(name = "closed_range_string")
+        val closedRangeString: String? = null,
+        @ColumnInfo(name = "closed_is_active")
+        val closedIsActive: Boolean? = null,
+        @ColumnInfo(name = "closed_time_string")
+        val closedTimeString: String? = null,
+        @ColumnInfo(name = "closed_time_end_string")
+        val closedTimeEndString: String? = null,
+        @ColumnInfo(name = "closed_time_timestamp")
+        val closedTimeTimestamp: Long? = null,
+        @ColumnInfo(name = "closed_time_hour")
+        val closedTimeHour: Int? = null,
+
+        @ColumnInfo(name = "clock_range_string")
+        val clockRangeString: String? = null,
+        @ColumnInfo(name = "clock_time_string")
+        val clockTimeString: String? = null,
+        @ColumnInfo(name = "clock_time_end_string")
+        val clockTimeEndString: String? = null
+) {
+    companion object {
+        /**
+         * Book's filetags followed by tags of all ancestors, top-down.
+         * Evaluated for each row of note_projections being updated.
+         */
+        @Language("RoomSql")
+        const val INHERITED_TAGS = """
+            (
+                SELECT TRIM(COALESCE(b.filetags || ' ', '') || COALESCE((
+                    SELECT group_concat(tags, ' ') FROM (
+                        SELECT a.tags
+                        FROM note_ancestors na
+                        JOIN notes a ON (a.id = na.ancestor_note_id)
+                        WHERE na.note_id = n.id AND a.tags IS NOT NULL
+                        ORDER BY a.lft
+                    )
+                ), ''))
+                FROM notes n
+                JOIN books b ON (b.id = n.book_id)
+                WHERE n.id = note_projections.note_id
+            )
+        """
+
+        private const val SCHEDULED = "scheduled"
+        private const val DEADLINE = "deadline"
+        private const val CLOSED = "closed"
+        private const val CLOCK = "clock"
+
+        /**
+         * Column names and expressions computing them from notes' row [row].
+         */
+        private fun rangeColumns(kind: String, row: String): List<Pair<String, String>> {
+            val rangeId = "$row.${kind}_range_id"
+
+            fun start(column: String) =
+                    "(SELECT t.$column FROM org_ranges r JOIN org_timestamps t ON (t.id = r.start_timestamp_id) WHERE r.id = $rangeId)"
+
+            fun end(column: String) =
+                    "(SELECT t.$column FROM org_ranges r JOIN org_timestamps t ON (t.id = r.end_timestamp_id) WHERE r.id = $rangeId)"
+
+            return if (kind == CLOCK) {
+                listOf(
+                        "${kind}_range_string" to "(SELECT string FROM org_ranges WHERE id = $rangeId)",
+                        "${kind}_time_string" to start("string"),
+                        "${kind}_time_end_string" to end("string"))
+            } else {
+                listOf(
+                        "${kind}_range_string" to "(SELECT string FROM org_ranges WHERE id = $rangeId)",
+                        "${kind}_is_active" to start("is_active"),
+                        "${kind}_time_string" to start("string"),
+                        "${kind}_time_end_string" to end("string"),
+                        "${kind}_time_timestamp" to start("timestamp"),
+                        "${kind}_time_hour" to start("hour"))
+            }
+        }
+
+        private fun allColumns(row: String): List<Pair<String, String>> {
+            return listOf("note_id" to "$row.id", "book_name" to "(SELECT name FROM books WHERE id = $row.book_id)") +
+                    listOf(SCHEDULED, DEADLINE, CLOSED, CLOCK).flatMap { rangeColumns(it, row) }
+        }
+
+        private fun syncTriggers(): List<String> {
+            val triggers = mutableListOf<String>()
+
+            allColumns("NEW").let { columns ->
+                triggers.add("""
+                    CREATE TRIGGER IF NOT EXISTS note_projections_after_insert AFTER INSERT ON notes BEGIN
+                        INSERT INTO note_projections (${columns.joinToString { it.first }})
+                        VALUES (${columns.joinToString { it.second }});
+                    END
+                """)
+            }
+
+            listOf(SCHEDULED, DEADLINE, CLOSED, CLOCK).forEach { kind ->
+                val columns = rangeColumns(kind, "NEW")
+
+                triggers.add("""
+                    CREATE TRIGGER IF NOT EXISTS note_projections_after_update_$kind AFTER UPDATE OF ${kind}_range_id ON notes
+                    WHEN OLD.${kind}_range_id IS NOT NEW.${kind}_range_id BEGIN
+                        UPDATE note_projections SET ${columns.joinToString { "${it.first} = ${it.second}" }} WHERE note_id = NEW.id;
+                    END
+                """)
+            }
+
+            triggers.add("""
+                CREATE TRIGGER IF NOT EXISTS note_projections_after_update_book AFTER UPDATE OF book_id ON notes
+                WHEN OLD.book_id IS NOT NEW.book_id BEGIN
+                    UPDATE note_projections SET book_name = (SELECT name FROM books WHERE id = NEW.book_id) WHERE note_id = NEW.id;
+                END
+            """)
+
+            triggers.add("""
+                CREATE TRIGGER IF NOT EXISTS note_projections_after_book_rename AFTER UPDATE OF name ON books
+                WHEN OLD.name IS NOT NEW.name BEGIN
+                    UPDATE note_projections SET book_name = NEW.name WHERE note_id IN (SELECT id FROM notes WHERE book_id = NEW.id);
+                END
+            """)
+
+            return triggers
+        }
+
+        @JvmStatic
+        fun createSyncTriggers(db: SupportSQLiteDatabase) {
+            syncTriggers().forEach { db.execSQL(it) }
+        }
+
+        /**
+         * Fills the table for all existing notes.
+         */
+        @JvmStatic
+        fun populate(db: SupportSQLiteDatabase) {
+            val columns = allColumns("notes")
+
+            db.execSQL("""
+                INSERT INTO note_projections (${columns.joinToString { it.first }})
+                SELECT ${columns.joinToString { it.second }} FROM notes
+            """)
+
+            db.execSQL("UPDATE note_projections SET inherited_tags = $INHERITED_TAGS")
+        }
+    }
+}
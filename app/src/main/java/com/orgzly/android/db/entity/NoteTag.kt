@@ -0,0 +1,37 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * One row per tag of a note, including tags inherited from ancestors and book's filetags.
+ * Maintained alongside note_ancestors, so tag searches can use an index instead of LIKE.
+ */
+@Entity(
+        tableName = "note_tags",
+
+        primaryKeys = [ "note_id", "tag" ],
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("note_id"),
+            Index("tag", "is_own")
+        ]
+)
+data class NoteTag(
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(collate = ColumnInfo.NOCASE)
+        val tag: String,
+
+        /* False if the tag is only inherited. */
+        @ColumnInfo(name = "is_own")
+        val isOwn: Boolean
+)
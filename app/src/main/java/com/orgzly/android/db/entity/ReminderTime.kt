@@ -0,0 +1,144 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.orgzly.android.db.dao.ReminderTimeDao
+import com.orgzly.android.db.mappers.OrgTimestampMapper
+
+/**
+ * Active scheduled and deadline times and all event times of notes, indexed by time.
+ * One row for each time a reminder could be displayed for.
+ *
+ * Kept up to date by triggers below, so only rows of modified notes are ever rewritten.
+ * [earliest] and [latest] bound the time reminder can be displayed at, taking into account
+ * deadline warning period, default time of day and time zone changes. Exact time is still
+ * calculated from the timestamp's string, but only for rows within the interval of interest.
+ */
+@Entity(
+        tableName = "reminder_times",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("note_id", "time_type", "org_range_id", unique = true),
+            Index("earliest"),
+            Index("latest")
+        ]
+)
+data class ReminderTime(
+        @PrimaryKey(autoGenerate = true)
+        val id: Long,
+
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "time_type")
+        val timeType: Int,
+
+        @ColumnInfo(name = "org_range_id")
+        val orgRangeId: Long,
+
+        @ColumnInfo(name = "org_timestamp_string")
+        val orgTimestampString: String,
+
+        val earliest: Long,
+
+        val latest: Long
+) {
+    companion object {
+        private const val DAY_MS = 24 * 60 * 60 * 1000L
+
+        private val WARNING_PERIOD_MS = """
+            CASE t.delay_unit
+            WHEN ${OrgTimestampMapper.UNIT_HOUR} THEN ${60 * 60 * 1000L}
+            WHEN ${OrgTimestampMapper.UNIT_DAY} THEN $DAY_MS
+            WHEN ${OrgTimestampMapper.UNIT_WEEK} THEN ${7 * DAY_MS}
+            WHEN ${OrgTimestampMapper.UNIT_MONTH} THEN ${31 * DAY_MS}
+            WHEN ${OrgTimestampMapper.UNIT_YEAR} THEN ${366 * DAY_MS}
+            ELSE 0 END * COALESCE(t.delay_value, 0)
+        """
+
+        /**
+         * Selects rows for range [rangeId] of note [noteId], optionally joining [source] first.
+         * Scheduled and deadline times are only included if active.
+         */
+        private fun select(noteId: String, timeType: Int, rangeId: String, source: String? = null): String {
+            val warningPeriod = if (timeType == ReminderTimeDao.SCHEDULED_TIME) "0" else WARNING_PERIOD_MS
+            val activeOnly = if (timeType == ReminderTimeDao.EVENT_TIME) "" else "AND t.is_active = 1"
+
+            return """
+                SELECT $noteId, $timeType, r.id, t.string, t.timestamp - $warningPeriod - $DAY_MS, t.timestamp + 2 * $DAY_MS
+                FROM ${if (source != null) "$source JOIN org_ranges r" else "org_ranges r"}
+                JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
+                WHERE r.id = $rangeId $activeOnly
+            """
+        }
+
+        private const val INSERT =
+                "INSERT OR IGNORE INTO reminder_times (note_id, time_type, org_range_id, org_timestamp_string, earliest, latest)"
+
+        private fun syncTriggers(): List<String> {
+            val triggers = mutableListOf<String>()
+
+            listOf(
+                    "scheduled" to ReminderTimeDao.SCHEDULED_TIME,
+                    "deadline" to ReminderTimeDao.DEADLINE_TIME
+            ).forEach { (kind, timeType) ->
+                triggers.add("""
+                    CREATE TRIGGER IF NOT EXISTS reminder_times_after_insert_$kind AFTER INSERT ON notes
+                    WHEN NEW.${kind}_range_id IS NOT NULL BEGIN
+                        $INSERT ${select("NEW.id", timeType, "NEW.${kind}_range_id")};
+                    END
+                """)
+
+                triggers.add("""
+                    CREATE TRIGGER IF NOT EXISTS reminder_times_after_update_$kind AFTER UPDATE OF ${kind}_range_id ON notes
+                    WHEN OLD.${kind}_range_id IS NOT NEW.${kind}_range_id BEGIN
+                        DELETE FROM reminder_times WHERE note_id = NEW.id AND time_type = $timeType;
+                        $INSERT ${select("NEW.id", timeType, "NEW.${kind}_range_id")};
+                    END
+                """)
+            }
+
+            triggers.add("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_insert_event AFTER INSERT ON note_events BEGIN
+                    $INSERT ${select("NEW.note_id", ReminderTimeDao.EVENT_TIME, "NEW.org_range_id")};
+                END
+            """)
+
+            triggers.add("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_delete_event AFTER DELETE ON note_events BEGIN
+                    DELETE FROM reminder_times
+                    WHERE note_id = OLD.note_id AND time_type = ${ReminderTimeDao.EVENT_TIME} AND org_range_id = OLD.org_range_id;
+                END
+            """)
+
+            return triggers
+        }
+
+        @JvmStatic
+        fun createSyncTriggers(db: SupportSQLiteDatabase) {
+            syncTriggers().forEach { db.execSQL(it) }
+        }
+
+        /**
+         * Fills the table for all existing notes.
+         */
+        @JvmStatic
+        fun populate(db: SupportSQLiteDatabase) {
+            listOf(
+                    select("n.id", ReminderTimeDao.SCHEDULED_TIME, "n.scheduled_range_id", "notes n"),
+                    select("n.id", ReminderTimeDao.DEADLINE_TIME, "n.deadline_range_id", "notes n"),
+                    select("e.note_id", ReminderTimeDao.EVENT_TIME, "e.org_range_id", "note_events e")
+            ).forEach {
+                db.execSQL("$INSERT $it")
+            }
+        }
+    }
+}
@@ -92,11 +92,11 @@ object OrgTimestampMapper {
         )
     }
 
-    private const val UNIT_HOUR = 360
-    private const val UNIT_DAY = 424
-    private const val UNIT_WEEK = 507
-    private const val UNIT_MONTH = 604
-    private const val UNIT_YEAR = 712
+    const val UNIT_HOUR = 360
+    const val UNIT_DAY = 424
+    const val UNIT_WEEK = 507
+    const val UNIT_MONTH = 604
+    const val UNIT_YEAR = 712
 
     private const val REPEATER_TYPE_CUMULATE = 20
     private const val REPEATER_TYPE_CATCH_UP = 22
@@ -1,9 +1,11 @@
 package com.orgzly.android.di
 
+import com.orgzly.android.App
 import com.orgzly.android.NewNoteBroadcastReceiver
 import com.orgzly.android.NotificationBroadcastReceiver
 import com.orgzly.android.SharingShortcutsManager
 import com.orgzly.android.TimeChangeBroadcastReceiver
+import com.orgzly.android.data.DatabaseMaintenanceWorker
 import com.orgzly.android.di.module.ApplicationModule
 import com.orgzly.android.di.module.DataModule
 import com.orgzly.android.di.module.DatabaseModule
@@ -55,6 +57,8 @@ import javax.inject.Singleton
     DataModule::class
 ])
 interface AppComponent {
+    fun inject(arg: App)
+
     fun inject(arg: MainActivity)
     fun inject(arg: ReposActivity)
     fun inject(arg: DropboxRepoActivity)
@@ -87,6 +91,8 @@ interface AppComponent {
 
     fun inject(arg: CalendarWorker)
 
+    fun inject(arg: DatabaseMaintenanceWorker)
+
     fun inject(arg: SyncWorker)
     fun inject(arg: ScheduledSyncWorker)
 
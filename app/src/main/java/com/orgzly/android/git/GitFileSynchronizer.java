@@ -10,6 +10,7 @@ import android.util.Log;
 import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.App;
+import com.orgzly.android.repos.SyncRound;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.android.util.MiscUtils;
 
@@ -18,6 +19,7 @@ import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
@@ -34,19 +36,75 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 public class GitFileSynchronizer {
     private final static String TAG = GitFileSynchronizer.class.getName();
     public final static String PRE_SYNC_MARKER_BRANCH = "orgzly-pre-sync-marker";
 
+    /**
+     * File in the Git directory listing paths staged by the sync round in progress,
+     * so that they can be told apart from other staged changes if the round never ends.
+     */
+    public final static String STAGED_BY_SYNC_FILE = "orgzly-staged-by-sync";
+
+    /**
+     * Changes made during a sync round, shared by all synchronizers which joined it.
+     *
+     * Files stored without any merging are only added to the index and committed together,
+     * right before the next operation which needs a clean repository, or at the end of the round.
+     * Pushing is left for the end of the round.
+     */
+    private static class RoundState {
+        final SyncRound round;
+
+        /** Added to the index, but not committed yet. */
+        final Set<String> stagedPaths = new LinkedHashSet<>();
+
+        /** Committed during this round. */
+        final Set<String> committedPaths = new LinkedHashSet<>();
+
+        RoundState(SyncRound round) {
+            this.round = round;
+        }
+    }
+
+    /** Git directory to its sync round in progress. */
+    private static final Map<File, RoundState> SYNC_ROUNDS = new HashMap<>();
+
+    /**
+     * Files written by us since the repository was last found to be clean.
+     *
+     * Operations other than writing files (merging, checking out, resetting) leave the
+     * working tree clean, so only these files need to be checked, instead of getting
+     * the status of the whole working tree. Shared by all synchronizers of the same repository.
+     */
+    private static class CleanState {
+        final Set<String> touchedPaths = new LinkedHashSet<>();
+    }
+
+    /**
+     * Git directory to its clean state. Missing if the state is not known,
+     * in which case the status of the whole working tree is required.
+     */
+    private static final Map<File, CleanState> CLEAN_STATES = new HashMap<>();
+
     private final Git git;
     private final GitPreferences preferences;
     private final Context context;
     private final Activity currentActivity = App.getCurrentActivity();
 
+    /** Sync round this synchronizer takes part in. */
+    private SyncRound joinedRound;
+
 
     public GitFileSynchronizer(Git g, GitPreferences prefs) {
         git = g;
@@ -58,6 +116,175 @@ public class GitFileSynchronizer {
         return preferences.createTransportSetter();
     }
 
+    /**
+     * Start collecting changes made through this synchronizer into as few commits as possible,
+     * until {@link #endSyncRound(SyncRound)}. Joins the round if it has already been started
+     * by another synchronizer of the same repository.
+     */
+    public void beginSyncRound(SyncRound round) {
+        synchronized (SYNC_ROUNDS) {
+            RoundState state = SYNC_ROUNDS.get(gitDir());
+            if (state == null) {
+                SYNC_ROUNDS.put(gitDir(), new RoundState(round));
+                joinedRound = round;
+
+            } else if (state.round == round) {
+                joinedRound = round;
+
+            } else {
+                Log.w(TAG, "Another sync round is in progress for " + gitDir());
+            }
+        }
+    }
+
+    /**
+     * Commits all changes staged during the round. Pushing is up to the caller.
+     *
+     * @return paths of files committed during the round
+     */
+    public List<String> endSyncRound(SyncRound round) throws IOException {
+        RoundState state = syncRound();
+        if (state == null || state.round != round) {
+            return new ArrayList<>();
+        }
+
+        try {
+            commitStagedChanges();
+        } finally {
+            synchronized (SYNC_ROUNDS) {
+                SYNC_ROUNDS.remove(gitDir());
+            }
+            joinedRound = null;
+        }
+
+        return new ArrayList<>(state.committedPaths);
+    }
+
+    /**
+     * Round in progress, if this synchronizer takes part in it.
+     */
+    private RoundState syncRound() {
+        RoundState state = anySyncRound();
+        return state != null && state.round == joinedRound ? state : null;
+    }
+
+    /**
+     * Round in progress, even if this synchronizer is not taking part in it.
+     */
+    private RoundState anySyncRound() {
+        synchronized (SYNC_ROUNDS) {
+            return SYNC_ROUNDS.get(gitDir());
+        }
+    }
+
+    /**
+     * Commits changes left in the index by a sync round which never ended,
+     * because the app was stopped during the sync.
+     *
+     * Only paths recorded as staged by the round are committed. Any other staged change
+     * was not made by us and is left for {@link #ensureRepoIsClean()} to refuse.
+     */
+    private void commitChangesOfInterruptedRound() throws IOException {
+        if (anySyncRound() != null) {
+            return;
+        }
+
+        Set<String> stagedBySync = readStagedBySync();
+        if (stagedBySync.isEmpty()) {
+            return;
+        }
+
+        try {
+            Status status = git.status().call();
+
+            if (!status.getConflicting().isEmpty()) {
+                return;
+            }
+
+            Set<String> staged = new LinkedHashSet<>();
+            staged.addAll(status.getAdded());
+            staged.addAll(status.getChanged());
+            staged.addAll(status.getRemoved());
+
+            if (!stagedBySync.containsAll(staged)) {
+                throw new IOException("Refusing to update because there are uncommitted changes.");
+            }
+
+            if (!staged.isEmpty()) {
+                Log.w(TAG, String.format("Committing %d files left staged by interrupted sync", staged.size()));
+                commit(String.format("Orgzly update: %d files from interrupted sync", staged.size()));
+            }
+        } catch (GitAPIException e) {
+            throw new IOException("Failed to commit changes of interrupted sync.", e);
+        }
+
+        writeStagedBySync(Collections.emptySet());
+    }
+
+    private File stagedBySyncFile() {
+        return new File(gitDir(), STAGED_BY_SYNC_FILE);
+    }
+
+    private Set<String> readStagedBySync() throws IOException {
+        Set<String> paths = new LinkedHashSet<>();
+        File file = stagedBySyncFile();
+        if (file.exists()) {
+            for (String path : MiscUtils.readStringFromFile(file).split("\n")) {
+                if (!path.isEmpty()) {
+                    paths.add(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private void writeStagedBySync(Set<String> paths) throws IOException {
+        File file = stagedBySyncFile();
+        if (paths.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+        } else {
+            MiscUtils.writeStringToFile(String.join("\n", paths), file);
+        }
+    }
+
+    private File gitDir() {
+        return git.getRepository().getDirectory();
+    }
+
+    private void commitStagedChanges() throws IOException {
+        RoundState round = syncRound();
+        if (round == null || round.stagedPaths.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (!gitRepoIsClean()) {
+                if (round.stagedPaths.size() == 1) {
+                    commit(String.format("Orgzly update: %s", round.stagedPaths.iterator().next()));
+                } else {
+                    StringBuilder message = new StringBuilder(
+                            String.format("Orgzly update: %d files\n", round.stagedPaths.size()));
+                    for (String path : round.stagedPaths) {
+                        message.append("\n").append(path);
+                    }
+                    commit(message.toString());
+                }
+            }
+        } catch (GitAPIException e) {
+            throw new IOException("Failed to commit changes.");
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, String.format("Committed %d staged files", round.stagedPaths.size()));
+        }
+
+        round.committedPaths.addAll(round.stagedPaths);
+        round.stagedPaths.clear();
+        writeStagedBySync(round.stagedPaths);
+    }
+
     public void retrieveLatestVersionOfFile(
             String repositoryPath, File destination) throws IOException {
         MiscUtils.copyFile(workTreeFile(repositoryPath), destination);
@@ -239,9 +466,15 @@ public class GitFileSynchronizer {
     }
 
     public void tryPush() {
+        if (syncRound() != null) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Sync round in progress, pushing later");
+            return;
+        }
+
         final var pushCommand = transportSetter().setTransport(
                 git.push().setRemote(preferences.remoteName()));
         final Object monitor = new Object();
+        final boolean[] done = { false };
 
         if (BuildConfig.LOG_DEBUG) {
             String currentBranch = "UNKNOWN_BRANCH";
@@ -259,9 +492,6 @@ public class GitFileSynchronizer {
                         showSnackbar(currentActivity, results.iterator().next().getMessages());
                     }
                 }
-                synchronized (monitor) {
-                    monitor.notify();
-                }
             } catch (GitAPIException e) {
                 if (currentActivity != null) {
                     showSnackbar(
@@ -269,11 +499,18 @@ public class GitFileSynchronizer {
                             String.format("Failed to push to remote: %s", e.getMessage())
                     );
                 }
+            } finally {
+                synchronized (monitor) {
+                    done[0] = true;
+                    monitor.notify();
+                }
             }
         });
         synchronized (monitor) {
             try {
-                monitor.wait();
+                while (!done[0]) {
+                    monitor.wait();
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -281,6 +518,7 @@ public class GitFileSynchronizer {
     }
 
     private void gitResetMerge() throws IOException, GitAPIException {
+        forgetCleanState();
         git.getRepository().writeMergeCommitMsg(null);
         git.getRepository().writeMergeHeads(null);
         git.reset().setMode(ResetCommand.ResetType.HARD).call();
@@ -298,6 +536,9 @@ public class GitFileSynchronizer {
     }
 
     public void setBranchAndGetLatest() throws IOException {
+        // Called at the start of every sync. Pick up any changes made outside of the app.
+        forgetCleanState();
+        commitChangesOfInterruptedRound();
         ensureRepoIsClean();
         try {
             // Point a "marker" branch to the current head, so that we know a good starting commit
@@ -376,12 +617,12 @@ public class GitFileSynchronizer {
     }
 
     public void updateAndCommitExistingFile(File sourceFile, String repositoryPath) throws IOException {
-        ensureRepoIsClean();
+        ensureRepoIsCleanExceptStaged();
         File destinationFile = workTreeFile(repositoryPath);
         if (!destinationFile.exists()) {
             throw new FileNotFoundException("File " + destinationFile + " does not exist");
         }
-        updateAndCommitFile(sourceFile, repositoryPath);
+        updateAndStageOrCommitFile(sourceFile, repositoryPath);
     }
 
     /**
@@ -391,12 +632,13 @@ public class GitFileSynchronizer {
      * @throws IOException If the file already exists
      */
     public void addAndCommitNewFile(File sourceFile, String repositoryPath) throws IOException {
-        ensureRepoIsClean();
+        ensureRepoIsCleanExceptStaged();
         File destinationFile = workTreeFile(repositoryPath);
         if (destinationFile.exists()) {
             throw new IOException("Can't add new file " + repositoryPath + " that already exists.");
         }
         ensureDirectoryHierarchy(repositoryPath);
+        // Committed even during a sync round, so that the file has a revision
         updateAndCommitFile(sourceFile, repositoryPath);
     }
 
@@ -413,16 +655,53 @@ public class GitFileSynchronizer {
     private void updateAndCommitFile(
             File sourceFile, String repoRelativePath) throws IOException {
         File destinationFile = workTreeFile(repoRelativePath);
+        touch(repoRelativePath);
         MiscUtils.copyFile(sourceFile, destinationFile);
         try {
             git.add().addFilepattern(repoRelativePath).call();
-            if (!gitRepoIsClean())
+            if (anySyncRound() != null) {
+                // Leave files staged by the sync round for its own commit
+                if (!git.status().addPath(repoRelativePath).call().isClean())
+                    git.commit()
+                            .setMessage(String.format("Orgzly update: %s", repoRelativePath))
+                            .setOnly(repoRelativePath)
+                            .call();
+            } else if (!gitRepoIsClean()) {
                 commit(String.format("Orgzly update: %s", repoRelativePath));
+            }
         } catch (GitAPIException e) {
             throw new IOException("Failed to commit changes.");
         }
     }
 
+    /**
+     * Like {@link #updateAndCommitFile(File, String)}, but during a sync round
+     * the file is only added to the index, to be committed with others.
+     */
+    private void updateAndStageOrCommitFile(
+            File sourceFile, String repoRelativePath) throws IOException {
+        RoundState round = syncRound();
+        if (round == null) {
+            updateAndCommitFile(sourceFile, repoRelativePath);
+            return;
+        }
+
+        File destinationFile = workTreeFile(repoRelativePath);
+        touch(repoRelativePath);
+        MiscUtils.copyFile(sourceFile, destinationFile);
+        try {
+            // Recorded before staging, so that a path can't be staged without being known
+            Set<String> paths = new LinkedHashSet<>(round.stagedPaths);
+            paths.add(repoRelativePath);
+            writeStagedBySync(paths);
+
+            git.add().addFilepattern(repoRelativePath).call();
+            round.stagedPaths.add(repoRelativePath);
+        } catch (GitAPIException e) {
+            throw new IOException("Failed to stage changes.");
+        }
+    }
+
     private void commit(String message) throws GitAPIException {
         git.commit().setMessage(message).call();
     }
@@ -453,18 +732,96 @@ public class GitFileSynchronizer {
 
     private boolean gitRepoIsClean() {
         try {
-            Status status = git.status().call();
-            return !status.hasUncommittedChanges();
+            return getUncommittedChanges().isEmpty();
         } catch (GitAPIException e) {
             return false;
         }
     }
 
+    /**
+     * Uncommitted changes, looking only at files we wrote if the repository is known to
+     * have been clean before that. Full status is only required the first time.
+     */
+    private Set<String> getUncommittedChanges() throws GitAPIException {
+        CleanState state;
+        synchronized (CLEAN_STATES) {
+            state = CLEAN_STATES.get(gitDir());
+        }
+
+        if (state == null) {
+            Set<String> changes = git.status().call().getUncommittedChanges();
+            if (changes.isEmpty()) {
+                synchronized (CLEAN_STATES) {
+                    if (!CLEAN_STATES.containsKey(gitDir())) {
+                        CLEAN_STATES.put(gitDir(), new CleanState());
+                    }
+                }
+            }
+            return changes;
+        }
+
+        synchronized (state) {
+            if (state.touchedPaths.isEmpty()) {
+                return Collections.emptySet();
+            }
+
+            StatusCommand status = git.status();
+            for (String path : state.touchedPaths) {
+                status.addPath(path);
+            }
+            Set<String> changes = status.call().getUncommittedChanges();
+            if (changes.isEmpty()) {
+                state.touchedPaths.clear();
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Remember that the file is about to be modified by us.
+     */
+    private void touch(String repoRelativePath) {
+        CleanState state;
+        synchronized (CLEAN_STATES) {
+            state = CLEAN_STATES.get(gitDir());
+        }
+        if (state != null) {
+            synchronized (state) {
+                state.touchedPaths.add(repoRelativePath);
+            }
+        }
+    }
+
+    private void forgetCleanState() {
+        synchronized (CLEAN_STATES) {
+            CLEAN_STATES.remove(gitDir());
+        }
+    }
+
     private void ensureRepoIsClean() throws IOException {
+        commitStagedChanges();
         if (!gitRepoIsClean())
             throw new IOException("Refusing to update because there are uncommitted changes.");
     }
 
+    /**
+     * Files staged during the current sync round are the only allowed uncommitted changes,
+     * even if this synchronizer is not taking part in it. They are left out of its commits.
+     */
+    private void ensureRepoIsCleanExceptStaged() throws IOException {
+        RoundState round = anySyncRound();
+        if (round == null || round.stagedPaths.isEmpty()) {
+            ensureRepoIsClean();
+            return;
+        }
+        try {
+            if (!round.stagedPaths.containsAll(getUncommittedChanges()))
+                throw new IOException("Refusing to update because there are uncommitted changes.");
+        } catch (GitAPIException e) {
+            throw new IOException("Refusing to update because there are uncommitted changes.");
+        }
+    }
+
     public File workTreeFile(String filePath) {
         return new File(workTreePath(), filePath);
     }
@@ -482,6 +839,7 @@ public class GitFileSynchronizer {
         if (mergeWithRemote()) {
             String repoRelativePath = uri.toString().replaceFirst("^/", "");
             try {
+                touch(repoRelativePath);
                 git.rm().addFilepattern(repoRelativePath).call();
                 if (!gitRepoIsClean())
                     commit(String.format("Orgzly deletion: %s", repoRelativePath));
@@ -505,6 +863,8 @@ public class GitFileSynchronizer {
             }
             ensureDirectoryHierarchy(newPath);
             // Copy the file contents and add it to the index
+            touch(oldPath);
+            touch(newPath);
             MiscUtils.copyFile(oldFile, newFile);
             try {
                 git.add().addFilepattern(newPath).call();
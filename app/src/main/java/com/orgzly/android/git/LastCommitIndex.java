@@ -0,0 +1,172 @@
+package com.orgzly.android.git;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.util.LogUtils;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Last commit which modified each file, as reported by "git log -1 -- path",
+ * found for all requested files with a single walk of the history.
+ *
+ * Results are kept per repository for the current HEAD commit, so listing books
+ * again without any new commits doesn't walk the history at all.
+ */
+public class LastCommitIndex {
+    private final static String TAG = LastCommitIndex.class.getName();
+
+    /** Git directory to index for its HEAD. */
+    private static final Map<File, LastCommitIndex> CACHE = new HashMap<>();
+
+    public static class Commit {
+        public final String name;
+
+        /** Seconds since the epoch. */
+        public final int commitTime;
+
+        Commit(RevCommit commit) {
+            name = commit.name();
+            commitTime = commit.getCommitTime();
+        }
+    }
+
+    private final ObjectId head;
+
+    private final Map<String, Commit> commits = new HashMap<>();
+
+    private LastCommitIndex(ObjectId head) {
+        this.head = head;
+    }
+
+    /**
+     * @return last commits for those of {@code paths} which exist in {@code head}
+     */
+    public static Map<String, Commit> get(
+            Repository repository, RevCommit head, Collection<String> paths) throws IOException {
+
+        LastCommitIndex index;
+
+        synchronized (CACHE) {
+            index = CACHE.get(repository.getDirectory());
+
+            if (index == null || !index.head.equals(head)) {
+                index = new LastCommitIndex(head.copy());
+                CACHE.put(repository.getDirectory(), index);
+            }
+        }
+
+        synchronized (index) {
+            List<String> missing = new ArrayList<>();
+            for (String path : paths) {
+                if (!index.commits.containsKey(path)) {
+                    missing.add(path);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                index.commits.putAll(findLastCommits(repository, head, missing));
+            }
+
+            Map<String, Commit> result = new HashMap<>();
+            for (String path : paths) {
+                Commit commit = index.commits.get(path);
+                if (commit != null) {
+                    result.put(path, commit);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Walks the history from {@code head} newest first, like git log does. A commit is
+     * the last one for a path if it changed the path compared to all of its parents
+     * and its version of the file is the one in {@code head}. The second condition
+     * skips commits from merged branches whose changes to the file were not taken.
+     */
+    private static Map<String, Commit> findLastCommits(
+            Repository repository, RevCommit head, Collection<String> paths) throws IOException {
+
+        long startedAt = System.currentTimeMillis();
+        int commitCount = 0;
+
+        Map<String, Commit> result = new HashMap<>();
+
+        try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            RevCommit start = revWalk.parseCommit(head);
+
+            Map<String, ObjectId> headBlobs = new HashMap<>();
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+            treeWalk.addTree(start.getTree());
+            while (treeWalk.next()) {
+                headBlobs.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+
+            Set<String> pending = new HashSet<>(headBlobs.keySet());
+
+            revWalk.markStart(start);
+
+            RevCommit commit;
+            while (!pending.isEmpty() && (commit = revWalk.next()) != null) {
+                commitCount++;
+
+                treeWalk.reset();
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(AndTreeFilter.create(
+                        PathFilterGroup.createFromStrings(pending), TreeFilter.ANY_DIFF));
+                treeWalk.addTree(commit.getTree());
+                for (RevCommit parent : commit.getParents()) {
+                    revWalk.parseHeaders(parent);
+                    treeWalk.addTree(parent.getTree());
+                }
+
+                while (treeWalk.next()) {
+                    if (isSameAsAnyParent(treeWalk)) {
+                        continue;
+                    }
+
+                    String path = treeWalk.getPathString();
+
+                    if (treeWalk.getObjectId(0).equals(headBlobs.get(path))) {
+                        result.put(path, new Commit(commit));
+                        pending.remove(path);
+                    }
+                }
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, String.format("Found last commits of %d files walking %d commits in %d ms",
+                    result.size(), commitCount, System.currentTimeMillis() - startedAt));
+        }
+
+        return result;
+    }
+
+    private static boolean isSameAsAnyParent(TreeWalk treeWalk) {
+        for (int i = 1; i < treeWalk.getTreeCount(); i++) {
+            if (treeWalk.idEqual(0, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,36 @@
+package com.orgzly.android.query
+
+/**
+ * Changes query's results can depend on, used to skip re-running it after unrelated changes.
+ */
+data class QueryDependencies(
+        /** Names of books results can come from, or null if they can come from any book. */
+        val bookNames: Set<String>?,
+
+        /** Whether folding of notes is part of the results (displayed). */
+        val folding: Boolean) {
+
+    companion object {
+        @JvmStatic
+        fun of(query: Query, folding: Boolean): QueryDependencies {
+            return QueryDependencies(bookNames(query.condition), folding)
+        }
+
+        private fun bookNames(condition: Condition?): Set<String>? {
+            return when (condition) {
+                is Condition.InBook ->
+                    if (condition.not) null else setOf(condition.name)
+
+                // Restricted by any of the restricted operands
+                is Condition.And ->
+                    condition.operands.mapNotNull { bookNames(it) }.reduceOrNull { a, b -> a intersect b }
+
+                // Restricted only if all operands are
+                is Condition.Or ->
+                    condition.operands.map { bookNames(it) ?: return null }.flatten().toSet()
+
+                else -> null
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.orgzly.android.query.sql
+
+import android.content.Context
+import android.util.LruCache
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.Query
+import com.orgzly.android.query.user.InternalQueryParser
+
+/**
+ * Parsed queries and their SQL, shared by searches, agenda, widgets and reminders.
+ *
+ * SQL depends on states and default priority, so they are part of the key and
+ * changing them makes the query compile again. Relative times are not part of
+ * the SQL, they are bound as arguments resolved when the query is run.
+ *
+ * Cached objects are shared between threads and must not be modified.
+ */
+object CompiledQueryCache {
+    private const val MAX_QUERIES = 100
+
+    data class CompiledQuery(val query: Query, val sqlQuery: SqlQuery)
+
+    /* Lists, as order of states matters when sorting by them. */
+    private data class Settings(
+            val todoKeywords: List<String>,
+            val doneKeywords: List<String>,
+            val defaultPriority: String)
+
+    private data class StringKey(val queryString: String, val settings: Settings)
+
+    private data class QueryKey(val query: Query, val settings: Settings)
+
+    private val byString = LruCache<StringKey, CompiledQuery>(MAX_QUERIES)
+
+    private val byQuery = LruCache<QueryKey, SqlQuery>(MAX_QUERIES)
+
+    /**
+     * Parses [queryString] and builds its SQL, unless it's already been done with current settings.
+     */
+    @JvmStatic
+    fun compile(context: Context, queryString: String): CompiledQuery {
+        val key = StringKey(queryString, settings(context))
+
+        byString.get(key)?.let {
+            return it
+        }
+
+        val query = InternalQueryParser().parse(queryString)
+
+        val compiled = CompiledQuery(query, build(context, query, key.settings))
+
+        byString.put(key, compiled)
+
+        return compiled
+    }
+
+    /**
+     * SQL of already parsed [query].
+     */
+    @JvmStatic
+    fun build(context: Context, query: Query): SqlQuery {
+        return build(context, query, settings(context))
+    }
+
+    private fun build(context: Context, query: Query, settings: Settings): SqlQuery {
+        val key = QueryKey(query, settings)
+
+        byQuery.get(key)?.let {
+            return it
+        }
+
+        val sqlQuery = SqliteQueryBuilder(context).build(query)
+
+        byQuery.put(key, sqlQuery)
+
+        return sqlQuery
+    }
+
+    private fun settings(context: Context): Settings {
+        return Settings(
+                AppPreferences.todoKeywordsSet(context).toList(),
+                AppPreferences.doneKeywordsSet(context).toList(),
+                AppPreferences.defaultPriority(context))
+    }
+
+    @JvmStatic
+    fun clear() {
+        byString.evictAll()
+        byQuery.evictAll()
+    }
+}
@@ -1,7 +1,28 @@
 package com.orgzly.android.query.sql
 
+import com.orgzly.android.query.TimeUtils
+
 data class SqlQuery(
         val selection: String,
-        val selectionArgs: List<String>,
+        val selectionArgs: List<Argument>,
         val having: String,
-        val orderBy: String)
\ No newline at end of file
+        val orderBy: String) {
+
+    /**
+     * Argument bound to the selection.
+     *
+     * Relative times are resolved only when the query is run, so the same
+     * SQL can be reused (and its prepared statement cached) as time passes.
+     */
+    sealed class Argument {
+        abstract fun resolve(): Any
+
+        data class Value(val value: String) : Argument() {
+            override fun resolve() = value
+        }
+
+        data class TimeFromNow(val field: Int, val amount: Int, val addOneMore: Boolean) : Argument() {
+            override fun resolve() = TimeUtils.timeFromNow(field, amount, addOneMore)
+        }
+    }
+}
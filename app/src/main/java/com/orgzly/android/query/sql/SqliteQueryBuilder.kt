@@ -9,7 +9,7 @@ import java.util.*
 
 class SqliteQueryBuilder(val context: Context) {
     private var where: String = ""
-    private val arguments: MutableList<String> = ArrayList()
+    private val arguments: MutableList<SqlQuery.Argument> = ArrayList()
 
     private var having: String = ""
 
@@ -20,6 +20,10 @@ class SqliteQueryBuilder(val context: Context) {
     private var hasCreatedCondition = false
 
     fun build(query: Query): SqlQuery {
+        arguments.clear()
+
+        having = ""
+
         hasScheduledCondition = false
         hasDeadlineCondition = false
         hasCreatedCondition = false
@@ -28,7 +32,7 @@ class SqliteQueryBuilder(val context: Context) {
 
         order = buildOrderBy(query.sortOrders)
 
-        return SqlQuery(where, arguments, having, order)
+        return SqlQuery(where, arguments.toList(), having, order)
     }
 
     private fun buildOrderBy(sortOrders: List<SortOrder>): String {
@@ -181,12 +185,12 @@ class SqliteQueryBuilder(val context: Context) {
 
         return when (expr) {
             is Condition.InBook -> {
-                arguments.add(expr.name)
+                arguments.add(SqlQuery.Argument.Value(expr.name))
                 not(expr.not, "book_name = ?")
             }
 
             is Condition.HasState -> {
-                arguments.add(expr.state.uppercase())
+                arguments.add(SqlQuery.Argument.Value(expr.state.uppercase()))
                 not(expr.not, "COALESCE(state, '') = ?")
             }
 
@@ -194,12 +198,12 @@ class SqliteQueryBuilder(val context: Context) {
                 when (expr.type) {
                     StateType.TODO -> {
                         val states = AppPreferences.todoKeywordsSet(context)
-                        arguments.addAll(states)
+                        states.mapTo(arguments) { SqlQuery.Argument.Value(it) }
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
                     }
                     StateType.DONE -> {
                         val states = AppPreferences.doneKeywordsSet(context)
-                        arguments.addAll(states)
+                        states.mapTo(arguments) { SqlQuery.Argument.Value(it) }
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
 
                     }
@@ -208,24 +212,24 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasPriority -> {
-                arguments.add(AppPreferences.defaultPriority(context))
-                arguments.add(expr.priority)
+                arguments.add(SqlQuery.Argument.Value(AppPreferences.defaultPriority(context)))
+                arguments.add(SqlQuery.Argument.Value(expr.priority))
                 not(expr.not, "LOWER(COALESCE(NULLIF(priority, ''), ?)) = ?")
             }
 
             is Condition.HasSetPriority -> {
-                arguments.add(expr.priority)
+                arguments.add(SqlQuery.Argument.Value(expr.priority))
                 not(expr.not, "LOWER(COALESCE(priority, '')) = ?")
             }
 
             is Condition.HasTag -> {
-                repeat(2) { arguments.add("%${expr.tag}%") }
-                not(expr.not, "(COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)")
+                arguments.add(SqlQuery.Argument.Value(expr.tag))
+                not(expr.not, "(id IN (SELECT note_id FROM note_tags WHERE tag = ?))")
             }
 
             is Condition.HasOwnTag -> {
-                arguments.add("%${expr.tag}%")
-                not(expr.not, "(COALESCE(tags, '') LIKE ?)")
+                arguments.add(SqlQuery.Argument.Value(expr.tag))
+                not(expr.not, "(id IN (SELECT note_id FROM note_tags WHERE tag = ? AND is_own = 1))")
             }
 
             is Condition.Event -> {
@@ -259,8 +263,23 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasText -> {
-                repeat(3) { arguments.add("%${expr.text}%") }
-                "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                val like = "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+
+                val match = toFtsMatch(expr.text)
+
+                if (match != null) {
+                    /*
+                     * Use full-text index to find candidates, then keep LIKE
+                     * to match punctuation and the exact sequence of words.
+                     */
+                    arguments.add(SqlQuery.Argument.Value(match))
+                    repeat(3) { arguments.add(SqlQuery.Argument.Value("%${expr.text}%")) }
+                    "(id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND $like)"
+
+                } else {
+                    repeat(3) { arguments.add(SqlQuery.Argument.Value("%${expr.text}%")) }
+                    like
+                }
             }
 
             is Condition.Or -> joinConditions(expr.operands, "OR")
@@ -278,17 +297,17 @@ class SqliteQueryBuilder(val context: Context) {
 
         val (field, value) = getFieldAndValueFromInterval(interval)
 
-        val timeFromNow = TimeUtils.timeFromNow(field, value)
-        val timeFromNowPlusOne = TimeUtils.timeFromNow(field, value, true)
-
+        val timeFromNow = SqlQuery.Argument.TimeFromNow(field, value, false)
+        val timeFromNowPlusOne = SqlQuery.Argument.TimeFromNow(field, value, true)
 
+        // Times are bound in the order of placeholders
         val cond = when (relation) {
-            Relation.EQ -> "$timeFromNow <= $column AND $column < $timeFromNowPlusOne"
-            Relation.NE -> "$column < $timeFromNow AND $timeFromNowPlusOne <= $column"
-            Relation.LT -> "$column < $timeFromNow"
-            Relation.LE -> "$column < $timeFromNowPlusOne"
-            Relation.GT -> "$timeFromNowPlusOne <= $column"
-            Relation.GE -> "$timeFromNow <= $column"
+            Relation.EQ -> bind("? <= $column AND $column < ?", timeFromNow, timeFromNowPlusOne)
+            Relation.NE -> bind("$column < ? AND ? <= $column", timeFromNow, timeFromNowPlusOne)
+            Relation.LT -> bind("$column < ?", timeFromNow)
+            Relation.LE -> bind("$column < ?", timeFromNowPlusOne)
+            Relation.GT -> bind("? <= $column", timeFromNowPlusOne)
+            Relation.GE -> bind("? <= $column", timeFromNow)
         }
 
         val activeOnly = if (isActiveColumn != null) {
@@ -300,6 +319,39 @@ class SqliteQueryBuilder(val context: Context) {
         return "($activeOnly$column != 0 AND $cond)"
     }
 
+    private fun bind(selection: String, vararg args: SqlQuery.Argument): String {
+        arguments.addAll(args)
+        return selection
+    }
+
+    /**
+     * Prefix queries for all words of the text, or null if there are none,
+     * in which case only LIKE can be used.
+     *
+     * Every word of the text has to start a word in the note, so "work/home" finds
+     * "Homework/homemade", but "ork" doesn't find "work". Matching inside words would
+     * require scanning the index's whole vocabulary, which is slower than LIKE alone.
+     *
+     * The tokenizer folds case and diacritics of the query the same way as of notes.
+     * Text is split only where the tokenizer is known to split it too, so a word which
+     * is split further just becomes a phrase. Scripts written without spaces between words
+     * (like Chinese or Japanese) are tokenized as whole runs of text, so they use LIKE alone.
+     */
+    private fun toFtsMatch(text: String): String? {
+        if (SCRIPTS_WITHOUT_SPACES.containsMatchIn(text)) {
+            return null
+        }
+
+        // Words with no letters or digits could be dropped by the tokenizer, matching nothing
+        val words = text.split(SEPARATORS).filter { WORD_CHARACTER.containsMatchIn(it) }.distinct()
+
+        if (words.isEmpty()) {
+            return null
+        }
+
+        return words.joinToString(" ") { "\"$it*\"" }
+    }
+
     private fun getFieldAndValueFromInterval(interval: QueryInterval): Pair<Int, Int> {
         val unit = when (interval.unit) {
             // NONE should have handled early
@@ -314,4 +366,17 @@ class SqliteQueryBuilder(val context: Context) {
 
         return Pair(unit, interval.value)
     }
+
+    companion object {
+        /*
+         * Characters which are always separators for unicode61 tokenizer used by notes_fts:
+         * ASCII characters other than letters and digits, and spaces.
+         */
+        private val SEPARATORS = Regex("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F\\p{Z}]+")
+
+        private val WORD_CHARACTER = Regex("[\\p{L}\\p{N}]")
+
+        private val SCRIPTS_WITHOUT_SPACES = Regex(
+            "[\\p{sc=Han}\\p{sc=Hiragana}\\p{sc=Katakana}\\p{sc=Thai}\\p{sc=Lao}\\p{sc=Khmer}\\p{sc=Myanmar}]")
+    }
 }
@@ -10,7 +10,6 @@ import com.orgzly.org.datetime.OrgDateTimeUtils
 import com.orgzly.org.datetime.OrgInterval
 import org.joda.time.DateTime
 import org.joda.time.ReadableInstant
-import java.util.*
 
 
 object NoteReminders {
@@ -19,6 +18,28 @@ object NoteReminders {
     const val INTERVAL_FROM_LAST_TO_NOW = 1
     const val INTERVAL_FROM_NOW = 2
 
+    /** Number of index rows fetched at a time when looking for the next reminder. */
+    private const val NEXT_PAGE_SIZE = 50
+
+    /**
+     * Preferences affecting reminders, read once per run instead of for every note.
+     */
+    private class Settings(context: Context) {
+        val doneStates: Set<String> = AppPreferences.doneKeywordsSet(context)
+
+        val timeTypes: List<Int> = mutableListOf<Int>().apply {
+            if (AppPreferences.remindersForScheduledEnabled(context)) add(ReminderTimeDao.SCHEDULED_TIME)
+            if (AppPreferences.remindersForDeadlineEnabled(context)) add(ReminderTimeDao.DEADLINE_TIME)
+            if (AppPreferences.remindersForEventsEnabled(context)) add(ReminderTimeDao.EVENT_TIME)
+        }
+
+        val dailyTime: Int = AppPreferences.reminderDailyTime(context)
+    }
+
+    /**
+     * Reminders in the interval, sorted by time, older first.
+     * Only notes whose times could fall into the interval are loaded from the database.
+     */
     @JvmStatic
     fun getNoteReminders(
         context: Context,
@@ -27,75 +48,133 @@ object NoteReminders {
         lastRun: LastRun,
         intervalType: Int): List<NoteReminder> {
 
-        val result: MutableList<NoteReminder> = ArrayList()
+        val settings = Settings(context)
 
-        for (noteTime in dataRepository.times()) {
-            if (isRelevantNoteTime(context, noteTime)) {
-                val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
+        if (settings.timeTypes.isEmpty()) {
+            return emptyList()
+        }
 
-                val interval = intervalToConsider(intervalType, now, lastRun, noteTime.timeType)
+        val intervals = settings.timeTypes.associateWith { timeType ->
+            intervalToConsider(intervalType, now, lastRun, timeType)
+        }
 
-                // Deadline warning period
+        val from = intervals.values.minOf { it.first.millis }
+        val to = intervals.values.maxOf { it.second?.millis ?: Long.MAX_VALUE }
 
-                val warningPeriod = if (isWarningPeriodSupported(noteTime)) {
-                    if (orgDateTime.hasDelay()) {
-                        orgDateTime.delay as OrgInterval
-                    } else {
-                        // TODO: Use default from user preference
-                        // OrgInterval(1, OrgInterval.Unit.DAY)
-                        null
-                    }
-                } else {
-                    null
+        val noteTimes = dataRepository.times(from, to, settings.timeTypes, settings.doneStates)
+
+        val result = noteTimes.mapNotNull { noteTime ->
+            getNoteReminder(noteTime, intervals.getValue(noteTime.timeType), settings)
+        }
+
+        // Sort by time, older first
+        return result.sortedWith { o1, o2 -> o1.runTime.compareTo(o2.runTime) }
+    }
+
+    /**
+     * First reminder after [now].
+     *
+     * Index rows are read ordered by the earliest time they could result in a reminder,
+     * stopping as soon as no remaining row can be earlier than the reminder already found.
+     */
+    @JvmStatic
+    fun getNextNoteReminder(
+        context: Context,
+        dataRepository: DataRepository,
+        now: ReadableInstant): NoteReminder? {
+
+        val settings = Settings(context)
+
+        if (settings.timeTypes.isEmpty()) {
+            return null
+        }
+
+        val interval = Pair<ReadableInstant, ReadableInstant?>(now, null)
+
+        var first: NoteReminder? = null
+        var last: NoteTime? = null
+
+        while (true) {
+            val page = dataRepository.timesAfter(
+                now.millis, last, NEXT_PAGE_SIZE, settings.timeTypes, settings.doneStates)
+
+            for (noteTime in page) {
+                if (first != null && first.runTime.millis < noteTime.earliest) {
+                    return first
                 }
 
-                val time = getFirstTime(
-                    orgDateTime,
-                    interval,
-                    AppPreferences.reminderDailyTime(context),
-                    warningPeriod
-                )
-
-//                    if (BuildConfig.LOG_DEBUG) {
-//                        LogUtils.d(TAG,
-//                                "Note's time", noteTime,
-//                                "Interval", interval,
-//                                "Found first time", time)
-//                    }
-
-                if (time != null) {
-                    val payload = NoteReminderPayload(
-                        noteTime.noteId,
-                        noteTime.bookId,
-                        noteTime.bookName,
-                        noteTime.title,
-                        noteTime.tags,
-                        noteTime.timeType,
-                        orgDateTime)
-
-                    result.add(NoteReminder(time, payload))
+                val reminder = getNoteReminder(noteTime, interval, settings)
+
+                if (reminder != null && (first == null || reminder.runTime < first.runTime)) {
+                    first = reminder
                 }
             }
+
+            if (page.size < NEXT_PAGE_SIZE) {
+                return first
+            }
+
+            last = page.last()
         }
+    }
 
-        // Sort by time, older first
-        result.sortWith { o1, o2 -> o1.runTime.compareTo(o2.runTime) }
+    /**
+     * Reminders for the specific note's time, regardless of the time interval.
+     */
+    @JvmStatic
+    fun getNoteTimes(
+        context: Context,
+        dataRepository: DataRepository,
+        noteId: Long,
+        timeType: Int): List<NoteTime> {
+
+        val settings = Settings(context)
 
-        return result
+        if (timeType !in settings.timeTypes) {
+            return emptyList()
+        }
+
+        return dataRepository.times(noteId, timeType).filter { it.state !in settings.doneStates }
     }
 
-    fun isRelevantNoteTime(context: Context, noteTime: NoteTime): Boolean {
-        val doneStateKeywords = AppPreferences.doneKeywordsSet(context)
-        val isDone = doneStateKeywords.contains(noteTime.state)
+    private fun getNoteReminder(
+        noteTime: NoteTime,
+        interval: Pair<ReadableInstant, ReadableInstant?>,
+        settings: Settings): NoteReminder? {
+
+        val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
 
-        val isEnabled = AppPreferences.remindersForScheduledEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.SCHEDULED_TIME
-                || AppPreferences.remindersForDeadlineEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.DEADLINE_TIME
-                || AppPreferences.remindersForEventsEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.EVENT_TIME
+        // Deadline warning period
 
-        return isEnabled && !isDone
+        val warningPeriod = if (isWarningPeriodSupported(noteTime)) {
+            if (orgDateTime.hasDelay()) {
+                orgDateTime.delay as OrgInterval
+            } else {
+                // TODO: Use default from user preference
+                // OrgInterval(1, OrgInterval.Unit.DAY)
+                null
+            }
+        } else {
+            null
+        }
+
+        val time = getFirstTime(
+            orgDateTime,
+            interval,
+            settings.dailyTime,
+            warningPeriod
+        ) ?: return null
+
+        val payload = NoteReminderPayload(
+            noteTime.noteId,
+            noteTime.bookId,
+            noteTime.bookName,
+            noteTime.title,
+            noteTime.tags,
+            noteTime.timeType,
+            orgDateTime)
+
+        return NoteReminder(time, payload)
     }
 
     private fun isWarningPeriodSupported(noteTime: NoteTime): Boolean {
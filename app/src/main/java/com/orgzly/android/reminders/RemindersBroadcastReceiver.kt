@@ -58,9 +58,12 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
 
                     notifyForRemindersSinceLastRun(context, now, lastRun)
 
-                    scheduleNextReminder(context, now, lastRun)
+                    scheduleNextReminder(context, now)
                     LastRun.toPreferences(context, now)
                 }
+
+                // Process can be killed once the broadcast is handled
+                appLogs.flush()
             }
         }
     }
@@ -141,14 +144,10 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
     /**
      * Schedule the next job for times after now.
      */
-    private fun scheduleNextReminder(context: Context, now: DateTime, lastRun: LastRun) {
-        val notes = NoteReminders.getNoteReminders(
-            context, dataRepository, now, lastRun, NoteReminders.INTERVAL_FROM_NOW)
-
-        if (notes.isNotEmpty()) {
-            // Schedule only the first upcoming time
-            val firstNote = notes.first()
+    private fun scheduleNextReminder(context: Context, now: DateTime) {
+        val firstNote = NoteReminders.getNextNoteReminder(context, dataRepository, now)
 
+        if (firstNote != null) {
             val id = firstNote.payload.noteId
             val title = firstNote.payload.title
             val runAt = firstNote.runTime.millis
@@ -164,7 +163,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
                 val inS = inMs.userFriendlyPeriod()
                 appLogs.log(
                     LogMajorEvents.REMINDERS,
-                    "Next: Found ${notes.size} notes from $now and scheduling first in $inS ($inMs ms): \"$title\" (id:$id)"
+                    "Next: Found note from $now and scheduling it in $inS ($inMs ms): \"$title\" (id:$id)"
                 )
             }
 
@@ -184,26 +183,21 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
 
         val reminders = mutableListOf<NoteReminder>()
 
-        for (noteTime in dataRepository.times()) {
-            if (noteTime.noteId == noteId
-                && noteTime.timeType == noteTimeType
-                && NoteReminders.isRelevantNoteTime(context, noteTime)) {
+        for (noteTime in NoteReminders.getNoteTimes(context, dataRepository, noteId, noteTimeType)) {
+            val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
 
-                val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
+            val timestampDateTime = DateTime(timestamp)
 
-                val timestampDateTime = DateTime(timestamp)
+            val payload = NoteReminderPayload(
+                noteTime.noteId,
+                noteTime.bookId,
+                noteTime.bookName,
+                noteTime.title,
+                noteTime.tags,
+                noteTime.timeType,
+                orgDateTime)
 
-                val payload = NoteReminderPayload(
-                    noteTime.noteId,
-                    noteTime.bookId,
-                    noteTime.bookName,
-                    noteTime.title,
-                    noteTime.tags,
-                    noteTime.timeType,
-                    orgDateTime)
-
-                reminders.add(NoteReminder(timestampDateTime, payload))
-            }
+            reminders.add(NoteReminder(timestampDateTime, payload))
         }
 
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Found ${reminders.size} notes")
@@ -16,6 +16,7 @@ import com.orgzly.android.git.GitFileSynchronizer;
 import com.orgzly.android.git.GitPreferences;
 import com.orgzly.android.git.GitPreferencesFromRepoPrefs;
 import com.orgzly.android.git.GitTransportSetter;
+import com.orgzly.android.git.LastCommitIndex;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.prefs.RepoPreferences;
 import com.orgzly.android.util.LogUtils;
@@ -42,6 +43,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class GitRepo implements SyncRepo, TwoWaySyncRepo {
     private final static String TAG = GitRepo.class.getName();
@@ -197,6 +199,8 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
             synchronizer.addAndCommitNewFile(file, repoRelativePath);
         }
         synchronizer.tryPush();
+        // Files staged during a sync round keep their last commit until the round ends,
+        // new revisions are returned by endSyncRound()
         return currentVersionedRook(Uri.EMPTY.buildUpon().appendPath(repoRelativePath).build());
     }
 
@@ -229,15 +233,23 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
 
     private VersionedRook currentVersionedRook(Uri uri) {
         RevCommit commit = null;
-        uri = Uri.parse(Uri.decode(uri.toString()));
+        uri = decodedUri(uri);
         try {
             commit = synchronizer.getLastCommitOfFile(uri);
         } catch (GitAPIException e) {
             e.printStackTrace();
         }
         assert commit != null;
-        long mtime = (long)commit.getCommitTime()*1000;
-        return new VersionedRook(repoId, RepoType.GIT, getUri(), uri, commit.name(), mtime);
+        return versionedRook(uri, commit.name(), commit.getCommitTime());
+    }
+
+    private static Uri decodedUri(Uri uri) {
+        return Uri.parse(Uri.decode(uri.toString()));
+    }
+
+    private VersionedRook versionedRook(Uri uri, String revision, int commitTime) {
+        long mtime = (long)commitTime*1000;
+        return new VersionedRook(repoId, RepoType.GIT, getUri(), uri, revision, mtime);
     }
 
     public boolean isUnchanged() throws IOException {
@@ -287,8 +299,23 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 return this;
             }
         });
+        List<String> paths = new ArrayList<>();
         while (walk.next()) {
-            result.add(currentVersionedRook(Uri.withAppendedPath(Uri.EMPTY, walk.getPathString())));
+            paths.add(walk.getPathString());
+        }
+
+        // Find last commits of all files at once, instead of walking the history for each one
+        Map<String, LastCommitIndex.Commit> lastCommits =
+                LastCommitIndex.get(git.getRepository(), synchronizer.currentHead(), paths);
+
+        for (String path : paths) {
+            Uri uri = Uri.withAppendedPath(Uri.EMPTY, path);
+            LastCommitIndex.Commit commit = lastCommits.get(path);
+            if (commit != null) {
+                result.add(versionedRook(decodedUri(uri), commit.name, commit.commitTime));
+            } else {
+                result.add(currentVersionedRook(uri));
+            }
         }
         return result;
     }
@@ -347,6 +374,33 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 writeBackFile);
     }
 
+    @Override
+    public void beginSyncRound(SyncRound round) {
+        synchronizer.beginSyncRound(round);
+    }
+
+    @Override
+    public List<VersionedRook> endSyncRound(SyncRound round) throws IOException {
+        List<String> paths = synchronizer.endSyncRound(round);
+
+        List<VersionedRook> result = new ArrayList<>();
+        if (paths.isEmpty() || synchronizer.currentHead() == null) {
+            return result;
+        }
+
+        Map<String, LastCommitIndex.Commit> lastCommits =
+                LastCommitIndex.get(git.getRepository(), synchronizer.currentHead(), paths);
+
+        for (String path : paths) {
+            LastCommitIndex.Commit commit = lastCommits.get(path);
+            if (commit != null) {
+                Uri uri = Uri.EMPTY.buildUpon().appendPath(path).build();
+                result.add(versionedRook(decodedUri(uri), commit.name, commit.commitTime));
+            }
+        }
+        return result;
+    }
+
     public void tryPushIfHeadDiffersFromRemote() {
         synchronizer.tryPushIfHeadDiffersFromRemote();
     }
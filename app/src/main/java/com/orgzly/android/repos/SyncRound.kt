@@ -0,0 +1,10 @@
+package com.orgzly.android.repos
+
+/**
+ * Identifies a single sync.
+ *
+ * Passed to repository instances used by the sync, see [TwoWaySyncRepo.beginSyncRound].
+ * Other instances of the same repository, like those used for saving a book from the UI
+ * while the sync is running, don't take part in it.
+ */
+class SyncRound
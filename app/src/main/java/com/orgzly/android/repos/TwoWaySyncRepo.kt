@@ -8,7 +8,23 @@ interface TwoWaySyncRepo {
     @Throws(IOException::class)
     fun syncBook(uri: Uri, current: VersionedRook?, fromDB: File): TwoWaySyncResult
 
+    /**
+     * Collect changes made through this instance until [endSyncRound] into as few commits
+     * as possible, and don't push them until the end. Instances passed the same [round]
+     * share its changes.
+     */
+    fun beginSyncRound(round: SyncRound)
+
+    /**
+     * Commit changes collected during [round].
+     *
+     * Books stored during the round are reported with their last committed versions,
+     * so their new versions are returned here.
+     */
+    @Throws(IOException::class)
+    fun endSyncRound(round: SyncRound): List<VersionedRook>
+
     fun tryPushIfHeadDiffersFromRemote()
 
     fun getUri(): Uri
-}
\ No newline at end of file
+}
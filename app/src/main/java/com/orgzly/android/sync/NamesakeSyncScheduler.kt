@@ -0,0 +1,73 @@
+package com.orgzly.android.sync
+
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.repos.RepoType
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Syncs independent namesakes concurrently.
+ *
+ * Number of namesakes being synced with the same repository at the same time is limited.
+ * Git repositories share a single working tree, so their namesakes are synced one by one.
+ *
+ * Only network and file I/O ends up running in parallel. Writes of books' sync state
+ * (book_syncs, versioned_rooks) are serialized by [DataRepository], so that sections
+ * loading or saving different books don't interleave.
+ */
+class NamesakeSyncScheduler(
+    /* Repository used for books without a link, if there is only one. */
+    private val defaultRepo: Repo? = null,
+    private val maxPerRepo: Int = MAX_PER_REPO,
+    private val maxTotal: Int = MAX_TOTAL) {
+
+    suspend fun forEach(namesakes: Collection<BookNamesake>, action: suspend (BookNamesake) -> Unit) {
+        val total = Semaphore(maxTotal)
+        val perRepo = HashMap<String, Semaphore>()
+
+        coroutineScope {
+            for (namesake in namesakes) {
+                val repo = perRepo.getOrPut(repoKey(namesake)) {
+                    Semaphore(if (isGit(namesake)) 1 else maxPerRepo)
+                }
+
+                launch {
+                    // Wait for the repository first, so that no global permit is held while waiting
+                    repo.withPermit {
+                        total.withPermit {
+                            action(namesake)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Repository namesake's sync is going to access, or an empty string if unknown.
+     */
+    private fun repoKey(namesake: BookNamesake): String {
+        return namesake.rooks.firstOrNull()?.repoUri?.toString()
+            ?: namesake.book?.linkRepo?.url
+            ?: namesake.book?.syncedTo?.repoUri?.toString()
+            ?: defaultRepo?.url
+            ?: ""
+    }
+
+    private fun isGit(namesake: BookNamesake): Boolean {
+        val type = namesake.rooks.firstOrNull()?.repoType
+            ?: namesake.book?.linkRepo?.type
+            ?: namesake.book?.syncedTo?.repoType
+            ?: defaultRepo?.type
+
+        return type == RepoType.GIT
+    }
+
+    companion object {
+        const val MAX_PER_REPO = 4
+        const val MAX_TOTAL = 8
+    }
+}
@@ -10,9 +10,14 @@ import com.orgzly.android.db.entity.BookAction
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.repos.GitRepo
 import com.orgzly.android.repos.SyncRepo
+import com.orgzly.android.repos.SyncRound
 import com.orgzly.android.repos.TwoWaySyncRepo
 import com.orgzly.android.repos.VersionedRook
 import com.orgzly.android.util.LogUtils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import java.io.IOException
 
 object SyncUtils {
@@ -20,30 +25,34 @@ object SyncUtils {
 
     /**
      * Goes through each repository and collects all books from each one.
+     * Repositories are listed concurrently, results are in the order of repositories.
      */
     @Throws(IOException::class)
-    @JvmStatic
-    fun getBooksFromAllRepos(dataRepository: DataRepository, repos: List<SyncRepo>? = null): List<VersionedRook> {
-        val result = ArrayList<VersionedRook>()
-
+    suspend fun getBooksFromAllRepos(dataRepository: DataRepository, repos: List<SyncRepo>? = null): List<VersionedRook> {
         val repoList = repos ?: dataRepository.getSyncRepos()
 
-        for (repo in repoList) {
-            if (repo is GitRepo && repo.isUnchanged) {
-                for (book in dataRepository.getBooks()) {
-                    if (book.hasLink() && book.linkRepo!!.url == repo.uri.toString() && book.hasSync()) {
-                        result.add(book.syncedTo!!)
-                    }
-                }
-                if (result.isNotEmpty()) {
-                    continue
+        return coroutineScope {
+            repoList.map { repo ->
+                async(Dispatchers.IO) { getBooksFromRepo(dataRepository, repo) }
+            }.awaitAll().flatten()
+        }
+    }
+
+    private fun getBooksFromRepo(dataRepository: DataRepository, repo: SyncRepo): List<VersionedRook> {
+        if (repo is GitRepo && repo.isUnchanged) {
+            val linkedRooks = dataRepository.getBooks()
+                .filter { book ->
+                    book.hasLink() && book.linkRepo!!.url == repo.uri.toString() && book.hasSync()
                 }
+                .map { book -> book.syncedTo!! }
+
+            if (linkedRooks.isNotEmpty()) {
+                return linkedRooks
             }
-            val libBooks = repo.books
-            /* Each book in repository. */
-            result.addAll(libBooks)
         }
-        return result
+
+        /* Each book in repository. */
+        return repo.books
     }
 
     /**
@@ -53,8 +62,7 @@ object SyncUtils {
      * @throws IOException
      */
     @Throws(IOException::class)
-    @JvmStatic
-    fun groupAllNotebooksByName(dataRepository: DataRepository): Map<String, BookNamesake> {
+    suspend fun groupAllNotebooksByName(dataRepository: DataRepository): Map<String, BookNamesake> {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Collecting all local and remote books ...")
 
         val repos = dataRepository.getSyncRepos()
@@ -81,10 +89,13 @@ object SyncUtils {
      * Passed [com.orgzly.android.sync.BookNamesake] is NOT updated after load or save.
      *
      * FIXME: Hardcoded BookName.Format.ORG below
+     *
+     * @param round sync round the book is stored in, if any
      */
     @Throws(Exception::class)
     @JvmStatic
-    fun syncNamesake(dataRepository: DataRepository, namesake: BookNamesake): BookAction {
+    @JvmOverloads
+    fun syncNamesake(dataRepository: DataRepository, namesake: BookNamesake, round: SyncRound? = null): BookAction {
         val repoEntity: Repo?
         val repoUrl: String
         val repositoryPath: String
@@ -95,9 +106,9 @@ object SyncUtils {
             val rook = namesake.rooks[0]
             if (rook != null && namesake.status !== BookSyncStatus.NO_CHANGE) {
                 val repo = dataRepository.getRepoInstance(
-                    rook.repoId, rook.repoType, rook.repoUri.toString())
+                    rook.repoId, rook.repoType, rook.repoUri.toString(), round)
                 if (repo is GitRepo) {
-                    if (!handleTwoWaySync(dataRepository, repo as TwoWaySyncRepo, namesake)) {
+                    if (!handleTwoWaySync(dataRepository, repo as TwoWaySyncRepo, namesake, round)) {
                         throw Exception("Merge conflict; saved to temporary branch.")
                     }
                     return BookAction.forNow(
@@ -137,14 +148,14 @@ object SyncUtils {
             /* Load remote book. */
 
             BookSyncStatus.NO_BOOK_ONE_ROOK, BookSyncStatus.DUMMY_WITHOUT_LINK_AND_ONE_ROOK -> {
-                dataRepository.loadBookFromRepo(namesake.rooks[0])
+                dataRepository.loadBookFromRepo(namesake.rooks[0], round)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.rooks[0].uri))
             }
 
             BookSyncStatus.DUMMY_WITH_LINK, BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED -> {
-                dataRepository.loadBookFromRepo(namesake.latestLinkedRook)
+                dataRepository.loadBookFromRepo(namesake.latestLinkedRook, round)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.latestLinkedRook.uri))
@@ -158,7 +169,7 @@ object SyncUtils {
                 repositoryPath = BookName.repoRelativePath(namesake.book.book.name, BookFormat.ORG)
                 /* Set repo link before saving to ensure repo ignore rules are checked */
                 dataRepository.setLink(namesake.book.book.id, repoEntity)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, round)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
 
@@ -166,7 +177,7 @@ object SyncUtils {
                 repoEntity = namesake.book.linkRepo
                 repoUrl = repoEntity!!.url
                 repositoryPath = BookName.getRepoRelativePath(repoUrl.toUri(), namesake.book.syncedTo!!.uri)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, round)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
 
@@ -174,7 +185,7 @@ object SyncUtils {
                 repoEntity = namesake.book.linkRepo
                 repoUrl = repoEntity!!.url
                 repositoryPath = BookName.repoRelativePath(namesake.book.book.name, BookFormat.ORG)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, round)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
         }
@@ -183,7 +194,7 @@ object SyncUtils {
     }
 
     @Throws(IOException::class)
-    private fun handleTwoWaySync(dataRepository: DataRepository, repo: TwoWaySyncRepo, namesake: BookNamesake): Boolean {
+    private fun handleTwoWaySync(dataRepository: DataRepository, repo: TwoWaySyncRepo, namesake: BookNamesake, round: SyncRound?): Boolean {
         val (book, _, _, currentRook) = namesake.book
         val someRook = currentRook ?: namesake.rooks[0]
         val newRook: VersionedRook?
@@ -191,7 +202,7 @@ object SyncUtils {
         // If there are only local changes, the GitRepo.syncBook method is overly complicated.
         if (namesake.status == BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED) {
             val repoRelativePath = BookName.getRepoRelativePath(repo.getUri(), namesake.book.syncedTo!!.uri)
-            dataRepository.saveBookToRepo(namesake.book.linkRepo!!, repoRelativePath, namesake.book, BookFormat.ORG)
+            dataRepository.saveBookToRepo(namesake.book.linkRepo!!, repoRelativePath, namesake.book, BookFormat.ORG, round)
         } else {
             val dbFile = dataRepository.getTempBookFile()
             try {
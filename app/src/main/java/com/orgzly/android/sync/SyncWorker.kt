@@ -1,6 +1,7 @@
 package com.orgzly.android.sync
 
 import android.content.Context
+import android.util.Log
 import androidx.work.CoroutineWorker
 import androidx.work.ForegroundInfo
 import androidx.work.WorkerParameters
@@ -19,6 +20,7 @@ import com.orgzly.android.repos.DirectoryRepo
 import com.orgzly.android.repos.RepoType
 import com.orgzly.android.repos.RepoUtils
 import com.orgzly.android.repos.SyncRepo
+import com.orgzly.android.repos.SyncRound
 import com.orgzly.android.repos.TwoWaySyncRepo
 import com.orgzly.android.ui.notifications.SyncNotifications
 import com.orgzly.android.ui.util.haveNetworkConnection
@@ -27,6 +29,8 @@ import com.orgzly.android.util.LogMajorEvents
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.widgets.ListWidgetProvider
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import java.util.concurrent.CancellationException
 import com.orgzly.android.calendar.CalendarWorker
@@ -67,6 +71,11 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, "Worker ${javaClass.simpleName} finished: $result")
 
+        // Process can be killed once the work is done
+        withContext(Dispatchers.IO) {
+            appLogs.flush()
+        }
+
         return result
     }
 
@@ -215,57 +224,59 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
          * created as early as possible. Otherwise, we risk committing
          * changes on master which we cannot see on the conflict branch.
          */
-        val orderedNamesakes = LinkedHashMap<String, BookNamesake>()
-        val lowPriorityNamesakes = LinkedHashMap<String, BookNamesake>()
-        for (namesake in namesakes.values) {
-            if (namesake.rooks.isNotEmpty() &&
+        val (highPriorityNamesakes, lowPriorityNamesakes) = namesakes.values.partition { namesake ->
+            namesake.rooks.isNotEmpty() &&
                 namesake.rooks[0].repoType == RepoType.GIT &&
                 namesake.status == BookSyncStatus.CONFLICT_BOTH_BOOK_AND_ROOK_MODIFIED
-            ) {
-                orderedNamesakes[namesake.name] = namesake
-            } else {
-                lowPriorityNamesakes[namesake.name] = namesake
-            }
         }
-        orderedNamesakes.putAll(lowPriorityNamesakes)
 
         /*
          * Update books' statuses, before starting to sync them.
          */
-        for (namesake in orderedNamesakes.values) {
+        for (namesake in highPriorityNamesakes + lowPriorityNamesakes) {
             dataRepository.setBookLastActionAndSyncStatus(namesake.book.book.id, BookAction.forNow(
                 BookAction.Type.PROGRESS, context.getString(R.string.syncing_in_progress)))
         }
 
-        /*
-         * Start syncing name by name.
-         */
-        for ((curr, namesake) in orderedNamesakes.values.withIndex()) {
-            /* If task has been canceled, just mark the remaining books as such. */
-            if (isStopped) {
-                dataRepository.setBookLastActionAndSyncStatus(
-                    namesake.book.book.id,
-                    BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+        val progress = NamesakeProgress(namesakes.size)
 
-            } else {
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_STARTED, namesake.name, curr, namesakes.size))
-
-                try {
-                    val action = SyncUtils.syncNamesake(dataRepository, namesake)
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        action,
-                        namesake.status.toString())
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+        /* Commit books stored during this sync together and push once, at the end. */
+        val twoWaySyncRepos = dataRepository.getSyncRepos().filterIsInstance<TwoWaySyncRepo>()
+
+        val round = SyncRound()
+
+        /* Repos whose changes of the round could not be committed. */
+        val failedRounds = mutableListOf<String>()
+
+        withContext(Dispatchers.IO) {
+            twoWaySyncRepos.forEach { it.beginSyncRound(round) }
+
+            try {
+                /* Conflicts first, one by one. */
+                for (namesake in highPriorityNamesakes) {
+                    syncNamesake(namesake, progress, round)
+                }
+
+                /* Then everything else, independent namesakes in parallel. */
+                val defaultRepo = dataRepository.getRepos().singleOrNull()
+
+                NamesakeSyncScheduler(defaultRepo).forEach(lowPriorityNamesakes) { namesake ->
+                    syncNamesake(namesake, progress, round)
                 }
 
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_ENDED, namesake.name, curr + 1, namesakes.size))
+            } finally {
+                for (repo in twoWaySyncRepos) {
+                    // Books are only marked as synced once their versions are committed
+                    val rooks = try {
+                        repo.endSyncRound(round)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Failed to end sync round for ${repo.getUri()}", e)
+                        failedRounds.add("${repo.getUri()}: ${e.localizedMessage}")
+                        continue
+                    }
+
+                    dataRepository.updateBooksSyncedTo(rooks)
+                }
             }
         }
 
@@ -273,17 +284,59 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
             return SyncState.getInstance(SyncState.Type.CANCELED)
         }
 
-        val repos = dataRepository.getSyncRepos()
-
-        for (repo in repos) {
-            if (repo is TwoWaySyncRepo) {
+        withContext(Dispatchers.IO) {
+            for (repo in twoWaySyncRepos) {
                 repo.tryPushIfHeadDiffersFromRemote()
             }
         }
 
+        if (failedRounds.isNotEmpty()) {
+            return SyncState.getInstance(SyncState.Type.FAILED_EXCEPTION, failedRounds.joinToString("\n"))
+        }
+
         return null
     }
 
+    /** Number of namesakes synced so far, shared by namesakes synced in parallel. */
+    private class NamesakeProgress(val total: Int) {
+        val mutex = Mutex()
+        var ended = 0
+    }
+
+    private suspend fun syncNamesake(namesake: BookNamesake, progress: NamesakeProgress, round: SyncRound) {
+        /* If task has been canceled, just mark the remaining books as such. */
+        if (isStopped) {
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+            return
+        }
+
+        progress.mutex.withLock {
+            sendProgress(SyncState.getInstance(
+                SyncState.Type.BOOK_STARTED, namesake.name, progress.ended, progress.total))
+        }
+
+        try {
+            val action = SyncUtils.syncNamesake(dataRepository, namesake, round)
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                action,
+                namesake.status.toString())
+        } catch (e: Exception) {
+            e.printStackTrace()
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+        }
+
+        progress.mutex.withLock {
+            progress.ended++
+            sendProgress(SyncState.getInstance(
+                SyncState.Type.BOOK_ENDED, namesake.name, progress.ended, progress.total))
+        }
+    }
+
     // TODO: Remove or repo.requiresStoragePermission
     private fun reposRequireStoragePermission(repos: Collection<SyncRepo>): Boolean {
         for (repo in repos) {
@@ -65,34 +65,46 @@ public class BookChooserActivity extends CommonActivity
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, bookId, action);
 
         if (action != null && action.equals(Intent.ACTION_CREATE_SHORTCUT)) {
-            // Get Book by its ID
+            createShortcutForBook(bookId);
+        }
+    }
+
+    /**
+     * Get Book by its ID in the background, then create the shortcut on the main thread.
+     */
+    protected void createShortcutForBook(long bookId) {
+        App.EXECUTORS.diskIO().execute(() -> {
             Book book = dataRepository.getBook(bookId);
 
-            if (book == null) {
-                Toast.makeText(this, R.string.book_does_not_exist_anymore, Toast.LENGTH_SHORT).show();
-                setResult(RESULT_CANCELED);
-                finish();
-                return;
-            }
-
-            String id = "notebook-" + bookId;
-            String name = book.getName();
-            String title = BookUtils.getFragmentTitleForBook(book);
-            Intent launchIntent = createLaunchIntent(book);
-            IconCompat icon = createIcon();
-
-            ShortcutInfoCompat shortcut =
-                    new ShortcutInfoCompat.Builder(this, id)
-                            .setShortLabel(name)
-                            .setLongLabel(title)
-                            .setIcon(icon)
-                            .setIntent(launchIntent)
-                            .build();
-
-            setResult(RESULT_OK, ShortcutManagerCompat.createShortcutResultIntent(this, shortcut));
+            App.EXECUTORS.mainThread().execute(() -> createShortcut(bookId, book));
+        });
+    }
 
+    protected void createShortcut(long bookId, Book book) {
+        if (book == null) {
+            Toast.makeText(this, R.string.book_does_not_exist_anymore, Toast.LENGTH_SHORT).show();
+            setResult(RESULT_CANCELED);
             finish();
+            return;
         }
+
+        String id = "notebook-" + bookId;
+        String name = book.getName();
+        String title = BookUtils.getFragmentTitleForBook(book);
+        Intent launchIntent = createLaunchIntent(book);
+        IconCompat icon = createIcon();
+
+        ShortcutInfoCompat shortcut =
+                new ShortcutInfoCompat.Builder(this, id)
+                        .setShortLabel(name)
+                        .setLongLabel(title)
+                        .setIcon(icon)
+                        .setIntent(launchIntent)
+                        .build();
+
+        setResult(RESULT_OK, ShortcutManagerCompat.createShortcutResultIntent(this, shortcut));
+
+        finish();
     }
 
     /**
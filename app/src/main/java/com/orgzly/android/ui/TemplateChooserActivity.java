@@ -22,8 +22,11 @@ public class TemplateChooserActivity extends BookChooserActivity {
         if (!action.equals(Intent.ACTION_CREATE_SHORTCUT)) {
             return;
         }
-        Book book = dataRepository.getBook(bookId);
+        createShortcutForBook(bookId);
+    }
 
+    @Override
+    protected void createShortcut(long bookId, Book book) {
         if (book == null) {
             Toast.makeText(this, R.string.book_does_not_exist_anymore, Toast.LENGTH_SHORT).show();
             setResult(RESULT_CANCELED);
@@ -2,6 +2,7 @@ package com.orgzly.android.ui.logs
 
 import android.os.Bundle
 import android.os.SystemClock
+import androidx.core.widget.NestedScrollView
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.lifecycleScope
@@ -26,6 +27,8 @@ class AppLogsActivity : CommonActivity() {
 
     private lateinit var viewModel: AppLogsViewModel
 
+    private var hasMoreLogs = false
+
     @Inject
     lateinit var appLogs: AppLogsRepository
 
@@ -48,11 +51,20 @@ class AppLogsActivity : CommonActivity() {
         lifecycleScope.launch {
             repeatOnLifecycle(Lifecycle.State.STARTED) {
                 viewModel.logs.collect {
-                    binding.logs.text = it.joinToString("\n")
+                    binding.logs.text = it.lines.joinToString("\n")
+                    hasMoreLogs = it.hasMore
                 }
             }
         }
 
+        // Older entries are loaded when scrolled to the bottom
+        binding.scrollView.setOnScrollChangeListener(NestedScrollView.OnScrollChangeListener { v, _, scrollY, _, _ ->
+            if (hasMoreLogs && !v.canScrollVertically(1) && scrollY > 0) {
+                hasMoreLogs = false
+                viewModel.loadMore()
+            }
+        })
+
         updateInfoWithFreshData()
 
         binding.topToolbar.run {
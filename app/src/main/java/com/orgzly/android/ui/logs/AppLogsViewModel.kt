@@ -2,18 +2,36 @@ package com.orgzly.android.ui.logs
 
 import com.orgzly.android.data.logs.AppLogsRepository
 import com.orgzly.android.ui.CommonViewModel
-import com.orgzly.android.util.LogMajorEvents
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.flatMapLatest
 import kotlinx.coroutines.flow.map
 import java.util.*
 
 class AppLogsViewModel(appLogsRepository: AppLogsRepository) : CommonViewModel() {
-    val logs = appLogsRepository.getFlow().map {
-        it.map { logEntry ->
-            val date = Date(logEntry.time)
-            val type = logEntry.type
-            val message = logEntry.message
+    private val limit = MutableStateFlow(PAGE_SIZE)
 
-            "$date $type $message"
+    /** Latest entries, newest first. More are loaded with [loadMore]. */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val logs = limit.flatMapLatest { limit ->
+        appLogsRepository.getFlow(limit).map {
+            LogsPage(it.map { logEntry ->
+                val date = Date(logEntry.time)
+                val type = logEntry.type
+                val message = logEntry.message
+
+                "$date $type $message"
+            }, hasMore = it.size == limit)
         }
     }
-}
\ No newline at end of file
+
+    fun loadMore() {
+        limit.value += PAGE_SIZE
+    }
+
+    data class LogsPage(val lines: List<String>, val hasMore: Boolean)
+
+    companion object {
+        const val PAGE_SIZE = 500
+    }
+}
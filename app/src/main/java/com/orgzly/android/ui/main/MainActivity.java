@@ -30,6 +30,7 @@ import com.orgzly.R;
 import com.orgzly.android.App;
 import com.orgzly.android.AppIntent;
 import com.orgzly.android.SharingShortcutsManager;
+import com.orgzly.android.data.DatabaseMaintenanceWorker;
 import com.orgzly.android.db.NotesClipboard;
 import com.orgzly.android.db.entity.Book;
 import com.orgzly.android.db.entity.Note;
@@ -160,6 +161,8 @@ public class MainActivity extends CommonActivity
             Notifications.showOngoingNotification(this);
         }
 
+        DatabaseMaintenanceWorker.schedule(this);
+
         activityForResult = new ActivityForResult(this) {
             @Override
             public void onSearchQueriesImport(@NotNull Uri uri) {
@@ -26,6 +26,7 @@ import androidx.core.net.toUri
 import androidx.fragment.app.DialogFragment
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.orgzly.BuildConfig
 import com.orgzly.R
@@ -69,6 +70,9 @@ import com.orgzly.databinding.FragmentNoteBinding
 import com.orgzly.org.OrgProperties
 import com.orgzly.org.datetime.OrgDateTime
 import com.orgzly.org.datetime.OrgRange
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.util.Collections
 import java.util.TreeSet
 import javax.inject.Inject
@@ -1056,20 +1060,23 @@ class NoteFragment : CommonFragment(), View.OnClickListener, TimestampDialogFrag
 
     private fun shareNote() {
         viewModel.noteId?.let { noteId ->
-            try {
-                val exporter = NotesOrgExporter(dataRepository)
-                val orgContent = exporter.exportNote(noteId)
-
-                val shareIntent = Intent().apply {
-                    action = Intent.ACTION_SEND
-                    type = "text/plain"
-                    putExtra(Intent.EXTRA_TEXT, orgContent)
-                }
+            viewLifecycleOwner.lifecycleScope.launch {
+                try {
+                    val orgContent = withContext(Dispatchers.IO) {
+                        NotesOrgExporter(dataRepository).exportNote(noteId)
+                    }
 
-                startActivity(Intent.createChooser(shareIntent, getString(R.string.share)))
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to share note", e)
-                activity?.showSnackbar(R.string.failed_sharing_note)
+                    val shareIntent = Intent().apply {
+                        action = Intent.ACTION_SEND
+                        type = "text/plain"
+                        putExtra(Intent.EXTRA_TEXT, orgContent)
+                    }
+
+                    startActivity(Intent.createChooser(shareIntent, getString(R.string.share)))
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to share note", e)
+                    activity?.showSnackbar(R.string.failed_sharing_note)
+                }
             }
         }
     }
@@ -7,6 +7,7 @@ import android.view.View
 import android.widget.PopupWindow
 import androidx.activity.OnBackPressedCallback
 import androidx.appcompat.app.AlertDialog
+import androidx.lifecycle.lifecycleScope
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.App
@@ -20,6 +21,7 @@ import com.orgzly.android.ui.dialogs.TimestampDialogFragment
 import com.orgzly.android.ui.util.ActivityUtils
 import com.orgzly.android.util.LogUtils
 import com.orgzly.org.datetime.OrgDateTime
+import kotlinx.coroutines.launch
 import java.util.TreeSet
 import javax.inject.Inject
 
@@ -138,29 +140,31 @@ abstract class NotesFragment : CommonFragment(), TimestampDialogFragment.OnDateT
     protected fun displayTimestampDialog(id: Int, noteIds: Set<Long>) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, id)
 
-        // If there is only one note, use its time as dialog's default
-        val time = if (noteIds.size == 1) {
-            if (id in scheduledTimeButtonIds()) {
-                getScheduledTimeForNote(noteIds.first())
+        viewLifecycleOwner.lifecycleScope.launch {
+            // If there is only one note, use its time as dialog's default
+            val time = if (noteIds.size == 1) {
+                if (id in scheduledTimeButtonIds()) {
+                    getScheduledTimeForNote(noteIds.first())
+                } else {
+                    getDeadlineTimeForNote(noteIds.first())
+                }
             } else {
-                getDeadlineTimeForNote(noteIds.first())
+                null
             }
-        } else {
-            null
-        }
 
-        val timeType = if (id in scheduledTimeButtonIds())
-            TimeType.SCHEDULED
-        else
-            TimeType.DEADLINE
+            val timeType = if (id in scheduledTimeButtonIds())
+                TimeType.SCHEDULED
+            else
+                TimeType.DEADLINE
 
-        val f = TimestampDialogFragment.getInstance(id, timeType, noteIds, time)
+            val f = TimestampDialogFragment.getInstance(id, timeType, noteIds, time)
 
-        f.show(childFragmentManager, TimestampDialogFragment.FRAGMENT_TAG)
+            f.show(childFragmentManager, TimestampDialogFragment.FRAGMENT_TAG)
+        }
     }
 
-    private fun getScheduledTimeForNote(id: Long): OrgDateTime? {
-        val note = dataRepository.getNoteView(id)
+    private suspend fun getScheduledTimeForNote(id: Long): OrgDateTime? {
+        val note = dataRepository.loadNoteView(id)
 
         return if (note?.scheduledRangeString != null) {
             OrgDateTime.parse(note.scheduledTimeString)
@@ -168,8 +172,8 @@ abstract class NotesFragment : CommonFragment(), TimestampDialogFragment.OnDateT
 
     }
 
-    private fun getDeadlineTimeForNote(id: Long): OrgDateTime? {
-        val note = dataRepository.getNoteView(id)
+    private suspend fun getDeadlineTimeForNote(id: Long): OrgDateTime? {
+        val note = dataRepository.loadNoteView(id)
 
         return if (note?.deadlineRangeString != null) {
             OrgDateTime.parse(note.deadlineTimeString)
@@ -37,10 +37,10 @@ class BookAdapter(
 
     private val noteViewHolderListener = object: NoteItemViewHolder.ClickListener {
         override fun onClick(view: View, position: Int) {
-            clickListener.onNoteClick(view, position, getItem(position))
+            peekItem(position)?.let { clickListener.onNoteClick(view, position, it) }
         }
         override fun onLongClick(view: View, position: Int) {
-            clickListener.onNoteLongClick(view, position, getItem(position))
+            peekItem(position)?.let { clickListener.onNoteLongClick(view, position, it) }
         }
     }
 
@@ -57,11 +57,13 @@ class BookAdapter(
     }
 
     override fun getItemViewType(position: Int): Int {
-        return when {
-            position == 0 -> R.layout.item_preface
-            isVisible(getItem(position).note) -> VISIBLE_ITEM_TYPE
-            else -> HIDDEN_ITEM_TYPE
+        if (position == 0) {
+            return R.layout.item_preface
         }
+
+        val noteView = peekItem(position) ?: return PLACEHOLDER_ITEM_TYPE
+
+        return if (isVisible(noteView.note)) VISIBLE_ITEM_TYPE else HIDDEN_ITEM_TYPE
     }
 
     private fun isVisible(note: Note): Boolean {
@@ -81,6 +83,10 @@ class BookAdapter(
                 FoldedViewHolder(View(context))
             }
 
+            PLACEHOLDER_ITEM_TYPE -> {
+                createPlaceholderViewHolder(parent)
+            }
+
             else -> {
                 val binding = ItemHeadBinding.inflate(
                     LayoutInflater.from(context), parent, false)
@@ -106,8 +112,12 @@ class BookAdapter(
             }
 
             else -> {
-                val holder = h as NoteItemViewHolder
-                val noteView = getItem(position)
+                // Also triggers loading of pages around the position
+                val noteView = getItem(position) ?: return
+
+                // Bound as a placeholder, will be rebound once the note is loaded
+                val holder = h as? NoteItemViewHolder ?: return
+
                 val note = noteView.note
 
                 noteItemViewBinder.bind(holder, noteView)
@@ -117,18 +127,15 @@ class BookAdapter(
         }
     }
 
-    fun submitList(list: List<NoteView>?, levelOffset: Int?) {
-        noteItemViewBinder.levelOffset = levelOffset
-        super.submitList(list)
-        notifyDataSetChanged()
+    fun setLevelOffset(levelOffset: Int?) {
+        if (noteItemViewBinder.levelOffset != levelOffset) {
+            noteItemViewBinder.levelOffset = levelOffset
+            notifyDataSetChanged()
+        }
     }
 
-    override fun getItemId(position: Int): Long {
-        return if (position > 0) {
-            getItem(position).note.id
-        } else {
-            -1
-        }
+    override fun getLoadedItemId(item: NoteView): Long {
+        return item.note.id
     }
 
     override fun getSelection(): Selection {
@@ -8,9 +8,11 @@ import android.os.Handler
 import android.util.Log
 import android.view.*
 import androidx.activity.OnBackPressedCallback
+import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import android.widget.ArrayAdapter
@@ -21,6 +23,7 @@ import com.orgzly.R
 import com.orgzly.android.BookUtils
 import com.orgzly.android.NotesOrgExporter
 import com.orgzly.android.db.NotesClipboard
+import com.orgzly.android.db.dao.NoteDao.VisibleNote
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
@@ -50,6 +53,7 @@ import com.orgzly.android.util.SpaceTokenizer
 import com.orgzly.databinding.FragmentBookBinding
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
 import kotlin.math.abs
 
@@ -96,6 +100,9 @@ class BookFragment :
 
     var currentBook: Book? = null
 
+    /* IDs of displayed notes, in order. Notes themselves are only loaded around the displayed position. */
+    private var visibleNoteIds: List<Long> = emptyList()
+
     private var mBookId: Long = 0
 
     private val appBarBackPressHandler = object : OnBackPressedCallback(false) {
@@ -222,11 +229,11 @@ class BookFragment :
             this.currentBook = book
 
             if (notes != null) {
-                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Submitting list")
+                viewAdapter.setLevelOffset(viewModel.levelOffset(notes))
 
-                viewAdapter.submitList(notes, viewModel.levelOffset(notes))
+                visibleNoteIds = notes.map { it.id }
 
-                val ids = notes.mapTo(hashSetOf()) { it.note.id }
+                val ids = notes.mapTo(hashSetOf()) { it.id }
 
                 viewAdapter.getSelection().removeNonExistent(ids)
 
@@ -240,6 +247,21 @@ class BookFragment :
             setFlipperDisplayedChild(notes)
         })
 
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.notes.collectLatest { notes ->
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Submitting paged notes")
+
+                    viewAdapter.submitData(notes)
+                }
+            }
+        }
+
+        // Note to scroll to might not have been loaded when its ID was first observed
+        viewAdapter.addOnPagesUpdatedListener {
+            scrollToNoteIfSet(arguments?.getLong(ARG_NOTE_ID, 0) ?: 0)
+        }
+
         viewModel.refileRequestEvent.observeSingle(viewLifecycleOwner, Observer {
             RefileFragment.getInstance(it.selected, it.count)
                     .show(childFragmentManager, RefileFragment.FRAGMENT_TAG)
@@ -324,7 +346,7 @@ class BookFragment :
         }
     }
 
-    private fun setFlipperDisplayedChild(notes: List<NoteView>?) {
+    private fun setFlipperDisplayedChild(notes: List<VisibleNote>?) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
 
         if (currentBook == null) {
@@ -413,21 +435,20 @@ class BookFragment :
         if (noteId > 0) {
             val startedAt = System.currentTimeMillis()
 
-            for (i in 0 until viewAdapter.itemCount) {
-                val id = viewAdapter.getItemId(i)
+            val index = visibleNoteIds.indexOf(noteId)
 
-                if (id == noteId) {
-                    scrollToPosition(i)
+            // Skip if notes are not loaded yet, retried after pages are updated
+            if (index != -1 && index < viewAdapter.getDataItemCount()) {
+                val i = index + 1 // Preface
 
-                    binding.fragmentBookRecyclerView.post {
-                        spotlightScrolledToView(i)
-                    }
+                scrollToPosition(i)
 
-                    /* Make sure we don't scroll again (for example after configuration change). */
-                    Handler().postDelayed({ arguments?.remove(ARG_NOTE_ID) }, 500)
-
-                    break
+                binding.fragmentBookRecyclerView.post {
+                    spotlightScrolledToView(i)
                 }
+
+                /* Make sure we don't scroll again (for example after configuration change). */
+                Handler().postDelayed({ arguments?.remove(ARG_NOTE_ID) }, 500)
             }
 
             if (BuildConfig.LOG_DEBUG) {
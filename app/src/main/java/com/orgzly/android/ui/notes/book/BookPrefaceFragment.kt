@@ -7,6 +7,7 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.App
@@ -18,6 +19,7 @@ import com.orgzly.android.ui.CommonFragment
 import com.orgzly.android.ui.main.SharedMainActivityViewModel
 import com.orgzly.android.util.LogUtils
 import com.orgzly.databinding.FragmentBookPrefaceBinding
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 /**
@@ -87,9 +89,13 @@ class BookPrefaceFragment : CommonFragment() {
             binding.fragmentBookPrefaceContent.setSourceText(getString(ARG_BOOK_PREFACE))
         }
 
-        book = dataRepository.getBook(bookId)
-
         topToolbarToDefault()
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            book = dataRepository.loadBook(bookId)
+
+            binding.topToolbar.title = BookUtils.getFragmentTitleForBook(book)
+        }
     }
 
     private fun topToolbarToDefault() {
@@ -118,7 +124,6 @@ class BookPrefaceFragment : CommonFragment() {
                 binding.fragmentBookPrefaceContainer.scrollTo(0, 0)
             }
 
-            title = BookUtils.getFragmentTitleForBook(book)
             subtitle = getString(R.string.preface_in_book)
         }
     }
@@ -2,9 +2,16 @@ package com.orgzly.android.ui.notes.book
 
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.asFlow
 import androidx.lifecycle.switchMap
+import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
 import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.dao.NoteDao.VisibleNote
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.NoteView
 import androidx.lifecycle.LiveData
@@ -14,6 +21,9 @@ import com.orgzly.android.ui.SingleLiveEvent
 import com.orgzly.android.usecase.BookCycleVisibility
 import com.orgzly.android.usecase.NoteToggleFoldingSubtree
 import com.orgzly.android.usecase.UseCaseRunner
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flatMapLatest
 
 class BookViewModel(private val dataRepository: DataRepository, val bookId: Long) : CommonViewModel() {
 
@@ -30,7 +40,10 @@ class BookViewModel(private val dataRepository: DataRepository, val bookId: Long
         flipperDisplayedChild.value = child
     }
 
-    data class Data(val book: Book?, val notes: List<NoteView>?)
+    /**
+     * Book and IDs of its displayed notes. Notes themselves are loaded page by page, see [notes].
+     */
+    data class Data(val book: Book?, val notes: List<VisibleNote>?)
 
     // Track narrowed state
     val narrowedNoteId = MutableLiveData<Long?>(null)
@@ -47,6 +60,17 @@ class BookViewModel(private val dataRepository: DataRepository, val bookId: Long
         }
     }
 
+    /**
+     * Displayed notes, loaded around the scrolled-to position only.
+     * Not loaded notes are represented by placeholders.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val notes: Flow<PagingData<NoteView>> = narrowedNoteId.asFlow().flatMapLatest { narrowedId ->
+        Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = true, maxSize = MAX_LOADED)) {
+            dataRepository.getVisibleNotesPagingSource(bookId, narrowedId)
+        }.flow
+    }.cachedIn(viewModelScope)
+
     fun isNarrowed(): Boolean {
         return narrowedNoteId.value != null
     }
@@ -56,9 +80,9 @@ class BookViewModel(private val dataRepository: DataRepository, val bookId: Long
      * Returns null when not narrowed, otherwise returns the narrowed note's level - 1
      * so it displays as root (level 1).
      */
-    fun levelOffset(notes: List<NoteView>?): Int? {
+    fun levelOffset(notes: List<VisibleNote>?): Int? {
         return if (isNarrowed() && notes != null && notes.isNotEmpty()) {
-            notes.first().note.position.level - 1
+            notes.first().level - 1
         } else {
             null
         }
@@ -72,6 +96,11 @@ class BookViewModel(private val dataRepository: DataRepository, val bookId: Long
         const val APP_BAR_DEFAULT_MODE = 0
         const val APP_BAR_SELECTION_MODE = 1
         const val APP_BAR_SELECTION_MOVE_MODE = 2
+
+        private const val PAGE_SIZE = 100
+
+        /* Pages far from the displayed ones are dropped once this many notes are loaded. */
+        private const val MAX_LOADED = 1000
     }
 
     val appBar = AppBar(mapOf(
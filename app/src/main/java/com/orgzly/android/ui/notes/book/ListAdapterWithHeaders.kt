@@ -1,34 +1,106 @@
 package com.orgzly.android.ui.notes.book
 
+import android.view.View
+import android.view.ViewGroup
+import androidx.lifecycle.Lifecycle
+import androidx.paging.AsyncPagingDataDiffer
+import androidx.paging.CombinedLoadStates
+import androidx.paging.PagingData
 import androidx.recyclerview.widget.*
 import com.orgzly.BuildConfig
+import com.orgzly.R
 import com.orgzly.android.util.LogUtils
+import kotlinx.coroutines.flow.Flow
 
-abstract class ListAdapterWithHeaders<T, VH : RecyclerView.ViewHolder>(
+/**
+ * Adapter for paged data, with [headers] items in front of it.
+ *
+ * Items which are not loaded yet are represented by placeholders (null), displayed using
+ * [PlaceholderViewHolder]. Only pages around the positions being bound are kept in memory.
+ */
+abstract class ListAdapterWithHeaders<T : Any, VH : RecyclerView.ViewHolder>(
         private val diffCallback: DiffUtil.ItemCallback<T>,
         private val headers: Int = 1
 ) : RecyclerView.Adapter<VH>() {
 
     private val differ by lazy {
-        AsyncListDiffer<T>(
-                ListUpdateWithHeadersCallback(this),
-                AsyncDifferConfig.Builder<T>(diffCallback).build())
+        AsyncPagingDataDiffer(diffCallback, ListUpdateWithHeadersCallback(this))
     }
 
-    fun submitList(list: List<T>?) {
-        differ.submitList(list)
+    fun submitData(lifecycle: Lifecycle, data: PagingData<T>) {
+        differ.submitData(lifecycle, data)
     }
 
-    fun getItem(position: Int): T {
-        return differ.currentList[position - headers]
+    suspend fun submitData(data: PagingData<T>) {
+        differ.submitData(data)
     }
 
+    fun addOnPagesUpdatedListener(listener: () -> Unit) {
+        differ.addOnPagesUpdatedListener(listener)
+    }
+
+    val loadStateFlow: Flow<CombinedLoadStates>
+        get() = differ.loadStateFlow
+
+    /**
+     * Item at the position, or null if it's not loaded yet.
+     * Triggers loading of pages around the position, so use it for binding only.
+     */
+    fun getItem(position: Int): T? {
+        return differ.getItem(position - headers)
+    }
+
+    /**
+     * Item at the position, or null if it's not loaded yet. Doesn't trigger loading.
+     */
+    fun peekItem(position: Int): T? {
+        return differ.peek(position - headers)
+    }
+
+    /**
+     * Whether the item at the position is not loaded yet. Doesn't trigger loading.
+     */
+    fun isPlaceholder(position: Int): Boolean {
+        return position >= headers && peekItem(position) == null
+    }
+
+    /**
+     * Stable ID of a loaded item.
+     */
+    protected abstract fun getLoadedItemId(item: T): Long
+
+    /**
+     * Headers get negative IDs, starting with -1. Placeholders get IDs which can't clash
+     * with items' or each other's, as the same item can be a placeholder at one position
+     * and loaded at another.
+     */
+    override fun getItemId(position: Int): Long {
+        return if (position < headers) {
+            -1L - position
+        } else {
+            peekItem(position)?.let { getLoadedItemId(it) } ?: (Long.MIN_VALUE + position)
+        }
+    }
+
+    protected fun createPlaceholderViewHolder(parent: ViewGroup): PlaceholderViewHolder {
+        val context = parent.context
+
+        val height = context.resources.getDimensionPixelSize(R.dimen.note_placeholder_height)
+
+        return PlaceholderViewHolder(View(context).apply {
+            layoutParams = RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height)
+        })
+    }
+
+    /** Empty view of the height of an item, bound again once the item is loaded. */
+    class PlaceholderViewHolder(view: View) : RecyclerView.ViewHolder(view)
+
     override fun getItemCount(): Int {
-        return differ.currentList.size + headers
+        return differ.itemCount + headers
     }
 
     fun getDataItemCount(): Int {
-        return differ.currentList.size
+        return differ.itemCount
     }
 
     inner class ListUpdateWithHeadersCallback(
@@ -58,5 +130,8 @@ abstract class ListAdapterWithHeaders<T, VH : RecyclerView.ViewHolder>(
 
     companion object {
         private val TAG = ListAdapterWithHeaders::class.java.name
+
+        /* Negative, so that it can't clash with view types of subclasses. */
+        const val PLACEHOLDER_ITEM_TYPE = -2
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,26 @@
 package com.orgzly.android.ui.notes.query
 
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.asFlow
 import androidx.lifecycle.map
 import androidx.lifecycle.switchMap
+import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
 import com.orgzly.BuildConfig
+import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.ui.AppBar
 import com.orgzly.android.ui.CommonViewModel
+import com.orgzly.android.ui.SingleLiveEvent
 import com.orgzly.android.util.LogUtils
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flowOf
 
 
 class QueryViewModel(private val dataRepository: DataRepository) : CommonViewModel() {
@@ -24,6 +37,7 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
 
     private val notesParams = MutableLiveData<Params>()
 
+    /** All matching notes, as needed by the agenda. */
     val data = notesParams.switchMap { params ->
         if (params.query != null) {
             dataRepository.selectNotesFromQueryLiveData(params.query).map {
@@ -40,6 +54,49 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
         }
     }
 
+    /**
+     * Matching notes, loaded around the displayed position only.
+     * Notes not loaded yet are represented by placeholders.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val pagedData: Flow<PagingData<NoteView>> = notesParams.asFlow().flatMapLatest { params ->
+        if (params.query != null) {
+            Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = true, maxSize = MAX_LOADED)) {
+                dataRepository.selectNotesFromQueryPagingSource(params.query)
+            }.flow
+        } else {
+            flowOf(PagingData.empty())
+        }
+    }.cachedIn(viewModelScope)
+
+    /**
+     * Called once [pagedData] is refreshed, with the number of matching notes,
+     * including those not loaded yet.
+     */
+    fun onPagedDataRefreshed(count: Int) {
+        viewState.value = if (count > 0) {
+            ViewState.LOADED
+        } else {
+            ViewState.EMPTY
+        }
+    }
+
+    /** Selected notes which still match the query. */
+    val selectedExistingIds: SingleLiveEvent<Set<Long>> = SingleLiveEvent()
+
+    /**
+     * Checks which of the selected notes still match, as not all matching notes are loaded.
+     */
+    fun checkSelectedExist(ids: Set<Long>) {
+        val query = notesParams.value?.query ?: return
+
+        App.EXECUTORS.diskIO().execute {
+            catchAndPostError {
+                selectedExistingIds.postValue(dataRepository.selectNoteIdsFromQuery(query, ids))
+            }
+        }
+    }
+
     val appBar: AppBar = AppBar(mapOf(
         APP_BAR_DEFAULT_MODE to null,
         APP_BAR_SELECTION_MODE to APP_BAR_DEFAULT_MODE))
@@ -57,5 +114,10 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
 
         const val APP_BAR_DEFAULT_MODE = 0
         const val APP_BAR_SELECTION_MODE = 1
+
+        private const val PAGE_SIZE = 50
+
+        /* Pages far from the displayed ones are dropped once this many notes are loaded. */
+        private const val MAX_LOADED = 500
     }
 }
\ No newline at end of file
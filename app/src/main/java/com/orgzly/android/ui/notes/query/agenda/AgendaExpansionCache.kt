@@ -0,0 +1,63 @@
+package com.orgzly.android.ui.notes.query.agenda
+
+import android.util.LruCache
+import com.orgzly.android.ui.TimeType
+import com.orgzly.android.ui.notes.query.agenda.AgendaItems.ExpandableOrgRange
+import com.orgzly.android.util.AgendaUtils
+import com.orgzly.android.util.AgendaUtils.ExpandedOrgRange
+import com.orgzly.org.datetime.OrgRange
+import org.joda.time.DateTime
+import java.util.Collections
+import java.util.TreeSet
+
+/**
+ * Agenda expansions of timestamps, shared by the agenda and its widgets.
+ *
+ * Expansions are cached for each first day of the agenda, so agendas starting on different
+ * days (or in different time zones) don't drop each other's. Those of past days are evicted
+ * once there are too many expansions.
+ *
+ * Cached expansions are immutable and can be shared between threads. Parsed ranges are mutable,
+ * so they are never cached.
+ */
+object AgendaExpansionCache {
+    private const val MAX_EXPANSIONS = 10000
+
+    private data class Key(val rangeString: String, val timeType: TimeType, val startDay: Long, val days: Int)
+
+    /** Expansion or null if the range is not shown in the agenda. */
+    private class Expansion(val value: ExpandedOrgRange?)
+
+    private val expansions = LruCache<Key, Expansion>(MAX_EXPANSIONS)
+
+    /**
+     * Times of [rangeString] in the [days] days starting with [today].
+     *
+     * @return null if the range can't be parsed or is not active
+     */
+    @JvmStatic
+    fun expand(rangeString: String, timeType: TimeType, today: DateTime, days: Int): ExpandedOrgRange? {
+        val day = today.withTimeAtStartOfDay()
+
+        val key = Key(rangeString, timeType, day.millis, days)
+
+        expansions.get(key)?.let {
+            return it.value
+        }
+
+        val expanded = OrgRange.parseOrNull(rangeString)?.takeIf { it.startTime.isActive }?.let { range ->
+            AgendaUtils.expandOrgDateTime(ExpandableOrgRange.fromRange(timeType, range), day, days).let {
+                it.copy(expanded = Collections.unmodifiableSortedSet(TreeSet(it.expanded)))
+            }
+        }
+
+        expansions.put(key, Expansion(expanded))
+
+        return expanded
+    }
+
+    @JvmStatic
+    fun clear() {
+        expansions.evictAll()
+    }
+}
@@ -4,7 +4,6 @@ import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.query.Query
 import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.ui.TimeType
-import com.orgzly.android.util.AgendaUtils
 import com.orgzly.org.datetime.OrgInterval
 import com.orgzly.org.datetime.OrgRange
 import org.joda.time.DateTime
@@ -83,15 +82,7 @@ class AgendaItems(
         val addedPlanningTimes = HashSet<Long>()
 
         fun addInstances(note: NoteView, timeType: TimeType, timeString: String) {
-            val range = OrgRange.parseOrNull(timeString) ?: return
-
-            if (!range.startTime.isActive) {
-                return
-            }
-
-            val expandable = ExpandableOrgRange.fromRange(timeType, range)
-
-            val times = AgendaUtils.expandOrgDateTime(expandable, now, agendaDays)
+            val times = AgendaExpansionCache.expand(timeString, timeType, now, agendaDays) ?: return
 
             if (times.isOverdueToday) {
                 if (timeType == TimeType.SCHEDULED && groupScheduledWithToday) {
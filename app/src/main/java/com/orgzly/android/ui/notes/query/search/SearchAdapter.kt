@@ -1,7 +1,6 @@
 package com.orgzly.android.ui.notes.query.search
 
 import android.content.Context
-import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.DiffUtil
 import android.view.LayoutInflater
 import android.view.View
@@ -13,12 +12,13 @@ import com.orgzly.android.ui.SelectableItemAdapter
 import com.orgzly.android.ui.Selection
 import com.orgzly.android.ui.notes.NoteItemViewBinder
 import com.orgzly.android.ui.notes.NoteItemViewHolder
+import com.orgzly.android.ui.notes.book.ListAdapterWithHeaders
 import com.orgzly.databinding.ItemHeadBinding
 
 class SearchAdapter(
         private val context: Context,
         private val clickListener: OnViewHolderClickListener<NoteView>
-) :ListAdapter<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK), SelectableItemAdapter {
+) : ListAdapterWithHeaders<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK, 0), SelectableItemAdapter {
 
     private val adapterSelection: Selection = Selection()
 
@@ -26,14 +26,22 @@ class SearchAdapter(
 
     private val viewHolderListener = object: NoteItemViewHolder.ClickListener {
         override fun onClick(view: View, position: Int) {
-            clickListener.onClick(view, position, getItem(position))
+            peekItem(position)?.let { clickListener.onClick(view, position, it) }
         }
         override fun onLongClick(view: View, position: Int) {
-            clickListener.onLongClick(view, position, getItem(position))
+            peekItem(position)?.let { clickListener.onLongClick(view, position, it) }
         }
     }
 
+    override fun getItemViewType(position: Int): Int {
+        return if (isPlaceholder(position)) PLACEHOLDER_ITEM_TYPE else NOTE_ITEM_TYPE
+    }
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+        if (viewType == PLACEHOLDER_ITEM_TYPE) {
+            return createPlaceholderViewHolder(parent)
+        }
+
         val binding = ItemHeadBinding.inflate(LayoutInflater.from(context), parent, false)
 
         NoteItemViewBinder.setupSpacingForDensitySetting(context, binding)
@@ -42,9 +50,11 @@ class SearchAdapter(
     }
 
     override fun onBindViewHolder(h: RecyclerView.ViewHolder, position: Int) {
-        val holder = h as NoteItemViewHolder
+        // Also triggers loading of pages around the position
+        val noteView = getItem(position) ?: return
 
-        val noteView = getItem(position)
+        // Bound as a placeholder, will be rebound once the note is loaded
+        val holder = h as? NoteItemViewHolder ?: return
 
         val note = noteView.note
 
@@ -53,8 +63,8 @@ class SearchAdapter(
         getSelection().setBackgroundIfSelected(holder.itemView, note.id)
     }
 
-    override fun getItemId(position: Int): Long {
-        return getItem(position).note.id
+    override fun getLoadedItemId(item: NoteView): Long {
+        return item.note.id
     }
 
     override fun getSelection(): Selection {
@@ -71,6 +81,8 @@ class SearchAdapter(
     companion object {
         private val TAG = SearchAdapter::class.java.name
 
+        private const val NOTE_ITEM_TYPE = 0
+
         private val DIFF_CALLBACK: DiffUtil.ItemCallback<NoteView> =
                 object : DiffUtil.ItemCallback<NoteView>() {
                     override fun areItemsTheSame(oldItem: NoteView, newItem: NoteView): Boolean {
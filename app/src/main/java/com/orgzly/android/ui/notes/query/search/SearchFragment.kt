@@ -7,8 +7,12 @@ import android.view.MotionEvent
 import android.view.View
 import android.view.ViewGroup
 import androidx.activity.OnBackPressedCallback
+import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
+import androidx.paging.LoadState
 import androidx.recyclerview.widget.DividerItemDecoration
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.orgzly.BuildConfig
@@ -33,6 +37,11 @@ import com.orgzly.android.ui.util.setDecorFitsSystemWindowsForBottomToolbar
 import com.orgzly.android.ui.util.setup
 import com.orgzly.android.util.LogUtils
 import com.orgzly.databinding.FragmentQuerySearchBinding
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
 
 /**
  * Displays search results.
@@ -223,13 +232,38 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
             }
         })
 
-        viewModel.data.observe(viewLifecycleOwner, Observer { notes ->
-            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: ${notes.size}")
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.pagedData.collectLatest { notes ->
+                    viewAdapter.submitData(notes)
+                }
+            }
+        }
+
+        // Refreshed whenever notes change, counting all matching notes for placeholders
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewAdapter.loadStateFlow
+                    .map { it.refresh }
+                    .distinctUntilChanged()
+                    .filter { it is LoadState.NotLoading }
+                    .collect {
+                        val count = viewAdapter.getDataItemCount()
+
+                        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: $count")
 
-            viewAdapter.submitList(notes)
+                        viewModel.onPagedDataRefreshed(count)
 
-            val ids = notes.mapTo(hashSetOf()) { it.note.id }
+                        val selected = viewAdapter.getSelection().getIds()
+
+                        if (selected.isNotEmpty()) {
+                            viewModel.checkSelectedExist(selected)
+                        }
+                    }
+            }
+        }
 
+        viewModel.selectedExistingIds.observeSingle(viewLifecycleOwner, Observer { ids ->
             viewAdapter.getSelection().removeNonExistent(ids)
 
             viewModel.appBar.toModeFromSelectionCount(viewAdapter.getSelection().count)
@@ -19,8 +19,8 @@ open class RepoViewModel(private val dataRepository: DataRepository, open var re
 
     val alreadyExistsEvent: SingleLiveEvent<Any> = SingleLiveEvent()
 
-    fun loadRepoProperties(): RepoWithProps? {
-        val repo = dataRepository.getRepo(repoId)
+    suspend fun loadRepoProperties(): RepoWithProps? {
+        val repo = dataRepository.loadRepo(repoId)
 
         return if (repo != null) {
             val props = dataRepository.getRepoPropsMap(repoId)
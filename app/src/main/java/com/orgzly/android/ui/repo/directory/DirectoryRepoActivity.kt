@@ -8,6 +8,7 @@ import android.text.TextUtils
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.App
@@ -22,6 +23,7 @@ import com.orgzly.android.util.AppPermissions
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.util.MiscUtils
 import com.orgzly.databinding.ActivityRepoDirectoryBinding
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 class DirectoryRepoActivity : CommonActivity() {
@@ -64,8 +66,10 @@ class DirectoryRepoActivity : CommonActivity() {
         viewModel = ViewModelProvider(this, factory).get(RepoViewModel::class.java)
 
         if (viewModel.repoId != 0L) { // Editing existing
-            viewModel.loadRepoProperties()?.let { repoWithProps ->
-                binding.activityRepoDirectory.setText(repoWithProps.repo.url)
+            lifecycleScope.launch {
+                viewModel.loadRepoProperties()?.let { repoWithProps ->
+                    binding.activityRepoDirectory.setText(repoWithProps.repo.url)
+                }
             }
         }
 
@@ -10,6 +10,7 @@ import androidx.core.content.ContextCompat
 import androidx.core.widget.ImageViewCompat
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.orgzly.BuildConfig
 import com.orgzly.R
@@ -27,6 +28,7 @@ import com.orgzly.android.util.LogUtils
 import com.orgzly.android.util.MiscUtils
 import com.orgzly.android.util.UriUtils
 import com.orgzly.databinding.ActivityRepoDropboxBinding
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 
@@ -78,10 +80,12 @@ class DropboxRepoActivity : CommonActivity() {
         viewModel = ViewModelProvider(this, factory).get(RepoViewModel::class.java)
 
         if (viewModel.repoId != 0L) { // Editing existing
-            viewModel.loadRepoProperties()?.let { repoWithProps ->
-                val path = Uri.parse(repoWithProps.repo.url).path
+            lifecycleScope.launch {
+                viewModel.loadRepoProperties()?.let { repoWithProps ->
+                    val path = Uri.parse(repoWithProps.repo.url).path
 
-                binding.activityRepoDropboxDirectory.setText(path)
+                    binding.activityRepoDropboxDirectory.setText(path)
+                }
             }
         }
 
@@ -22,6 +22,7 @@ import android.view.View
 import android.widget.EditText
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.textfield.TextInputLayout
 import com.orgzly.R
@@ -47,6 +48,7 @@ import com.orgzly.databinding.ActivityRepoGitBinding
 import org.eclipse.jgit.errors.NoRemoteRepositoryException
 import org.eclipse.jgit.errors.NotSupportedException
 import org.eclipse.jgit.lib.ProgressMonitor
+import kotlinx.coroutines.launch
 import java.io.File
 import java.io.IOException
 
@@ -116,9 +118,11 @@ class GitRepoActivity : CommonActivity(), GitPreferences {
 
         if (repoId != 0L) {
             /* Set directory value for existing repository being edited. */
-            dataRepository.getRepo(repoId)?.let { repo ->
-                binding.activityRepoGitUrl.setText(repo.url)
-                setFromPreferences()
+            lifecycleScope.launch {
+                dataRepository.loadRepo(repoId)?.let { repo ->
+                    binding.activityRepoGitUrl.setText(repo.url)
+                    setFromPreferences()
+                }
             }
         } else {
             /* Set default values for new repo being added. */
@@ -7,6 +7,7 @@ import android.text.TextUtils
 import android.view.WindowManager
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.orgzly.R
 import com.orgzly.android.App
@@ -21,6 +22,7 @@ import com.orgzly.android.ui.util.KeyboardUtils
 import com.orgzly.android.util.UriUtils
 import com.orgzly.databinding.ActivityRepoWebdavBinding
 import com.orgzly.databinding.DialogCertificatesBinding
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 class WebdavRepoActivity : CommonActivity() {
@@ -107,12 +109,14 @@ class WebdavRepoActivity : CommonActivity() {
         })
 
         if (viewModel.repoId != 0L) { // Editing existing
-            viewModel.loadRepoProperties()?.let { repoWithProps ->
-                binding.activityRepoWebdavUrl.setText(repoWithProps.repo.url)
+            lifecycleScope.launch {
+                viewModel.loadRepoProperties()?.let { repoWithProps ->
+                    binding.activityRepoWebdavUrl.setText(repoWithProps.repo.url)
 
-                binding.activityRepoWebdavUsername.setText(repoWithProps.props[USERNAME_PREF_KEY])
-                binding.activityRepoWebdavPassword.setText(repoWithProps.props[PASSWORD_PREF_KEY])
-                viewModel.certificates.value = repoWithProps.props[CERTIFICATES_PREF_KEY]
+                    binding.activityRepoWebdavUsername.setText(repoWithProps.props[USERNAME_PREF_KEY])
+                    binding.activityRepoWebdavPassword.setText(repoWithProps.props[PASSWORD_PREF_KEY])
+                    viewModel.certificates.value = repoWithProps.props[CERTIFICATES_PREF_KEY]
+                }
             }
         }
 
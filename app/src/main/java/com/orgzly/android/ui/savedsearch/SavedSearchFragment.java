@@ -88,38 +88,42 @@ public class SavedSearchFragment extends CommonFragment implements DrawerItem {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
-        View viewToFocus = null;
-
         if (isEditingExistingFilter()) { /* Existing filter. */
             long id = getArguments().getLong(ARG_ID);
 
-            savedSearch = dataRepository.getSavedSearch(id);
-
-            if (savedSearch != null) {
-                binding.fragmentSavedSearchName.setText(savedSearch.getName());
-                binding.fragmentSavedSearchQuery.setText(savedSearch.getQuery());
+            App.EXECUTORS.diskIO().execute(() -> {
+                SavedSearch loaded = dataRepository.getSavedSearch(id);
 
-                binding.fragmentSavedSearchFlipper.setDisplayedChild(0);
-
-                viewToFocus = binding.fragmentSavedSearchQuery;
-
-            } else {
-                binding.fragmentSavedSearchFlipper.setDisplayedChild(1);
-            }
+                App.EXECUTORS.mainThread().execute(() -> displaySavedSearch(loaded));
+            });
 
         } else { /* New filter. */
-            viewToFocus = binding.fragmentSavedSearchName;
+            /* Open a soft keyboard, focusing on name. */
+            KeyboardUtils.openSoftKeyboard(binding.fragmentSavedSearchName);
         }
 
-        /*
-         * Open a soft keyboard.
-         * For new filters focus on name, for existing focus on query.
-         */
-        if (viewToFocus != null) {
-            KeyboardUtils.openSoftKeyboard(viewToFocus);
+        topToolbarToDefault();
+    }
+
+    private void displaySavedSearch(SavedSearch loaded) {
+        if (binding == null || getView() == null) {
+            return;
         }
 
-        topToolbarToDefault();
+        savedSearch = loaded;
+
+        if (savedSearch != null) {
+            binding.fragmentSavedSearchName.setText(savedSearch.getName());
+            binding.fragmentSavedSearchQuery.setText(savedSearch.getQuery());
+
+            binding.fragmentSavedSearchFlipper.setDisplayedChild(0);
+
+            /* Open a soft keyboard, focusing on query. */
+            KeyboardUtils.openSoftKeyboard(binding.fragmentSavedSearchQuery);
+
+        } else {
+            binding.fragmentSavedSearchFlipper.setDisplayedChild(1);
+        }
     }
 
     private void topToolbarToDefault() {
@@ -187,7 +191,27 @@ public class SavedSearchFragment extends CommonFragment implements DrawerItem {
      * Sends current values to listener.
      */
     private void save() {
-        SavedSearch savedSearch = validateSavedSearch();
+        String name = binding.fragmentSavedSearchName.getText().toString().trim();
+
+        /* Searches with the same name are loaded in the background, before validating. */
+        App.EXECUTORS.diskIO().execute(() -> {
+            List<SavedSearch> sameNameSearches = dataRepository.getSavedSearchesByNameIgnoreCase(name);
+
+            App.EXECUTORS.mainThread().execute(() -> {
+                if (binding != null && getView() != null) {
+                    save(sameNameSearches);
+                }
+            });
+        });
+    }
+
+    private void save(List<SavedSearch> sameNameSearches) {
+        /* Existing search not loaded (yet). */
+        if (isEditingExistingFilter() && savedSearch == null) {
+            return;
+        }
+
+        SavedSearch savedSearch = validateSavedSearch(sameNameSearches);
         if (savedSearch != null) {
             if (isEditingExistingFilter()) {
                 if (mListener != null) {
@@ -207,7 +231,7 @@ public class SavedSearchFragment extends CommonFragment implements DrawerItem {
         }
     }
 
-    private SavedSearch validateSavedSearch() {
+    private SavedSearch validateSavedSearch(List<SavedSearch> sameNameSearches) {
         String name = binding.fragmentSavedSearchName.getText().toString().trim();
         String query = binding.fragmentSavedSearchQuery.getText().toString().trim();
 
@@ -217,7 +241,7 @@ public class SavedSearchFragment extends CommonFragment implements DrawerItem {
         if (TextUtils.isEmpty(name)) {
             binding.fragmentSavedSearchNameInputLayout.setError(getString(R.string.can_not_be_empty));
             isValid = false;
-        } else if (sameNameFilterExists(name)) {
+        } else if (sameNameFilterExists(name, sameNameSearches)) {
             binding.fragmentSavedSearchNameInputLayout.setError(getString(R.string.filter_name_already_exists));
             isValid = false;
         } else {
@@ -246,9 +270,7 @@ public class SavedSearchFragment extends CommonFragment implements DrawerItem {
     /**
      * Checks if filter with the same name (ignoring case) already exists.
      */
-    private boolean sameNameFilterExists(String name) {
-        List<SavedSearch> savedSearches = dataRepository.getSavedSearchesByNameIgnoreCase(name);
-
+    private boolean sameNameFilterExists(String name, List<SavedSearch> savedSearches) {
         if (isEditingExistingFilter()) {
             long id = getArguments().getLong(ARG_ID);
 
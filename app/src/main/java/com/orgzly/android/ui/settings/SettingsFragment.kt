@@ -7,6 +7,7 @@ import android.os.Build
 import android.os.Bundle
 import android.os.Handler
 import androidx.annotation.StringRes
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.*
 import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.WorkManager
@@ -17,6 +18,7 @@ import com.orgzly.android.AppIntent
 import com.orgzly.android.calendar.CalendarWorker
 import com.orgzly.android.SharingShortcutsManager
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.entity.SavedSearch
 import com.orgzly.android.git.SshKey
 import com.orgzly.android.prefs.*
 import com.orgzly.android.reminders.RemindersScheduler
@@ -35,6 +37,8 @@ import com.orgzly.android.widgets.ListWidgetProvider
 import com.orgzly.android.ui.settings.exporting.SettingsExportFragment
 import com.orgzly.android.ui.settings.importing.SettingsImportFragment
 import androidx.core.graphics.toColorInt
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 /**
@@ -163,26 +167,32 @@ class SettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSharedP
     private fun setupCalendarSyncSearchPreference() {
         val pref = preference(R.string.pref_key_calendar_sync_search) as? ListPreference ?: return
 
-        val entries = ArrayList<CharSequence>()
-        val entryValues = ArrayList<CharSequence>()
+        fun setEntries(searches: List<SavedSearch>) {
+            val entries = ArrayList<CharSequence>()
+            val entryValues = ArrayList<CharSequence>()
 
-        // Default option: all notes with scheduled/deadline
-        entries.add(getString(R.string.calendar_sync_search_all_notes))
-        entryValues.add("-1")
+            // Default option: all notes with scheduled/deadline
+            entries.add(getString(R.string.calendar_sync_search_all_notes))
+            entryValues.add("-1")
 
-        // Add saved searches
-        try {
-            val searches = dataRepository.getSavedSearches()
+            // Add saved searches
             for (search in searches) {
                 entries.add(search.name)
                 entryValues.add(search.id.toString())
             }
-        } catch (e: Exception) {
-            LogUtils.d(TAG, "Failed to load saved searches")
+
+            pref.entries = entries.toTypedArray()
+            pref.entryValues = entryValues.toTypedArray()
         }
 
-        pref.entries = entries.toTypedArray()
-        pref.entryValues = entryValues.toTypedArray()
+        setEntries(emptyList())
+
+        // Saved searches are added once loaded and updated as they change
+        lifecycleScope.launch {
+            dataRepository.getSavedSearchesFlow()
+                .catch { LogUtils.d(TAG, "Failed to load saved searches") }
+                .collect { setEntries(it) }
+        }
     }
 
     private fun setupVersionPreference() {
@@ -31,17 +31,19 @@ class SettingsExportViewModel(
     val exportedEvent: SingleLiveEvent<UseCaseResult> = SingleLiveEvent()
 
     fun openForTheFirstTime() {
-        var item: Item? = null
-        try {
-            val targetNote = dataRepository.findUniqueNoteHavingProperty(
-                "ID", AppPreferences.settingsExportAndImportNoteId(App.getAppContext()))
-            val note = dataRepository.getNote(targetNote!!.noteId)
-            val parentNote = dataRepository.getNoteAncestors(note!!.id).last()
-            item = replayUntilNoteId(parentNote.id)
-        } catch (_: Exception) {}
-        if (item == null)
-            item = HOME
-        open(item)
+        App.EXECUTORS.diskIO().execute {
+            var item: Item? = null
+            try {
+                val targetNote = dataRepository.findUniqueNoteHavingProperty(
+                    "ID", AppPreferences.settingsExportAndImportNoteId(App.getAppContext()))
+                val note = dataRepository.getNote(targetNote!!.noteId)
+                val parentNote = dataRepository.getNoteAncestors(note!!.id).last()
+                item = replayUntilNoteId(parentNote.id)
+            } catch (_: Exception) {}
+            if (item == null)
+                item = HOME
+            open(item)
+        }
     }
 
     fun open(item: Item) {
@@ -100,21 +102,23 @@ class SettingsExportViewModel(
     }
 
     fun export(item: Item) {
-        try {
-            val note = item.payload as Note
-            dataRepository.exportSettingsAndSearchesToNote(note)
-            exportedEvent.postValue(UseCaseResult(
-                modifiesLocalData = true,
-                // Let's not trigger auto-sync, in case of accidental export to the wrong note.
-                triggersSync = SYNC_NOT_REQUIRED,
-                userData = note.title,
-            ))
-        } catch (e: Exception) {
-            exportedEvent.postValue(UseCaseResult(
-                modifiesLocalData = false,
-                triggersSync = SYNC_NOT_REQUIRED,
-                userData = e,
-            ))
+        App.EXECUTORS.diskIO().execute {
+            try {
+                val note = item.payload as Note
+                dataRepository.exportSettingsAndSearchesToNote(note)
+                exportedEvent.postValue(UseCaseResult(
+                    modifiesLocalData = true,
+                    // Let's not trigger auto-sync, in case of accidental export to the wrong note.
+                    triggersSync = SYNC_NOT_REQUIRED,
+                    userData = note.title,
+                ))
+            } catch (e: Exception) {
+                exportedEvent.postValue(UseCaseResult(
+                    modifiesLocalData = false,
+                    triggersSync = SYNC_NOT_REQUIRED,
+                    userData = e,
+                ))
+            }
         }
     }
 
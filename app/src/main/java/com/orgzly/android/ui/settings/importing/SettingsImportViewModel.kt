@@ -32,17 +32,19 @@ class SettingsImportViewModel(
     val importedEvent: SingleLiveEvent<UseCaseResult> = SingleLiveEvent()
 
     fun openForTheFirstTime() {
-        var item: Item? = null
-        try {
-            val targetNote: NoteIdBookId? = dataRepository.findUniqueNoteHavingProperty(
-                "ID", AppPreferences.settingsExportAndImportNoteId(App.getAppContext()))
-            val note = dataRepository.getNote(targetNote!!.noteId)
-            val parentNote = dataRepository.getNoteAncestors(note!!.id).last()
-            item = replayUntilNoteId(parentNote.id)
-        } catch (_: Exception) {}
-        if (item == null)
-            item = HOME
-        open(item)
+        App.EXECUTORS.diskIO().execute {
+            var item: Item? = null
+            try {
+                val targetNote: NoteIdBookId? = dataRepository.findUniqueNoteHavingProperty(
+                    "ID", AppPreferences.settingsExportAndImportNoteId(App.getAppContext()))
+                val note = dataRepository.getNote(targetNote!!.noteId)
+                val parentNote = dataRepository.getNoteAncestors(note!!.id).last()
+                item = replayUntilNoteId(parentNote.id)
+            } catch (_: Exception) {}
+            if (item == null)
+                item = HOME
+            open(item)
+        }
     }
 
     fun open(item: Item) {
@@ -101,20 +103,22 @@ class SettingsImportViewModel(
     }
 
     fun import(item: Item) {
-        try {
-            val note = item.payload as Note
-            dataRepository.importSettingsAndSearchesFromNote(note)
-            importedEvent.postValue(UseCaseResult(
-                modifiesLocalData = true,
-                triggersSync = SYNC_NOT_REQUIRED,
-                userData = note.title,
-            ))
-        } catch (e: Exception) {
-            importedEvent.postValue(UseCaseResult(
-                modifiesLocalData = false,
-                triggersSync = SYNC_NOT_REQUIRED,
-                userData = e,
-            ))
+        App.EXECUTORS.diskIO().execute {
+            try {
+                val note = item.payload as Note
+                dataRepository.importSettingsAndSearchesFromNote(note)
+                importedEvent.postValue(UseCaseResult(
+                    modifiesLocalData = true,
+                    triggersSync = SYNC_NOT_REQUIRED,
+                    userData = note.title,
+                ))
+            } catch (e: Exception) {
+                importedEvent.postValue(UseCaseResult(
+                    modifiesLocalData = false,
+                    triggersSync = SYNC_NOT_REQUIRED,
+                    userData = e,
+                ))
+            }
         }
     }
     
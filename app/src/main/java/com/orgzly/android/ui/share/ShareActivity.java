@@ -158,15 +158,8 @@ public class ShareActivity extends CommonActivity
             Query query = new DottedQueryParser().parse(intent.getStringExtra(AppIntent.EXTRA_QUERY_STRING));
             String bookName = QueryUtils.extractFirstBookNameFromQuery(query.getCondition());
 
-            if (bookName != null) {
-                Book book = dataRepository.getBook(bookName);
-                if (book != null) {
-                    data.bookId = book.getId();
-                    if (BuildConfig.LOG_DEBUG)
-                        LogUtils.d(TAG, "Using book " + data.bookId
-                                + " from passed query " + query + " (" + bookName + ")");
-                }
-            }
+            // Book is looked up in the background, see setupFragments
+            data.bookName = bookName;
         }
         if (intent.hasExtra(AppIntent.EXTRA_BOOK_ID)) {
             data.bookId = intent.getLongExtra(AppIntent.EXTRA_BOOK_ID, 0L);
@@ -222,8 +215,6 @@ public class ShareActivity extends CommonActivity
     }
 
     private void setupFragments(Bundle savedInstanceState, Data data) {
-        NoteFragment noteFragment;
-
         if (savedInstanceState == null) { /* Create and add fragments. */
 
             mSyncFragment = SyncFragment.getInstance();
@@ -233,31 +224,58 @@ public class ShareActivity extends CommonActivity
                     .add(mSyncFragment, SyncFragment.FRAGMENT_TAG)
                     .commit();
 
-            try {
-                long bookId;
-                if (data.bookId == null) {
-                    bookId = dataRepository.getTargetBook(this).getBook().getId();
-                } else {
-                    bookId = data.bookId;
-                }
+            App.EXECUTORS.diskIO().execute(() -> {
+                try {
+                    long bookId = getBookId(data);
 
-                noteFragment = NoteFragment.forNewNote(
-                        new NotePlace(bookId), data.title, data.content);
-
-                getSupportFragmentManager()
-                        .beginTransaction()
-                        .replace(R.id.activity_share_main, noteFragment, NoteFragment.FRAGMENT_TAG)
-                        .commit();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                // bail out here
-                finish();
-            }
+                    App.EXECUTORS.mainThread().execute(() -> addNoteFragment(bookId, data));
+
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    // bail out here
+                    App.EXECUTORS.mainThread().execute(this::finish);
+                }
+            });
         } else { /* Get existing fragments. */
             mSyncFragment = (SyncFragment) getSupportFragmentManager().findFragmentByTag(SyncFragment.FRAGMENT_TAG);
         }
     }
 
+    /**
+     * Book to create the note in. Runs in the background, as it might need to create the book.
+     */
+    private long getBookId(Data data) throws IOException {
+        if (data.bookId != null) {
+            return data.bookId;
+        }
+
+        if (data.bookName != null) {
+            Book book = dataRepository.getBook(data.bookName);
+            if (book != null) {
+                if (BuildConfig.LOG_DEBUG)
+                    LogUtils.d(TAG, "Using book " + book.getId()
+                            + " from passed query (" + data.bookName + ")");
+                return book.getId();
+            }
+        }
+
+        return dataRepository.getTargetBook(this).getBook().getId();
+    }
+
+    private void addNoteFragment(long bookId, Data data) {
+        if (isFinishing() || getSupportFragmentManager().isStateSaved()) {
+            return;
+        }
+
+        NoteFragment noteFragment = NoteFragment.forNewNote(
+                new NotePlace(bookId), data.title, data.content);
+
+        getSupportFragmentManager()
+                .beginTransaction()
+                .replace(R.id.activity_share_main, noteFragment, NoteFragment.FRAGMENT_TAG)
+                .commit();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -344,6 +362,7 @@ public class ShareActivity extends CommonActivity
         String title;
         String content;
         Long bookId = null;
+        String bookName = null;
     }
 
     /**
@@ -14,7 +14,7 @@ import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.sql.CompiledQueryCache
 import com.orgzly.android.ui.TimeType
 import com.orgzly.android.ui.notes.query.agenda.AgendaItem
 import com.orgzly.android.ui.notes.query.agenda.AgendaItems
@@ -64,8 +64,7 @@ class ListWidgetService : RemoteViewsService() {
         val context: Context, private val queryString: String, private val searchId: Long
     ) : RemoteViewsFactory {
         private val query: Query by lazy {
-            val parser = InternalQueryParser()
-            parser.parse(queryString)
+            CompiledQueryCache.compile(context, queryString).query
         }
 
         private val userTimeFormatter by lazy {
@@ -11,6 +11,7 @@ import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.repos.RepoFactory
 import org.junit.After
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNotNull
 import org.junit.Assert.assertThrows
 import org.junit.Assert.assertTrue
@@ -19,6 +20,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
+import java.io.StringWriter
 
 @RunWith(RobolectricTestRunner::class)
 @Config(sdk = [36])
@@ -208,4 +210,25 @@ class NotesOrgExporterTest {
         assertTrue("Exported note should end with newline", exported.endsWith("\n"))
     }
 
+    @Test
+    fun testExportBookLargerThanOneChunk() {
+        val count = DataRepository.NOTES_CHUNK_SIZE * 2 + 1
+
+        val content = (1..count).joinToString("") { i ->
+            "* Note $i\n:PROPERTIES:\n:N: $i\n:END:\n"
+        }
+
+        val bookView = testUtils.setupBook("test-book", content)
+
+        val writer = StringWriter()
+        NotesOrgExporter(dataRepository).exportBook(bookView.book, writer)
+
+        val lines = writer.toString().lines()
+
+        val titles = lines.filter { it.startsWith("* ") }.map { it.removePrefix("* ") }
+        val values = lines.filter { it.startsWith(":N:") }.map { it.removePrefix(":N:").trim() }
+
+        assertEquals((1..count).map { "Note $it" }, titles)
+        assertEquals((1..count).map { "$it" }, values)
+    }
 }
@@ -15,6 +15,7 @@ import com.orgzly.android.repos.VersionedRook
 import com.orgzly.android.sync.BookNamesake
 import com.orgzly.android.sync.SyncUtils
 import com.orgzly.android.util.MiscUtils
+import kotlinx.coroutines.runBlocking
 import org.json.JSONObject
 import org.junit.Assert.assertEquals
 import org.junit.Assert.fail
@@ -135,7 +136,7 @@ class TestUtils(
 
     fun sync(): Map<String, BookNamesake> {
         return try {
-            val nameGroups = SyncUtils.groupAllNotebooksByName(dataRepository)
+            val nameGroups = runBlocking { SyncUtils.groupAllNotebooksByName(dataRepository) }
 
             for (group in nameGroups.values) {
                 val action = SyncUtils.syncNamesake(dataRepository, group)
@@ -153,7 +154,7 @@ class TestUtils(
 
     @Throws(Exception::class)
     fun syncOrThrow(): Map<String, BookNamesake> {
-        val nameGroups = SyncUtils.groupAllNotebooksByName(dataRepository)
+        val nameGroups = runBlocking { SyncUtils.groupAllNotebooksByName(dataRepository) }
 
         for (group in nameGroups.values) {
             val action = SyncUtils.syncNamesake(dataRepository, group)
@@ -2,9 +2,16 @@ package com.orgzly.android.data
 
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.BookFormat
 import com.orgzly.android.LocalStorage
+import com.orgzly.android.db.NotesClipboard
 import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.repos.RepoFactory
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.ui.note.NotePayload
+import com.orgzly.org.datetime.OrgDateTime
 import org.hamcrest.CoreMatchers.containsString
 import org.hamcrest.CoreMatchers.`is`
 import org.hamcrest.MatcherAssert.assertThat
@@ -171,4 +178,501 @@ class DataRepositoryTest {
         dataRepository.renameBook(book, "renamed..name")
         assertEquals("renamed..name", dataRepository.getBook(book.book.id)!!.name)
     }
-}
\ No newline at end of file
+
+    // ===== Tests for loading books =====
+
+    @Test
+    fun testLoadBookSetsParentsAndAncestors() {
+        val content = """
+            * A :a:
+            ** B :b:
+            *** C
+            ** D
+            * E
+        """.trimIndent()
+
+        val bookView = dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, content.byteInputStream())!!
+
+        val root = dataRepository.getRootNode(bookView.book.id)!!
+        val a = dataRepository.getNotesByTitle("A").single()
+        val b = dataRepository.getNotesByTitle("B").single()
+        val c = dataRepository.getNotesByTitle("C").single()
+        val d = dataRepository.getNotesByTitle("D").single()
+        val e = dataRepository.getNotesByTitle("E").single()
+
+        assertEquals(root.id, a.position.parentId)
+        assertEquals(a.id, b.position.parentId)
+        assertEquals(b.id, c.position.parentId)
+        assertEquals(a.id, d.position.parentId)
+        assertEquals(root.id, e.position.parentId)
+
+        assertEquals(listOf("B", "D"), dataRepository.getNoteChildren(a.id).map { it.title })
+
+        // Inherited tags come from note_ancestors
+        assertEquals(
+            setOf("a", "b"),
+            dataRepository.getNoteView(c.id)!!.inheritedTags!!.split(" ").toSet())
+    }
+
+    @Test
+    fun testNoteViewFollowsNoteAndBookChanges() {
+        val content = """
+            * A :a:
+            SCHEDULED: <2024-01-01 Mon>
+            ** B
+        """.trimIndent()
+
+        val bookView = dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, content.byteInputStream())!!
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val b = dataRepository.getNotesByTitle("B").single()
+
+        dataRepository.getNoteView(a.id)!!.let {
+            assertEquals("<2024-01-01 Mon>", it.scheduledRangeString)
+            assertEquals("book-a", it.bookName)
+        }
+        assertEquals("a", dataRepository.getNoteView(b.id)!!.inheritedTags)
+
+        dataRepository.updateNote(a.id, dataRepository.getNotePayload(a.id)!!.copy(
+            scheduled = null, deadline = "<2024-02-01 Thu>", tags = listOf("x")))
+
+        dataRepository.getNoteView(a.id)!!.let {
+            assertEquals(null, it.scheduledRangeString)
+            assertEquals("<2024-02-01 Thu>", it.deadlineRangeString)
+        }
+        assertEquals("x", dataRepository.getNoteView(b.id)!!.inheritedTags)
+
+        database.book().updateName(bookView.book.id, "book-b")
+
+        assertEquals("book-b", dataRepository.getNoteView(b.id)!!.bookName)
+    }
+
+    @Test
+    fun testReminderTimesFollowNoteChanges() {
+        val content = """
+            * A
+            SCHEDULED: <2024-01-01 Mon>
+            Meeting <2024-03-01 Fri 10:00>
+            * DONE B
+            SCHEDULED: <2024-01-01 Mon>
+        """.trimIndent()
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content.byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+
+        val allTypes = listOf(ReminderTimeDao.SCHEDULED_TIME, ReminderTimeDao.DEADLINE_TIME, ReminderTimeDao.EVENT_TIME)
+
+        fun times() = dataRepository.times(Long.MIN_VALUE, Long.MAX_VALUE, allTypes, listOf("DONE"))
+            .map { it.timeType to it.orgTimestampString }
+
+        assertEquals(
+            listOf(
+                ReminderTimeDao.SCHEDULED_TIME to "<2024-01-01 Mon>",
+                ReminderTimeDao.EVENT_TIME to "<2024-03-01 Fri 10:00>"),
+            times())
+
+        dataRepository.updateNote(a.id, dataRepository.getNotePayload(a.id)!!.copy(
+            scheduled = null, deadline = "<2024-02-01 Thu>"))
+
+        assertEquals(
+            listOf(
+                ReminderTimeDao.DEADLINE_TIME to "<2024-02-01 Thu>",
+                ReminderTimeDao.EVENT_TIME to "<2024-03-01 Fri 10:00>"),
+            times())
+
+        val deadline = dataRepository.times(a.id, ReminderTimeDao.DEADLINE_TIME).single()
+        assertEquals(
+            listOf(deadline.orgTimestampString),
+            dataRepository.times(deadline.earliest, deadline.earliest, allTypes, emptyList()).map { it.orgTimestampString })
+
+        dataRepository.deleteNotes(a.bookId, setOf(a.id))
+
+        assertEquals(emptyList<Pair<Int, String>>(), times())
+    }
+
+    @Test
+    fun testReminderTimesUpToTwoDaysAfterTimestamp() {
+        val content = """
+            * A
+            Meeting <2024-03-01 Fri 10:00>
+            * B
+            Meeting <2024-03-01 Fri 09:59>
+        """.trimIndent()
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content.byteInputStream())
+
+        val types = listOf(ReminderTimeDao.EVENT_TIME)
+
+        fun titlesFrom(from: Long) = dataRepository.times(from, Long.MAX_VALUE, types, emptyList()).map { it.title }
+
+        val cutOff = OrgDateTime.parse("<2024-03-01 Fri 10:00>").calendar.timeInMillis + 2 * 24 * 60 * 60 * 1000L
+
+        // A's time is exactly at the cut-off, B's a minute past it
+        assertEquals(listOf("A"), titlesFrom(cutOff))
+
+        assertEquals(emptyList<String>(), titlesFrom(cutOff + 1))
+    }
+
+    @Test
+    fun testSelectNoteIdsFromQuery() {
+        val content = """
+            * TODO A
+            * B
+            * TODO C
+        """.trimIndent()
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content.byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val b = dataRepository.getNotesByTitle("B").single()
+        val c = dataRepository.getNotesByTitle("C").single()
+
+        assertEquals(
+            setOf(a.id, c.id),
+            dataRepository.selectNoteIdsFromQuery("it.todo", setOf(a.id, b.id, c.id)))
+
+        assertEquals(
+            setOf(c.id),
+            dataRepository.selectNoteIdsFromQuery("it.todo", setOf(b.id, c.id)))
+    }
+
+    @Test
+    fun testBookVersionsCountChangesPerBook() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n** B".byteInputStream())
+        dataRepository.loadBookFromStream("book-b", BookFormat.ORG, "* C".byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val c = dataRepository.getNotesByTitle("C").single()
+
+        val bookA = database.bookVersion().get(a.position.bookId)!!
+        val bookB = database.bookVersion().get(c.position.bookId)!!
+
+        // Folding is counted separately
+        dataRepository.toggleNoteFoldedState(a.id)
+
+        database.bookVersion().get(a.position.bookId)!!.let {
+            assertEquals(bookA.notesVersion, it.notesVersion)
+            assertThat(it.foldingVersion > bookA.foldingVersion, `is`(true))
+        }
+
+        // Other books are not affected
+        dataRepository.updateNote(a.id, dataRepository.getNotePayload(a.id)!!.copy(title = "A2"))
+
+        assertThat(database.bookVersion().get(a.position.bookId)!!.notesVersion > bookA.notesVersion, `is`(true))
+        assertEquals(bookB, database.bookVersion().get(c.position.bookId))
+    }
+
+    @Test
+    fun testBookVersionsCountPropertyChanges() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n:PROPERTIES:\n:key: value\n:END:".byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val bookId = a.position.bookId
+
+        val properties = database.noteProperty()
+
+        fun notesVersion() = database.bookVersion().get(bookId)!!.notesVersion
+
+        var version = notesVersion()
+
+        properties.upsert(a.id, "key", "changed")
+        assertThat(notesVersion() > version, `is`(true))
+        version = notesVersion()
+
+        properties.upsert(a.id, "other", "value")
+        assertThat(notesVersion() > version, `is`(true))
+        version = notesVersion()
+
+        properties.delete(properties.get(a.id, "other").single())
+        assertThat(notesVersion() > version, `is`(true))
+    }
+
+    @Test
+    fun testNewNotesDoNotShiftFollowingNotes() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n** B\n* C".byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val c = dataRepository.getNotesByTitle("C").single()
+        val bookId = a.position.bookId
+
+        val positions = dataRepository.getNotes("book-a").associate { it.note.id to it.note.position }
+
+        var first = dataRepository.createNote(NotePayload("D"), NotePlace(bookId, a.id, Place.ABOVE))
+        dataRepository.createNote(NotePayload("E"), NotePlace(bookId, a.id, Place.UNDER))
+
+        // Loaded notes are left where they were
+        positions.forEach { (id, position) ->
+            assertEquals(position, dataRepository.getNote(id)!!.position.copy(descendantsCount = position.descendantsCount))
+        }
+
+        // Gaps eventually run out, which must not break the structure
+        repeat(30) { i ->
+            first = dataRepository.createNote(NotePayload("P$i"), NotePlace(bookId, first.id, Place.ABOVE))
+        }
+        dataRepository.moveNote(bookId, setOf(c.id), -1)
+
+        assertEquals(
+            (29 downTo 0).map { "P$it" } + listOf("D", "C", "A", "B", "E"),
+            dataRepository.getNotes("book-a").map { it.note.title })
+
+        assertEquals(listOf("B", "E"), dataRepository.getNoteChildren(a.id).map { it.title })
+        assertEquals(2, dataRepository.getNote(a.id)!!.position.descendantsCount)
+    }
+
+    @Test
+    fun testRenumberingCrowdedBook() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n** B\n* C".byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        val bookId = a.position.bookId
+
+        var first = a
+        repeat(30) { i ->
+            first = dataRepository.createNote(NotePayload("P$i"), NotePlace(bookId, first.id, Place.UNDER))
+        }
+
+        val titles = dataRepository.getNotes("book-a").map { it.note.title }
+        val parents = dataRepository.getNotes("book-a").associate { it.note.title to it.note.position.parentId }
+
+        assertEquals(1, dataRepository.renumberCrowdedBooks())
+
+        val notes = dataRepository.getNotes("book-a").map { it.note }
+
+        assertEquals(titles, notes.map { it.title })
+        assertEquals(parents, notes.associate { it.title to it.position.parentId })
+
+        // Positions are spaced out as if the book was just loaded
+        val values = notes.flatMap { listOf(it.position.lft, it.position.rgt) }.sorted()
+        values.zipWithNext().forEach { (previous, next) ->
+            assertEquals(NotesSpace.SPACING, next - previous)
+        }
+        assertEquals(31, dataRepository.getNote(a.id)!!.position.descendantsCount)
+
+        assertEquals(0, dataRepository.renumberCrowdedBooks())
+    }
+
+    @Test
+    fun testReloadingBookKeepsUnchangedNotes() {
+        val content = """
+            * A :a:
+            ** B
+            ** C
+            * D
+            ** E
+            * F
+        """.trimIndent()
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content.byteInputStream())
+
+        val before = dataRepository.getNotes("book-a").associate { it.note.title to it.note }
+
+        // B modified, C deleted, E moved, G added
+        val modified = """
+            * A :a:
+            ** B
+            Edited
+            ** E
+            * D
+            * F
+            * G
+        """.trimIndent()
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, modified.byteInputStream())
+
+        val after = dataRepository.getNotes("book-a").associate { it.note.title to it.note }
+
+        assertEquals(listOf("A", "B", "E", "D", "F", "G"), dataRepository.getNotes("book-a").map { it.note.title })
+
+        listOf("A", "B", "D", "E", "F").forEach {
+            assertEquals(before.getValue(it).id, after.getValue(it).id)
+        }
+
+        // Not written at all
+        assertEquals(before.getValue("F"), after.getValue("F"))
+
+        assertEquals("Edited", after.getValue("B").content)
+
+        val a = after.getValue("A")
+        val e = after.getValue("E")
+        assertEquals(a.id, e.position.parentId)
+        assertEquals("a", dataRepository.getNoteView(e.id)!!.inheritedTags)
+        assertEquals(2, a.position.descendantsCount)
+        assertEquals(0, after.getValue("D").position.descendantsCount)
+        assertEquals(listOf("B", "E"), dataRepository.getNoteChildren(a.id).map { it.title })
+
+        val root = dataRepository.getRootNode(a.position.bookId)!!
+        assertEquals(root.id, after.getValue("G").position.parentId)
+    }
+
+    @Test
+    fun testReloadingBookHidesNewNotesUnderFoldedNotes() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n** B\n* E".byteInputStream())
+
+        val a = dataRepository.getNotesByTitle("A").single()
+        dataRepository.toggleNoteFoldedState(a.id)
+
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "* A\n** B\n** C\n*** D\n* E\n** F".byteInputStream())
+
+        val notes = dataRepository.getNotes("book-a").associate { it.note.title to it.note }
+
+        assertEquals(true, notes.getValue("A").position.isFolded)
+        assertEquals(false, notes.getValue("C").position.isFolded)
+
+        listOf("B", "C", "D").forEach {
+            assertEquals(it, a.id, notes.getValue(it).position.foldedUnderId)
+        }
+
+        assertEquals(0L, notes.getValue("F").position.foldedUnderId)
+    }
+
+    @Test
+    fun testLoadingBookWithMoreNotesThanChunk() {
+        val count = DataRepository.NOTES_CHUNK_SIZE * 2 + 1
+
+        val content = (1..count).joinToString("\n") { i ->
+            "* Note $i\nSCHEDULED: <2026-01-${(i % 28 + 1).toString().padStart(2, '0')}>"
+        }
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content.byteInputStream())
+
+        val notes = dataRepository.getNotes("book-a")
+
+        assertEquals(count, notes.size)
+        assertEquals("Note $count", notes.last().note.title)
+        assertEquals("<2026-01-${(count % 28 + 1).toString().padStart(2, '0')}>", notes.last().scheduledRangeString)
+    }
+
+    @Test
+    fun testReloadingBookWithAllNotesReplaced() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n* B".byteInputStream())
+
+        val bookId = dataRepository.getBook("book-a")!!.id
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* C\n* D\n* E".byteInputStream())
+
+        assertEquals(listOf("C", "D", "E"), dataRepository.getNotes("book-a").map { it.note.title })
+        assertEquals(bookId, dataRepository.getBook("book-a")!!.id)
+    }
+
+    @Test
+    fun testReloadingBookWithMoreNotesThanChunkAllChanged() {
+        val count = DataRepository.NOTES_CHUNK_SIZE * 2 + 1
+
+        fun content(prefix: String) = (1..count).joinToString("\n") { i ->
+            "* $prefix $i\n:PROPERTIES:\n:N: $prefix $i\n:END:"
+        }
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content("Note").byteInputStream())
+
+        val bookId = dataRepository.getBook("book-a")!!.id
+
+        // Every note changes, so the whole book is written in the publishing transaction
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, content("Changed").byteInputStream())
+
+        val notes = dataRepository.getNotes("book-a")
+
+        assertEquals((1..count).map { "Changed $it" }, notes.map { it.note.title })
+        assertEquals(
+                (1..count).map { "Changed $it" },
+                notes.map { dataRepository.getNoteProperties(it.note.id).single().value })
+        assertEquals(count, database.noteProperty().getAll().size)
+        assertEquals(bookId, dataRepository.getBook("book-a")!!.id)
+    }
+
+    @Test
+    fun testReadingNotesOfBookChangedWhileReading() {
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, "* A\n* B\n* C".byteInputStream())
+
+        val bookId = dataRepository.getBook("book-a")!!.id
+        val c = dataRepository.getNotesByTitle("C").single()
+
+        val titles = mutableListOf<String>()
+
+        assertThrows(ConcurrentModificationException::class.java) {
+            dataRepository.forEachNoteWithProperties(bookId, chunkSize = 1) { noteView, _ ->
+                titles.add(noteView.note.title)
+
+                // Moved above the notes already read
+                dataRepository.moveNote(bookId, setOf(c.id), -1)
+            }
+        }
+
+        assertEquals(listOf("A"), titles)
+    }
+
+    @Test
+    fun testFullVacuumOnlyWhenAllowed() {
+        fun autoVacuum(): Long {
+            return database.query("PRAGMA auto_vacuum", null).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getLong(0)
+            }
+        }
+
+        dataRepository.optimizeDatabase(allowFullVacuum = false)
+        assertEquals(0L, autoVacuum())
+
+        dataRepository.optimizeDatabase(allowFullVacuum = true)
+        assertEquals(2L, autoVacuum())
+    }
+
+    @Test
+    fun testDeletingUnusedRowsKeepsTimestampsOfNotes() {
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "* A\nSCHEDULED: <2026-01-01>\n* B\nDEADLINE: <2026-01-02>".byteInputStream())
+
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "* A\nSCHEDULED: <2026-01-01>\n* B".byteInputStream())
+
+        val deleted = dataRepository.deleteUnusedRows(limit = 1)
+
+        assertEquals(1, deleted["org_ranges"])
+        assertEquals(1, deleted["org_timestamps"])
+
+        assertEquals("<2026-01-01>", dataRepository.getNotes("book-a").first().scheduledRangeString)
+
+        assertEquals(0, dataRepository.deleteUnusedRows().values.sum())
+    }
+
+    @Test
+    fun testPastingCutNotesAfterDeletingUnusedRows() {
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "* A\nSCHEDULED: <2026-01-01>\n* B".byteInputStream())
+
+        val bookId = dataRepository.getBook("book-a")!!.id
+        val a = dataRepository.getNotesByTitle("A").first()
+        val b = dataRepository.getNotesByTitle("B").first()
+
+        val clipboard = NotesClipboard.create(dataRepository, setOf(a.id))
+        dataRepository.deleteNotes(bookId, setOf(a.id))
+
+        assertEquals(1, dataRepository.deleteUnusedRows()["org_ranges"])
+
+        assertEquals(1, dataRepository.pasteNotes(clipboard, bookId, b.id, Place.BELOW))
+
+        val pasted = dataRepository.getNotes("book-a").last()
+        assertEquals("A", pasted.note.title)
+        assertEquals("<2026-01-01>", pasted.scheduledRangeString)
+    }
+
+    @Test
+    fun testReloadingBookWithChangedFiletags() {
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "#+FILETAGS: :x:\n\n* A\n** B".byteInputStream())
+
+        dataRepository.loadBookFromStream(
+            "book-a", BookFormat.ORG, "#+FILETAGS: :y:\n\n* A\n** B".byteInputStream())
+
+        val ids = dataRepository.getNotes("book-a").map { it.note.id }.toSet()
+
+        assertEquals(ids, dataRepository.selectNoteIdsFromQuery("t.y", ids))
+        assertEquals(emptySet<Long>(), dataRepository.selectNoteIdsFromQuery("t.x", ids))
+
+        val b = dataRepository.getNotesByTitle("B").single()
+        assertEquals("y", dataRepository.getNoteView(b.id)!!.inheritedTags)
+    }
+}
@@ -0,0 +1,94 @@
+package com.orgzly.android.data
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class NotesSpaceTest {
+
+    private fun assertFits(space: NotesSpace, before: Long, after: Long, numberOfNotes: Int) {
+        assertTrue(before < space.position(1))
+        assertTrue(space.position(2L * numberOfNotes) < after + space.shift)
+    }
+
+    @Test
+    fun testUsesGapWithoutShifting() {
+        val space = NotesSpace.between(64, 128, 1, atEnd = false)
+
+        assertEquals(0, space.shift)
+        assertFits(space, 64, 128, 1)
+    }
+
+    @Test
+    fun testShiftsWhenGapIsTooSmall() {
+        val space = NotesSpace.between(10, 13, 2, atEnd = false)
+
+        assertTrue(space.shift > 0)
+        assertEquals(NotesSpace.SPACING, space.spacing)
+        assertFits(space, 10, 13, 2)
+    }
+
+    @Test
+    fun testFillsSmallGapCompletely() {
+        val space = NotesSpace.between(10, 13, 1, atEnd = true)
+
+        assertEquals(0, space.shift)
+        assertEquals(11, space.position(1))
+        assertEquals(12, space.position(2))
+    }
+
+    @Test
+    fun testKeepsRestOfGapOnTheRightSide() {
+        val first = NotesSpace.between(0, 1000, 1, atEnd = true)
+
+        // Next note above is placed in the remaining gap, before the first one
+        val second = NotesSpace.between(0, first.position(1), 1, atEnd = true)
+        assertEquals(0, second.shift)
+        assertFits(second, 0, first.position(1), 1)
+
+        val third = NotesSpace.between(first.position(2), 1000, 1, atEnd = false)
+        assertFits(third, first.position(2), 1000, 1)
+    }
+
+    @Test
+    fun testRepeatedInsertsShiftRarely() {
+        var after = 2 * NotesSpace.SPACING
+        var shifts = 0
+
+        // Prepending notes one by one
+        repeat(100) {
+            val space = NotesSpace.between(NotesSpace.SPACING, after, 1, atEnd = true)
+
+            if (space.shift > 0) {
+                shifts++
+            }
+
+            assertFits(space, NotesSpace.SPACING, after, 1)
+
+            after = space.position(1)
+        }
+
+        assertTrue("Shifted $shifts times", shifts <= 20)
+    }
+
+    @Test
+    fun testLoadedBookIsNotCrowded() {
+        assertFalse(NotesSpace.isCrowded(LongArray(10) { NotesSpace.spacedOut(it) }))
+    }
+
+    @Test
+    fun testBookWithUsedUpGapsIsCrowded() {
+        val values = LongArray(10) { NotesSpace.spacedOut(it) }.toMutableList()
+
+        // Notes inserted next to each other, one value apart
+        values.addAll(listOf(129L, 130L, 131L, 132L))
+
+        assertTrue(NotesSpace.isCrowded(values.sorted().toLongArray()))
+    }
+}
@@ -0,0 +1,45 @@
+package com.orgzly.android.data.logs
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.db.OrgzlyDatabase
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class DatabaseAppLogsRepositoryTest {
+
+    private lateinit var database: OrgzlyDatabase
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        database = OrgzlyDatabase.forMemory(context)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun testFlushStoresAllLoggedEntries() {
+        val repository = DatabaseAppLogsRepository(database)
+
+        (1..1200).forEach { repository.log("type", "message $it") }
+
+        repository.flush()
+
+        val messages = runBlocking { database.appLog().getFlow(2000).first() }.map { it.message }
+        assertEquals(1200, messages.size)
+        assertEquals("message 1200", messages.first())
+    }
+}
@@ -0,0 +1,56 @@
+package com.orgzly.android.db.dao
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.AppLog
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class AppLogDaoTest {
+
+    private lateinit var database: OrgzlyDatabase
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        database = OrgzlyDatabase.forMemory(context)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun testRetention() {
+        val dao = database.appLog()
+
+        dao.insert((1..10).map { AppLog(0, it * 1000L, "type", "message $it") })
+
+        assertEquals(2, dao.deleteOlderThan(3000))
+        assertEquals(3, dao.deleteAllButLatest(5))
+
+        val messages = runBlocking { dao.getFlow(100).first() }.map { it.message }
+        assertEquals((10 downTo 6).map { "message $it" }, messages)
+    }
+
+    @Test
+    fun testLimit() {
+        val dao = database.appLog()
+
+        dao.insert((1..10).map { AppLog(0, it * 1000L, "type", "message $it") })
+
+        val messages = runBlocking { dao.getFlow(3).first() }.map { it.message }
+        assertEquals(listOf("message 10", "message 9", "message 8"), messages)
+    }
+}
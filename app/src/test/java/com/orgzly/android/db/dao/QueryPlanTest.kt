@@ -0,0 +1,299 @@
+package com.orgzly.android.db.dao
+
+import android.content.Context
+import android.os.Looper
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.Observer
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.db.OrgzlyDatabase
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.Collections
+import java.util.concurrent.Executor
+
+/**
+ * Runs EXPLAIN QUERY PLAN on statements executed by query methods of DAOs reading notes
+ * and fails if notes are scanned or sorted.
+ *
+ * Statements are captured while calling the methods, so they are checked exactly as run by Room.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class QueryPlanTest {
+
+    private lateinit var database: OrgzlyDatabase
+
+    private val executed = Collections.synchronizedList(mutableListOf<Statement>())
+
+    private class Statement(val sql: String, val args: List<Any?>)
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+
+        // Run everything in place, so that statements are captured before methods return
+        database = Room.inMemoryDatabaseBuilder(context, OrgzlyDatabase::class.java)
+            .allowMainThreadQueries()
+            .setQueryExecutor(DIRECT)
+            .setTransactionExecutor(DIRECT)
+            .setQueryCallback({ sql, args -> executed.add(Statement(sql, args.toList())) }, DIRECT)
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun testNoteDaoDoesNotScanNotes() {
+        val dao = database.note()
+
+        assertNotesAreNotScanned(NoteDao::class.java, linkedMapOf<String, () -> Unit>(
+            "getCount(long)" to { dao.getCount(1) },
+            "get(long)" to { dao.get(1) },
+            "get(Set)" to { dao.get(setOf(1, 2)) },
+            "getVisibleLiveData(long)" to { observe(dao.getVisibleLiveData(1)) },
+            "getVisibleLiveDataNarrowed(long, long)" to { observe(dao.getVisibleLiveDataNarrowed(1, 2)) },
+            "getLast(String)" to { dao.getLast("Title") },
+            "getLast(Set)" to { dao.getLast(setOf(1, 2)) },
+            "getFirst(Set)" to { dao.getFirst(setOf(1, 2)) },
+            "getByTitle(String)" to { dao.getByTitle("Title") },
+            "getTopLevel(long)" to { dao.getTopLevel(1) },
+            "getChildren(long)" to { dao.getChildren(1) },
+            "getDistinctTagsLiveData()" to { observe(dao.getDistinctTagsLiveData()) },
+            "getDistinctTags()" to { dao.getDistinctTags() },
+            "deleteById(Set)" to { dao.deleteById(setOf(1, 2)) },
+            "deleteByBookId(long)" to { dao.deleteByBookId(1) },
+            "deleteCutByBookId(long)" to { dao.deleteCutByBookId(1) },
+            "deleteByIdsChunk(List)" to { dao.deleteByIdsChunk(listOf(1, 2)) },
+            "getNoteAndAncestorsIds(List)" to { dao.getNoteAndAncestorsIds(listOf(1, 2)) },
+            "getAncestors(long)" to { dao.getAncestors(1) },
+            "getNoteAndAncestors(long)" to { dao.getNoteAndAncestors(1) },
+            "getNoteAndParent(long)" to { dao.getNoteAndParent(1) },
+            "getNotesForSubtrees(Set)" to { dao.getNotesForSubtrees(setOf(1, 2)) },
+            "getNotesForSubtreesCount(Set)" to { dao.getNotesForSubtreesCount(setOf(1, 2)) },
+            "getBookUnfoldedNoteCount(long)" to { dao.getBookUnfoldedNoteCount(1) },
+            "getSubtreeFoldedNoteCount(List)" to { dao.getSubtreeFoldedNoteCount(listOf(1, 2)) },
+            "getPreviousSibling(long, long, long)" to { dao.getPreviousSibling(1, 128, 1) },
+            "getNextSibling(long, long, long)" to { dao.getNextSibling(1, 128, 1) },
+            "getLastHighestLevelDescendant(long, long, long)" to { dao.getLastHighestLevelDescendant(1, 128, 256) },
+            "incrementDescendantsCountForAncestors(long, long, long)" to { dao.incrementDescendantsCountForAncestors(1, 128, 256) },
+            "getRootNodeId(long)" to { dao.getRootNodeId(1) },
+            "getRootNode(long)" to { dao.getRootNode(1) },
+            "updateDescendantsCountForNoteAndAncestors(List)" to { dao.updateDescendantsCountForNoteAndAncestors(listOf(1, 2)) },
+            "updateDescendantsCountForAncestors(Set, Set)" to { dao.updateDescendantsCountForAncestors(setOf(1, 2), setOf(3)) },
+            "updateContent(long, String, int)" to { dao.updateContent(1, "Content", 1) },
+            "update(long, String, String, int, String, Long, Long, Long)" to { dao.update(1, "Title", "Content", 1, "TODO", null, null, null) },
+            "update(long, String, String, String)" to { dao.update(1, "Title", "TODO", "A") },
+            "updateScheduledTime(Set, Long)" to { dao.updateScheduledTime(setOf(1, 2), null) },
+            "updateDeadlineTime(Set, Long)" to { dao.updateDeadlineTime(setOf(1, 2), null) },
+            "foldAll1(long)" to { dao.foldAll1(1) },
+            "foldAll2(long)" to { dao.foldAll2(1) },
+            "unfoldAll(long)" to { dao.unfoldAll(1) },
+            "unfoldNotes(List)" to { dao.unfoldNotes(listOf(1, 2)) },
+            "unfoldSubtrees(List)" to { dao.unfoldSubtrees(listOf(1, 2)) },
+            "foldSubtreesSetRoots(List)" to { dao.foldSubtreesSetRoots(listOf(1, 2)) },
+            "foldSubtreesSetDescendants(List)" to { dao.foldSubtreesSetDescendants(listOf(1, 2)) },
+            "updateFoldedUnderForNoteFoldedUnderId(List)" to { dao.updateFoldedUnderForNoteFoldedUnderId(listOf(1, 2)) },
+            "updateIsFolded(long, boolean)" to { dao.updateIsFolded(1, true) },
+            "foldDescendantsUnderId(long, long, long, long)" to { dao.foldDescendantsUnderId(1, 1, 128, 256) },
+            "unfoldDescendantsUnderId(long, long, long, long)" to { dao.unfoldDescendantsUnderId(1, 1, 128, 256) },
+            "incrementLftForLftGe(long, long, long)" to { dao.incrementLftForLftGe(1, 128, 64) },
+            "incrementRgtForRgtGeOrRoot(long, long, long)" to { dao.incrementRgtForRgtGeOrRoot(1, 128, 64) },
+            "getPositionValueBefore(long, long)" to { dao.getPositionValueBefore(1, 128) },
+            "getPositionValueAfter(long, long)" to { dao.getPositionValueAfter(1, 128) },
+            "getPositionValues(long)" to { dao.getPositionValues(1) },
+            "updatePositionValues(long, long, long)" to { dao.updatePositionValues(1, 128, 256) },
+            "unfoldNotesFoldedUnderOthersChunk(List)" to { dao.unfoldNotesFoldedUnderOthersChunk(listOf(1, 2)) },
+            "foldUnfolded(Set, long)" to { dao.foldUnfolded(setOf(1, 2), 3) },
+            "updateNote(long, long, int, long, long, long)" to { dao.updateNote(1, 1, 1, 128, 256, 2) },
+            "allNotesHavingPropertyLowerCase(String, String)" to { dao.allNotesHavingPropertyLowerCase("name", "value") },
+            "updateStateAndRemoveClosedTime(Set, String)" to { dao.updateStateAndRemoveClosedTime(setOf(1, 2), "DONE") },
+            "getNoteForStateChange(Set, String)" to { dao.getNoteForStateChange(setOf(1, 2), "DONE") },
+            "getBookIdsForNotesNotMatchingState(Set, String)" to { dao.getBookIdsForNotesNotMatchingState(setOf(1, 2), "DONE") },
+            "getFirstNoteInBook(long)" to { dao.getFirstNoteInBook(1) },
+            "updateCreatedAtTime(long, long)" to { dao.updateCreatedAtTime(1, 1000) }
+        ))
+    }
+
+    @Test
+    fun testNoteViewDaoDoesNotScanNotes() {
+        val dao = database.noteView()
+
+        assertNotesAreNotScanned(NoteViewDao::class.java, linkedMapOf<String, () -> Unit>(
+            "get(long)" to { dao.get(1) },
+            "load(long, Continuation)" to { runBlocking { dao.load(1) } },
+            "getVisiblePagingSource(long)" to { load(dao.getVisiblePagingSource(1)) },
+            "getVisiblePagingSourceNarrowed(long, long)" to { load(dao.getVisiblePagingSourceNarrowed(1, 2)) },
+            "getVisibleLiveData(long, long, long)" to { observe(dao.getVisibleLiveData(1, 128, 256)) },
+            "getLast(String)" to { dao.getLast("Title") },
+            "getBookNotes(String)" to { dao.getBookNotes("Book") },
+            "getBookNotesAfter(long, long, int)" to { dao.getBookNotesAfter(1, 128, 100) }
+        ))
+    }
+
+    @Test
+    fun testBookViewDaoDoesNotScanNotes() {
+        val dao = database.bookView()
+
+        assertNotesAreNotScanned(BookViewDao::class.java, linkedMapOf<String, () -> Unit>(
+            "get(long)" to { dao.get(1) },
+            "get(String)" to { dao.get("Book") },
+            "load(long, Continuation)" to { runBlocking { dao.load(1) } },
+            "getAllFOrderByNameLiveData()" to { observe(dao.getAllFOrderByNameLiveData()) },
+            "getAllOrderByTimeLiveData()" to { observe(dao.getAllOrderByTimeLiveData()) },
+            "getAllFOrderByName()" to { dao.getAllFOrderByName() },
+            "getAllOrderByTime()" to { dao.getAllOrderByTime() }
+        ))
+    }
+
+    @Test
+    fun testVisibleNotesAreReadInOrder() {
+        val notes = database.note()
+        val noteViews = database.noteView()
+
+        assertNotesAreNotSorted(linkedMapOf(
+            "NoteDao.getVisibleLiveData" to { observe(notes.getVisibleLiveData(1)) },
+            "NoteDao.getVisibleLiveDataNarrowed" to { observe(notes.getVisibleLiveDataNarrowed(1, 2)) },
+            "NoteDao.getPositionValues" to { notes.getPositionValues(1) },
+            "NoteViewDao.getVisiblePagingSource" to { load(noteViews.getVisiblePagingSource(1)) },
+            "NoteViewDao.getVisiblePagingSourceNarrowed" to { load(noteViews.getVisiblePagingSourceNarrowed(1, 2)) },
+            "NoteViewDao.getVisibleLiveData" to { observe(noteViews.getVisibleLiveData(1, 128, 256)) },
+            "NoteViewDao.getBookNotesAfter" to { noteViews.getBookNotesAfter(1, 128, 100) }
+        ))
+    }
+
+    /**
+     * Calls every query method of the DAO, which has to be either in [methods] or in [UNCHECKED],
+     * so that methods added later can't be left out by mistake.
+     */
+    private fun assertNotesAreNotScanned(dao: Class<*>, methods: Map<String, () -> Unit>) {
+        val unchecked = UNCHECKED[dao].orEmpty().keys
+
+        val declared = dao.declaredMethods
+            .filter { Modifier.isAbstract(it.modifiers) }
+            .map { signature(it) }
+            .toSet()
+
+        val missing = declared - methods.keys - unchecked
+        assertTrue("Methods of ${dao.simpleName} not called by the test:\n" + missing.joinToString("\n"), missing.isEmpty())
+
+        val unknown = methods.keys + unchecked - declared
+        assertTrue("Methods not declared by ${dao.simpleName}:\n" + unknown.joinToString("\n"), unknown.isEmpty())
+
+        val failures = methods.flatMap { (method, call) ->
+            statementsOf(method, call).mapNotNull { statement ->
+                val scans = queryPlan(statement).filter { isNotesScan(it, notesAliases(statement.sql)) }
+
+                if (scans.isNotEmpty()) "$method: $scans" else null
+            }
+        }
+
+        assertTrue("Notes are scanned:\n" + failures.joinToString("\n"), failures.isEmpty())
+    }
+
+    /** Notes should be read from an index in order, instead of being sorted after reading. */
+    private fun assertNotesAreNotSorted(methods: Map<String, () -> Unit>) {
+        val failures = methods.flatMap { (method, call) ->
+            statementsOf(method, call).mapNotNull { statement ->
+                val sorts = queryPlan(statement).filter { it.startsWith("USE TEMP B-TREE") }
+
+                if (sorts.isNotEmpty()) "$method: $sorts" else null
+            }
+        }
+
+        assertTrue("Notes are sorted:\n" + failures.joinToString("\n"), failures.isEmpty())
+    }
+
+    /** Statements on notes executed by [call], which must run at least one. */
+    private fun statementsOf(method: String, call: () -> Unit): List<Statement> {
+        executed.clear()
+
+        call()
+
+        val statements = synchronized(executed) {
+            executed.filter { NOTES_TABLE.containsMatchIn(it.sql) && STATEMENT.containsMatchIn(it.sql) }
+        }
+
+        assertTrue("No statements on notes captured for $method", statements.isNotEmpty())
+
+        return statements
+    }
+
+    private fun queryPlan(statement: Statement): List<String> {
+        val query = SimpleSQLiteQuery("EXPLAIN QUERY PLAN ${statement.sql}", statement.args.toTypedArray())
+
+        return database.query(query).use { cursor ->
+            val detail = cursor.getColumnIndexOrThrow("detail")
+
+            generateSequence { if (cursor.moveToNext()) cursor.getString(detail) else null }.toList()
+        }
+    }
+
+    /** Full scans only, scans of indexes are reported as "SCAN table USING ... INDEX". */
+    private fun isNotesScan(detail: String, aliases: Set<String>): Boolean {
+        return FULL_SCAN.matchEntire(detail)?.let { it.groupValues[1] in aliases } ?: false
+    }
+
+    private fun notesAliases(sql: String): Set<String> {
+        return NOTES_ALIAS.findAll(sql).map { it.groupValues[1] }.toSet() + "notes"
+    }
+
+    /** Name and parameter types, like "get(long, String)". Query methods are abstract, so Room implements them. */
+    private fun signature(method: Method): String {
+        return method.name + method.parameterTypes.joinToString(", ", "(", ")") { it.simpleName }
+    }
+
+    private fun <T> observe(liveData: LiveData<T>) {
+        val observer = Observer<T> { }
+
+        liveData.observeForever(observer)
+        shadowOf(Looper.getMainLooper()).idle()
+        liveData.removeObserver(observer)
+    }
+
+    private fun <T : Any> load(pagingSource: PagingSource<Int, T>) {
+        runBlocking {
+            pagingSource.load(PagingSource.LoadParams.Refresh(key = null, loadSize = 50, placeholdersEnabled = true))
+        }
+    }
+
+    companion object {
+        private val DIRECT = Executor { it.run() }
+
+        /* Query methods not called by the test, with the reason why. */
+        private val UNCHECKED = mapOf(
+            NoteDao::class.java to mapOf(
+                "getAll()" to "Scans all notes by design, when updating created-at times of all notes"
+            ),
+            NoteViewDao::class.java to mapOf(
+                "getAll()" to "Scans all notes by design, when reformatting all notes",
+                "getAllWithScheduledOrDeadline()" to "Scans all notes by design, for all notes with times",
+                "runQuery(SupportSQLiteQuery)" to "Raw query, built by SqliteQueryBuilder",
+                "runQueryPagingSource(SupportSQLiteQuery)" to "Raw query, built by SqliteQueryBuilder",
+                "runIdsQuery(SupportSQLiteQuery)" to "Raw query, built by SqliteQueryBuilder"
+            )
+        )
+
+        private val NOTES_TABLE = Regex("\\bnotes\\b", RegexOption.IGNORE_CASE)
+
+        private val STATEMENT = Regex("^\\s*(SELECT|UPDATE|DELETE|WITH)\\b", RegexOption.IGNORE_CASE)
+
+        private val NOTES_ALIAS = Regex("\\bnotes\\s+(?:AS\\s+)?(\\w+)", RegexOption.IGNORE_CASE)
+
+        private val FULL_SCAN = Regex("SCAN (?:TABLE )?(\\w+)(?: AS \\w+)?")
+    }
+}
@@ -0,0 +1,55 @@
+package com.orgzly.android.db.dao
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.SavedSearch
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class SavedSearchDaoTest {
+
+    private lateinit var database: OrgzlyDatabase
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        database = OrgzlyDatabase.forMemory(context)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun testLoad() {
+        val dao = database.savedSearch()
+
+        val id = dao.insert(SavedSearch(0, "Agenda", ".it.done ad.7", 1))
+
+        assertEquals("Agenda", runBlocking { dao.load(id) }?.name)
+        assertNull(runBlocking { dao.load(id + 1) })
+    }
+
+    @Test
+    fun testFlowIsOrderedByPosition() {
+        val dao = database.savedSearch()
+
+        dao.insert(SavedSearch(0, "Second", "i.todo", 2))
+        dao.insert(SavedSearch(0, "First", "s.today", 1))
+
+        val names = runBlocking { dao.getFlow().first() }.map { it.name }
+        assertEquals(listOf("First", "Second"), names)
+    }
+}
@@ -0,0 +1,30 @@
+package com.orgzly.android.query
+
+import com.orgzly.android.query.user.InternalQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class QueryDependenciesTest {
+
+    private fun bookNames(queryString: String): Set<String>? {
+        val query = InternalQueryParser().parse(queryString)
+
+        return QueryDependencies.of(query, folding = false).bookNames
+    }
+
+    @Test
+    fun testBookNames() {
+        assertEquals(null, bookNames("i.todo"))
+        assertEquals(setOf("a"), bookNames("b.a"))
+        assertEquals(setOf("a"), bookNames("b.a i.todo"))
+        assertEquals(emptySet<String>(), bookNames("b.a b.b"))
+        assertEquals(setOf("a", "b"), bookNames("b.a or b.b"))
+        assertEquals(null, bookNames("b.a or i.todo"))
+        assertEquals(null, bookNames(".b.a"))
+    }
+}
@@ -12,6 +12,8 @@ import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.repos.RepoFactory
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
 import com.orgzly.android.util.MiscUtils
 import org.hamcrest.CoreMatchers.containsString
 import org.hamcrest.CoreMatchers.`is`
@@ -435,7 +437,7 @@ class QueryResultTest {
     @Test
     fun testInheritedTagSearchWhenMultipleAncestorsMatch() {
         setupBook("notebook-1",
-            """* Note A :tagtag:
+            """* Note A :tag:
                 |** Note B :tag:
                 |*** Note C
                 |*** Note D
@@ -614,4 +616,93 @@ class QueryResultTest {
         assertThat(results[1].note.title, `is`("Note C"))
         assertThat(results[2].note.title, `is`("Note A"))
     }
+
+    @Test
+    fun testTextSearchFollowsContentChanges() {
+        setupBook("notebook-1",
+            """* Note A
+                |Apple pie recipe.
+                |* Note B
+                |Pineapple.
+                |""".trimMargin())
+
+        val results = searchNotes("apple pie")
+
+        assertThat(results.size, `is`(1))
+        assertThat(results[0].note.title, `is`("Note A"))
+
+        dataRepository.updateNoteContent(results[0].note.id, "Cherry pie recipe.")
+
+        assertThat(searchNotes("apple pie").size, `is`(0))
+        assertThat(searchNotes("cherry pie").size, `is`(1))
+    }
+
+    @Test
+    fun testTextSearchMatchesStartsOfWords() {
+        setupBook("notebook-1",
+            """* Note A
+                |Apple pie recipe.
+                |* Note B
+                |Pineapple.
+                |* Note C
+                |Homework/housework
+                |""".trimMargin())
+
+        assertThat(searchNotes("apple").map { it.note.title }, `is`(listOf("Note A")))
+        assertThat(searchNotes("APP").map { it.note.title }, `is`(listOf("Note A")))
+        assertThat(searchNotes("pine").map { it.note.title }, `is`(listOf("Note B")))
+        assertThat(searchNotes("neapp").map { it.note.title }, `is`(emptyList<String>()))
+        assertThat(searchNotes("homework/house").map { it.note.title }, `is`(listOf("Note C")))
+        assertThat(searchNotes("work/house").map { it.note.title }, `is`(emptyList<String>()))
+        assertThat(searchNotes("apple pie rec").map { it.note.title }, `is`(listOf("Note A")))
+        assertThat(searchNotes("pie apple").map { it.note.title }, `is`(emptyList<String>()))
+    }
+
+    @Test
+    fun testTextSearchMatchesNonAsciiText() {
+        setupBook("notebook-1",
+            """* 東京の天気
+                |明日は晴れ
+                |* Note B
+                |Crème brûlée
+                |""".trimMargin())
+
+        assertThat(searchNotes("天気").map { it.note.title }, `is`(listOf("東京の天気")))
+        assertThat(searchNotes("は晴").map { it.note.title }, `is`(listOf("東京の天気")))
+        assertThat(searchNotes("crème brû").map { it.note.title }, `is`(listOf("Note B")))
+        assertThat(searchNotes("me brû").map { it.note.title }, `is`(emptyList<String>()))
+    }
+
+    @Test
+    fun testTagSearchMatchesWholeTags() {
+        setupBook("notebook-1",
+            """* Note A :tagtag:
+                |** Note B :tag:
+                |* Note C :TAG:
+                |""".trimMargin())
+
+        val results = searchNotes("t.tag")
+
+        assertThat(results.size, `is`(2))
+        assertThat(results[0].note.title, `is`("Note B"))
+        assertThat(results[1].note.title, `is`("Note C"))
+    }
+
+    @Test
+    fun testInheritedTagsFollowRefile() {
+        val book = setupBook("notebook-1",
+            """* Note A :a:
+                |* Note B :b:
+                |** Note C
+                |""".trimMargin())
+
+        val noteA = dataRepository.getLastNote("Note A")!!
+        val noteC = dataRepository.getLastNote("Note C")!!
+
+        dataRepository.refileNotes(setOf(noteC.id), NotePlace(book.book.id, noteA.id, Place.UNDER))
+
+        assertThat(searchNotes("t.b").map { it.note.title }, `is`(listOf("Note B")))
+        assertThat(searchNotes("t.a").map { it.note.title }, `is`(listOf("Note A", "Note C")))
+        assertThat(searchNotes("tn.a").map { it.note.title }, `is`(listOf("Note A")))
+    }
 }
@@ -0,0 +1,68 @@
+package com.orgzly.android.query.sql
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.TimeUtils
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Calendar
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class CompiledQueryCacheTest {
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+
+        AppPreferences.states(context, "TODO NEXT | DONE")
+        AppPreferences.defaultPriority(context, "B")
+
+        CompiledQueryCache.clear()
+    }
+
+    @Test
+    fun testSameQueryIsCompiledOnce() {
+        val first = CompiledQueryCache.compile(context, "i.todo s.today")
+        val second = CompiledQueryCache.compile(context, "i.todo s.today")
+
+        assertSame(first, second)
+        assertSame(first.sqlQuery, CompiledQueryCache.build(context, first.query))
+    }
+
+    @Test
+    fun testChangedStatesCompileQueryAgain() {
+        val first = CompiledQueryCache.compile(context, "it.todo")
+
+        AppPreferences.states(context, "TODO NEXT WAITING | DONE")
+
+        val second = CompiledQueryCache.compile(context, "it.todo")
+
+        assertNotSame(first, second)
+        assertEquals(
+                listOf("TODO", "NEXT", "WAITING"),
+                second.sqlQuery.selectionArgs.map { it.resolve() })
+    }
+
+    @Test
+    fun testRelativeTimesAreBound() {
+        val sqlQuery = CompiledQueryCache.compile(context, "s.le.3d").sqlQuery
+
+        assertFalse(sqlQuery.selection.contains(Regex("\\d{5,}")))
+        assertEquals(
+                listOf(SqlQuery.Argument.TimeFromNow(Calendar.DAY_OF_MONTH, 3, true)),
+                sqlQuery.selectionArgs)
+        assertEquals(
+                TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3, true),
+                sqlQuery.selectionArgs.first().resolve())
+    }
+}
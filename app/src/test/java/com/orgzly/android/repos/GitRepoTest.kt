@@ -11,6 +11,8 @@ import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.prefs.RepoPreferences
 import org.eclipse.jgit.api.Git
 import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -154,4 +156,206 @@ class GitRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testGetBooks_revisionsAreLastCommitsOfFiles() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            syncRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B1")
+            val b = syncRepo.storeBook(tmpFile, "b.org")
+            tmpFile.writeText("A2")
+            val a = syncRepo.storeBook(tmpFile, "a.org")
+
+            val books = syncRepo.books.associateBy { it.uri.toString() }
+
+            assertEquals(2, books.size)
+            assertEquals(a.revision, books[a.uri.toString()]!!.revision)
+            assertEquals(b.revision, books[b.uri.toString()]!!.revision)
+            assertEquals(b.mtime, books[b.uri.toString()]!!.mtime)
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testSyncRound_booksStoredInOneCommitAndPushedAtTheEnd() {
+        val gitRepo = syncRepo as GitRepo
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            val a1 = gitRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B1")
+            gitRepo.storeBook(tmpFile, "b.org")
+
+            val remote = Git.open(bareRepoDir)
+            val remoteHeadBefore = remote.repository.resolve("HEAD")
+            val commitsBefore = Git.open(gitWorkingTree).log().call().count()
+
+            val round = SyncRound()
+            gitRepo.beginSyncRound(round)
+            tmpFile.writeText("A2")
+            val storedA = gitRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B2")
+            gitRepo.storeBook(tmpFile, "b.org")
+
+            // Last commit until the round ends
+            assertEquals(a1.revision, storedA.revision)
+
+            val rooks = gitRepo.endSyncRound(round)
+
+            assertEquals(commitsBefore + 1, Git.open(gitWorkingTree).log().call().count())
+            assertEquals(remoteHeadBefore, remote.repository.resolve("HEAD"))
+
+            val head = gitFileSynchronizer.currentHead().name
+            assertEquals(setOf("/a.org", "/b.org"), rooks.map { it.uri.toString() }.toSet())
+            rooks.forEach { assertEquals(head, it.revision) }
+
+            gitRepo.tryPushIfHeadDiffersFromRemote()
+
+            assertEquals(head, remote.repository.resolve("HEAD").name)
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testSyncRound_booksStoredOutsideOfRoundAreCommittedSeparately() {
+        val gitRepo = syncRepo as GitRepo
+        val otherRepo = GitRepo.getInstance(RepoWithProps(Repo(0, RepoType.GIT, "file://$bareRepoDir")), context)
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            gitRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B1")
+            gitRepo.storeBook(tmpFile, "b.org")
+
+            val round = SyncRound()
+            gitRepo.beginSyncRound(round)
+            tmpFile.writeText("A2")
+            gitRepo.storeBook(tmpFile, "a.org")
+
+            // Saved from the UI while syncing
+            tmpFile.writeText("B2")
+            val storedB = otherRepo.storeBook(tmpFile, "b.org")
+
+            val lastCommit = Git.open(gitWorkingTree).log().setMaxCount(1).call().first()
+            assertEquals(lastCommit.name, storedB.revision)
+            assertEquals("Orgzly update: b.org", lastCommit.fullMessage)
+
+            val rooks = gitRepo.endSyncRound(round)
+            assertEquals(listOf("/a.org"), rooks.map { it.uri.toString() })
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testSyncRound_changesOfInterruptedRoundAreCommittedBeforeNextSync() {
+        val gitRepo = syncRepo as GitRepo
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            gitRepo.storeBook(tmpFile, "a.org")
+
+            // Staged by a sync which never ended
+            File(gitWorkingTree, ".git/${GitFileSynchronizer.STAGED_BY_SYNC_FILE}").writeText("a.org")
+            File(gitWorkingTree, "a.org").writeText("A2")
+            Git.open(gitWorkingTree).add().addFilepattern("a.org").call()
+
+            gitRepo.isUnchanged()
+
+            val git = Git.open(gitWorkingTree)
+            assertEquals(true, git.status().call().isClean)
+
+            val revision = gitFileSynchronizer.getFileRevision("a.org", gitFileSynchronizer.currentHead())
+            assertEquals("A2", String(git.repository.open(revision).bytes))
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testSyncRound_changesStagedOutsideOfAppAreNotCommitted() {
+        val gitRepo = syncRepo as GitRepo
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            gitRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B1")
+            gitRepo.storeBook(tmpFile, "b.org")
+
+            // Staged by a sync which never ended
+            File(gitWorkingTree, ".git/${GitFileSynchronizer.STAGED_BY_SYNC_FILE}").writeText("a.org")
+            File(gitWorkingTree, "a.org").writeText("A2")
+            Git.open(gitWorkingTree).add().addFilepattern("a.org").call()
+
+            // Staged by the user
+            File(gitWorkingTree, "b.org").writeText("B2")
+            Git.open(gitWorkingTree).add().addFilepattern("b.org").call()
+
+            val head = gitFileSynchronizer.currentHead()
+
+            assertThrows(IOException::class.java) {
+                gitRepo.isUnchanged()
+            }
+
+            assertEquals(head, gitFileSynchronizer.currentHead())
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testCleanCheck_changeMadeOutsideOfAppIsFoundAtStartOfSync() {
+        val gitRepo = syncRepo as GitRepo
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            gitRepo.storeBook(tmpFile, "a.org")
+            tmpFile.writeText("B1")
+            gitRepo.storeBook(tmpFile, "b.org")
+
+            File(gitWorkingTree, "a.org").writeText("Modified outside of the app")
+
+            assertThrows(IOException::class.java) {
+                gitRepo.isUnchanged()
+            }
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testCleanCheck_fileWrittenByAppIsCheckedAgainOnNextSync() {
+        val gitRepo = syncRepo as GitRepo
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("A1")
+            gitRepo.storeBook(tmpFile, "a.org")
+
+            // Repository found clean, only files written from now on are checked
+            gitRepo.isUnchanged()
+
+            tmpFile.writeText("A2")
+            gitRepo.storeBook(tmpFile, "a.org")
+
+            // Modified after the app wrote it, with no full status run since
+            File(gitWorkingTree, "a.org").writeText("Modified outside of the app")
+
+            val round = SyncRound()
+            gitRepo.beginSyncRound(round)
+            try {
+                tmpFile.writeText("B1")
+                assertThrows(IOException::class.java) {
+                    gitRepo.storeBook(tmpFile, "b.org")
+                }
+            } finally {
+                gitRepo.endSyncRound(round)
+            }
+        } finally {
+            tmpFile.delete()
+        }
+    }
+}
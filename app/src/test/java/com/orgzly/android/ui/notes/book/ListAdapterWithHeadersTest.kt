@@ -0,0 +1,140 @@
+package com.orgzly.android.ui.notes.book
+
+import android.os.Looper
+import android.view.ViewGroup
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.RecyclerView
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class ListAdapterWithHeadersTest {
+
+    private val scope = CoroutineScope(Job() + Dispatchers.Main)
+
+    @After
+    fun tearDown() {
+        scope.coroutineContext[Job]?.cancel()
+    }
+
+    @Test
+    fun testHeadersAndPlaceholders() {
+        val adapter = TestAdapter(headers = 1)
+
+        // Items 20 and 30 are loaded, 10 and 40 are not
+        submit(adapter, listOf(10L, 20L, 30L, 40L), loaded = 1..2)
+
+        assertEquals(5, adapter.itemCount)
+        assertEquals(4, adapter.getDataItemCount())
+
+        assertFalse(adapter.isPlaceholder(0))
+        assertTrue(adapter.isPlaceholder(1))
+        assertFalse(adapter.isPlaceholder(2))
+        assertFalse(adapter.isPlaceholder(3))
+        assertTrue(adapter.isPlaceholder(4))
+
+        assertNull(adapter.peekItem(1))
+        assertEquals(20L, adapter.peekItem(2))
+        assertEquals(30L, adapter.peekItem(3))
+    }
+
+    @Test
+    fun testItemIds() {
+        val adapter = TestAdapter(headers = 2)
+
+        submit(adapter, listOf(10L, 20L, 30L), loaded = 1..1)
+
+        val ids = (0 until adapter.itemCount).map { adapter.getItemId(it) }
+
+        assertEquals(-1L, ids[0])
+        assertEquals(-2L, ids[1])
+        assertEquals(20L, ids[3])
+
+        // Placeholders' IDs can't clash with anything else
+        assertEquals(ids.size, ids.toSet().size)
+        assertTrue(ids[2] < -2L)
+        assertTrue(ids[4] < -2L)
+    }
+
+    @Test
+    fun testWithoutHeaders() {
+        val adapter = TestAdapter(headers = 0)
+
+        submit(adapter, listOf(10L, 20L), loaded = 0..0)
+
+        assertEquals(2, adapter.itemCount)
+        assertEquals(10L, adapter.getItemId(0))
+        assertFalse(adapter.isPlaceholder(0))
+        assertTrue(adapter.isPlaceholder(1))
+    }
+
+    private fun submit(adapter: TestAdapter, items: List<Long>, loaded: IntRange) {
+        val pager = Pager(PagingConfig(pageSize = 1, enablePlaceholders = true)) {
+            FixedPagingSource(items, loaded)
+        }
+
+        scope.launch {
+            pager.flow.collectLatest { adapter.submitData(it) }
+        }
+
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    /** Returns the same page for every load, with placeholders for the other items. */
+    private class FixedPagingSource(
+            private val items: List<Long>,
+            private val loaded: IntRange) : PagingSource<Int, Long>() {
+
+        override fun getRefreshKey(state: PagingState<Int, Long>): Int? = null
+
+        override suspend fun load(params: LoadParams<Int>): LoadResult<Int, Long> {
+            return LoadResult.Page(
+                    data = items.slice(loaded),
+                    prevKey = null,
+                    nextKey = null,
+                    itemsBefore = loaded.first,
+                    itemsAfter = items.size - loaded.last - 1)
+        }
+    }
+
+    private class TestAdapter(headers: Int) :
+            ListAdapterWithHeaders<Long, RecyclerView.ViewHolder>(DIFF_CALLBACK, headers) {
+
+        override fun getLoadedItemId(item: Long): Long {
+            return item
+        }
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+            return createPlaceholderViewHolder(parent)
+        }
+
+        override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
+        }
+    }
+
+    companion object {
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<Long>() {
+            override fun areItemsTheSame(oldItem: Long, newItem: Long) = oldItem == newItem
+
+            override fun areContentsTheSame(oldItem: Long, newItem: Long) = oldItem == newItem
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.orgzly.android.ui.notes.query.agenda
+
+import com.orgzly.android.ui.TimeType
+import org.hamcrest.CoreMatchers.`is`
+import org.hamcrest.CoreMatchers.not
+import org.hamcrest.CoreMatchers.nullValue
+import org.hamcrest.CoreMatchers.sameInstance
+import org.hamcrest.MatcherAssert.assertThat
+import org.joda.time.DateTime
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [36])
+class AgendaExpansionCacheTest {
+
+    @Before
+    fun setUp() {
+        AgendaExpansionCache.clear()
+    }
+
+    @Test
+    fun testSameDayIsExpandedOnce() {
+        val today = DateTime(2024, 5, 1, 9, 0)
+
+        val first = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today, 7)
+        val second = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today.plusHours(5), 7)
+
+        assertThat(first?.expanded?.size, `is`(7))
+        assertThat(second, sameInstance(first))
+    }
+
+    @Test
+    fun testNextDayIsExpandedAgain() {
+        val today = DateTime(2024, 5, 1, 9, 0)
+
+        val first = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today, 7)
+        val second = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today.plusDays(1), 7)
+
+        assertThat(second, not(sameInstance(first)))
+        assertThat(second?.expanded?.first(), `is`(today.plusDays(1).withTimeAtStartOfDay()))
+    }
+
+    @Test
+    fun testExpansionsOfDifferentDaysAreKept() {
+        val today = DateTime(2024, 5, 1, 9, 0)
+
+        val first = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today, 7)
+
+        // Such as a widget which hasn't been updated since yesterday
+        AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today.minusDays(1), 7)
+
+        val second = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today, 7)
+
+        assertThat(second, sameInstance(first))
+    }
+
+    @Test
+    fun testExpansionsCantBeModified() {
+        val today = DateTime(2024, 5, 1, 9, 0)
+
+        val times = AgendaExpansionCache.expand("<2024-05-01 Wed +1d>", TimeType.SCHEDULED, today, 7)!!.expanded
+
+        assertThrows(UnsupportedOperationException::class.java) {
+            (times as MutableSet<DateTime>).clear()
+        }
+    }
+
+    @Test
+    fun testInactiveAndInvalidRanges() {
+        val today = DateTime(2024, 5, 1, 9, 0)
+
+        assertThat(AgendaExpansionCache.expand("[2024-05-01 Wed]", TimeType.EVENT, today, 7), nullValue())
+        assertThat(AgendaExpansionCache.expand("not a timestamp", TimeType.EVENT, today, 7), nullValue())
+    }
+}